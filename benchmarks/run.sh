@@ -0,0 +1,30 @@
+#!/bin/sh
+#
+# Builds the benchmarks together with the Android-free app sources they
+# exercise and runs them on the host JVM, e.g.
+#
+#   benchmarks/run.sh QueueBenchmark
+#
+# Without an argument every benchmark is run. The Android SDK is only needed
+# to compile; set ANDROID_JAR if it is not under $ANDROID_HOME.
+
+set -e
+cd "$(dirname "$0")"
+ANDROID_JAR=${ANDROID_JAR:-$ANDROID_HOME/platforms/android-21/android.jar}
+PACKAGE=com.example.android.basicmediadecoder.benchmark
+
+rm -rf out
+mkdir -p out
+javac -Xlint:all -Werror -d out -cp "$ANDROID_JAR" -sourcepath ../src:../gen:src \
+	$(find src -name '*.java')
+
+if [ $# -gt 0 ]; then
+	BENCHMARKS="$*"
+else
+	BENCHMARKS=$(cd src && find . -name '*Benchmark.java' \
+		-exec basename {} .java \; | sort)
+fi
+for benchmark in $BENCHMARKS; do
+	echo "== $benchmark"
+	java -cp out $PACKAGE.$benchmark
+done
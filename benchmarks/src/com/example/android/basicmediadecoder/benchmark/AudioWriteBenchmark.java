@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder.benchmark;
+
+import java.nio.ByteBuffer;
+
+import com.example.android.basicmediadecoder.AudioTrackDecoder;
+import com.example.android.basicmediadecoder.FixedWindowDropPolicy;
+import com.example.android.basicmediadecoder.Log;
+import com.example.android.basicmediadecoder.SampleQueue;
+import com.example.android.basicmediadecoder.SimulatedAudioSink;
+import com.example.android.basicmediadecoder.SimulatedDecoder;
+
+/**
+ * Cost of handing one decoded PCM buffer to the audio sink, for the buffer
+ * sizes of 1024-frame AAC output in mono, stereo and 5.1, through the staging
+ * copy and through direct {@link ByteBuffer} writes.
+ */
+public class AudioWriteBenchmark {
+	private static final int kSampleRate = 48000;
+	private static final int kFramesPerBuffer = 1024;
+
+	public static void main(String[] args) throws Exception {
+		Log.mDebug = false;
+		int[] channelCounts = { 1, 2, 6 };
+		for (int channelCount : channelCounts) {
+			run(channelCount, false);
+			run(channelCount, true);
+		}
+	}
+
+	private static void run(int channelCount, boolean directWrite)
+			throws Exception {
+		final int size = kFramesPerBuffer * 2 * channelCount;
+		// a direct buffer, like the ones MediaCodec hands out
+		final ByteBuffer pcm = ByteBuffer.allocateDirect(size);
+		SimulatedAudioSink sink = new SimulatedAudioSink(kSampleRate,
+				2 * channelCount, 4 * size, false);
+		sink.setDirectWrite(directWrite);
+		final AudioTrackDecoder decoder = new AudioTrackDecoder(
+				new SimulatedDecoder(1, 1, 1, 1, 0), new SampleQueue(1, 1),
+				sink, kSampleRate, channelCount, new FixedWindowDropPolicy(0, 0));
+		sink.play();
+		Bench.run("writeAudioTrack " + channelCount + "ch " + size + "B"
+				+ (directWrite ? " direct" : " staged"),
+				200000, size, new Bench.Body() {
+					@Override
+					public void run(int ops) {
+						for (int i = 0; i < ops; i++) {
+							while (!decoder.writeAudioTrack(pcm, 0, size)) {
+							}
+						}
+					}
+				});
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder.benchmark;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * A minimal benchmark harness for the host JVM. Each benchmark runs in
+ * batches: a few warm-up batches followed by measured ones. It reports
+ * operations per second and, like JMH's gc profiler, bytes allocated per
+ * operation by the benchmark thread.
+ */
+public final class Bench {
+	public interface Body {
+		/**
+		 * Runs {@code ops} operations.
+		 */
+		void run(int ops) throws Exception;
+	}
+
+	private static final int kWarmupBatches = 5;
+	private static final int kMeasuredBatches = 10;
+
+	private static final com.sun.management.ThreadMXBean sThreadBean = getThreadBean();
+
+	private Bench() {
+	}
+
+	/**
+	 * Runs {@code body} and prints one result line.
+	 *
+	 * @param opsPerBatch operations per batch, sized so that a batch takes
+	 *            in the order of 100 ms
+	 * @param bytesPerOp payload bytes per operation for the MB/s column, or 0
+	 */
+	public static void run(String name, int opsPerBatch, long bytesPerOp,
+			Body body) throws Exception {
+		for (int i = 0; i < kWarmupBatches; i++) {
+			body.run(opsPerBatch);
+		}
+		long allocated = allocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < kMeasuredBatches; i++) {
+			body.run(opsPerBatch);
+		}
+		long elapsedNs = System.nanoTime() - start;
+		allocated = allocatedBytes() - allocated;
+
+		long ops = (long) opsPerBatch * kMeasuredBatches;
+		double opsPerSecond = ops * 1e9 / elapsedNs;
+		StringBuilder line = new StringBuilder();
+		line.append(String.format("%-40s %14.1f ops/s", name, opsPerSecond));
+		if (bytesPerOp > 0) {
+			line.append(String.format(" %10.1f MB/s", opsPerSecond
+					* bytesPerOp / 1e6));
+		}
+		if (allocated >= 0) {
+			line.append(String.format(" %10.1f B/op %10.1f MB/s alloc",
+					(double) allocated / ops, allocated * 1e3 / elapsedNs));
+		}
+		System.out.println(line);
+	}
+
+	private static long allocatedBytes() {
+		if (sThreadBean == null) {
+			return -1;
+		}
+		return sThreadBean.getThreadAllocatedBytes(Thread.currentThread()
+				.getId());
+	}
+
+	private static com.sun.management.ThreadMXBean getThreadBean() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory
+				.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+			if (threadBean.isThreadAllocatedMemorySupported()) {
+				threadBean.setThreadAllocatedMemoryEnabled(true);
+				return threadBean;
+			}
+		}
+		return null;
+	}
+}
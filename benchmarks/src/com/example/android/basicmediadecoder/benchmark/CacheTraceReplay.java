@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+import android.media.DataSource;
+
+import com.example.android.basicmediadecoder.CachedDataSource;
+import com.example.android.basicmediadecoder.TsDataSource;
+
+/**
+ * Replays a trace of {@link DataSource#readAt} calls against a
+ * {@link CachedDataSource}, with and without read-ahead, e.g.
+ *
+ *   benchmarks/run.sh CacheTraceReplay
+ *
+ * replays a synthetic trace shaped like the reads of MediaExtractor over a
+ * transport stream: mostly sequential reads of a packet, some up to 64 KB,
+ * some reads stepping back and a few seeks, spaced out like reads between
+ * decoding samples. A recorded trace, one "offset size [gap us]" line per
+ * read, is replayed over the file it was recorded on with
+ *
+ *   java -cp benchmarks/out \
+ *       com.example.android.basicmediadecoder.benchmark.CacheTraceReplay \
+ *       trace.txt recording.ts [min hit rate]
+ *
+ * Every read is checked against {@link RandomAccessFile}. Reports the block
+ * hit rate and how many reads of the file the cache saved, each of which
+ * is a seek and read syscall pair without it, and fails if the hit rate
+ * with read-ahead is below the minimum.
+ */
+public final class CacheTraceReplay {
+	private static final int kFileSize = 32 * 1024 * 1024;
+	private static final int kTraceReads = 20000;
+	// time between reads spent demuxing and decoding, without it the replay
+	// outruns read-ahead
+	private static final int kReadGapUs = 100;
+	// the extractor reads packet by packet, larger reads are rarer
+	private static final int[] kReadSizes = { 188, 7 * 188, 64 * 188,
+			64 * 1024 };
+	private static final int[] kReadSizeWeights = { 900, 70, 20, 10 };
+	// with read-ahead only the first blocks after a seek miss
+	private static final double kMinSyntheticHitRate = 0.95;
+
+	private CacheTraceReplay() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		File file;
+		long[] trace;
+		double minHitRate;
+		if (args.length >= 2) {
+			trace = readTrace(args[0]);
+			file = new File(args[1]);
+			minHitRate = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+		} else {
+			file = createFile();
+			trace = createTrace(kFileSize);
+			minHitRate = kMinSyntheticHitRate;
+		}
+		try {
+			replay("no read-ahead", file, trace, 0, 0);
+			replay("read-ahead", file, trace, 8, minHitRate);
+		} finally {
+			if (args.length < 2) {
+				file.delete();
+			}
+		}
+	}
+
+	private static void replay(String name, File file, long[] trace,
+			int readAheadBlocks, double minHitRate) throws IOException {
+		CountingDataSource counting = new CountingDataSource(new TsDataSource(
+				file.getPath()));
+		CachedDataSource cached = new CachedDataSource(counting, 64, 64,
+				readAheadBlocks);
+		RandomAccessFile reference = new RandomAccessFile(file, "r");
+		int maxSize = 0;
+		for (int i = 1; i < trace.length; i += 3) {
+			maxSize = Math.max(maxSize, (int) trace[i]);
+		}
+		byte[] buffer = new byte[maxSize];
+		byte[] expected = new byte[maxSize];
+		int reads = trace.length / 3;
+		long startNs = System.nanoTime();
+		try {
+			for (int i = 0; i < reads; i++) {
+				long offset = trace[3 * i];
+				int size = (int) trace[3 * i + 1];
+				long gapUs = trace[3 * i + 2];
+				if (gapUs > 0) {
+					LockSupport.parkNanos(gapUs * 1000);
+				}
+				int n = cached.readAt(offset, buffer, size);
+				int m = readFully(reference, offset, expected, size);
+				if (n != m
+						|| (n > 0 && !Arrays.equals(
+								Arrays.copyOf(buffer, n),
+								Arrays.copyOf(expected, n)))) {
+					throw new IllegalStateException(name + ": read " + i
+							+ " at " + offset + " returned " + n
+							+ " bytes, the file has " + m);
+				}
+			}
+		} finally {
+			reference.close();
+		}
+		long elapsedMs = (System.nanoTime() - startNs) / 1000000;
+		long hits = cached.getHitCount();
+		long misses = cached.getMissCount();
+		double hitRate = (double) hits / Math.max(1, hits + misses);
+		System.out.println(String.format(
+				"%-14s %6d reads  hit rate %5.1f%%  prefetched %5d"
+						+ " (%5d used)  file reads %6d  saved %5.1f%%  %5d ms",
+				name, reads, hitRate * 100, cached.getPrefetchCount(),
+				cached.getPrefetchHitCount(), counting.mReads,
+				100.0 - counting.mReads * 100.0 / reads, elapsedMs));
+		cached.close();
+		if (hitRate < minHitRate) {
+			throw new IllegalStateException(String.format(
+					"%s: hit rate %.3f below %.3f", name, hitRate, minHitRate));
+		}
+	}
+
+	private static int readFully(RandomAccessFile file, long offset,
+			byte[] buffer, int size) throws IOException {
+		if (offset >= file.length()) {
+			return -1;
+		}
+		file.seek(offset);
+		int total = 0;
+		while (total < size) {
+			int n = file.read(buffer, total, size - total);
+			if (n <= 0) {
+				break;
+			}
+			total += n;
+		}
+		return total;
+	}
+
+	/**
+	 * @return offset, size and preceding gap of every read, in turn
+	 */
+	private static long[] readTrace(String path) throws IOException {
+		long[] trace = new long[1024];
+		int count = 0;
+		BufferedReader in = new BufferedReader(new FileReader(path));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split("\\s+");
+				if (count + 3 > trace.length) {
+					trace = Arrays.copyOf(trace, trace.length * 2);
+				}
+				trace[count++] = Long.parseLong(fields[0]);
+				trace[count++] = Integer.parseInt(fields[1]);
+				trace[count++] = fields.length > 2 ? Long.parseLong(fields[2])
+						: 0;
+			}
+		} finally {
+			in.close();
+		}
+		return Arrays.copyOf(trace, count);
+	}
+
+	private static long[] createTrace(long length) {
+		Random random = new Random(1);
+		long[] trace = new long[3 * kTraceReads];
+		long offset = 0;
+		for (int i = 0; i < kTraceReads; i++) {
+			int size = pickSize(random.nextInt(1000));
+			int dice = random.nextInt(1000);
+			if (dice == 0 || offset + size > length) {
+				// a seek, to a packet boundary
+				offset = (long) (random.nextDouble() * (length - size));
+				offset -= offset % 188;
+			} else if (dice < 50) {
+				// probing a little behind
+				offset = Math.max(0, offset - 188 * random.nextInt(64));
+			}
+			trace[3 * i] = offset;
+			trace[3 * i + 1] = size;
+			trace[3 * i + 2] = kReadGapUs;
+			offset += size;
+		}
+		return trace;
+	}
+
+	private static int pickSize(int dice) {
+		int i = 0;
+		while (dice >= kReadSizeWeights[i]) {
+			dice -= kReadSizeWeights[i++];
+		}
+		return kReadSizes[i];
+	}
+
+	private static File createFile() throws IOException {
+		File file = File.createTempFile("trace", ".ts");
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			byte[] chunk = new byte[188 * 1024];
+			new Random(2).nextBytes(chunk);
+			for (int written = 0; written < kFileSize; written += chunk.length) {
+				out.write(chunk);
+			}
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	/**
+	 * Counts the reads that reach the file.
+	 */
+	private static class CountingDataSource implements DataSource {
+		private final DataSource mSource;
+		long mReads;
+
+		CountingDataSource(DataSource source) {
+			mSource = source;
+		}
+
+		@Override
+		public int readAt(long offset, byte[] buffer, int size) {
+			++mReads;
+			return mSource.readAt(offset, buffer, size);
+		}
+
+		@Override
+		public long getSize() {
+			return mSource.getSize();
+		}
+
+		@Override
+		public void close() throws IOException {
+			mSource.close();
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder.benchmark;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.example.android.basicmediadecoder.AdaptiveFrameDropPolicy;
+import com.example.android.basicmediadecoder.AudioTrackDecoder;
+import com.example.android.basicmediadecoder.DecodePipeline;
+import com.example.android.basicmediadecoder.Decoder;
+import com.example.android.basicmediadecoder.DecoderPool;
+import com.example.android.basicmediadecoder.FixedWindowDropPolicy;
+import com.example.android.basicmediadecoder.LatencyHistogram;
+import com.example.android.basicmediadecoder.Log;
+import com.example.android.basicmediadecoder.PipelineMetrics;
+import com.example.android.basicmediadecoder.SampleQueue;
+import com.example.android.basicmediadecoder.SimulatedAudioSink;
+import com.example.android.basicmediadecoder.SimulatedDecoder;
+import com.example.android.basicmediadecoder.SimulatedSampleSource;
+import com.example.android.basicmediadecoder.VideoTrackDecoder;
+
+/**
+ * Switches back and forth between two channels of different formats, with
+ * decoders created for every switch and with decoders from a
+ * {@link DecoderPool}, e.g.
+ *
+ *   benchmarks/run.sh ChannelSwitchSimulation
+ *
+ * The stand-in codecs take as long to create, configure and start as
+ * hardware codecs do. Reports the time to the first video frame of each
+ * channel, including the first visit of each channel that fills an empty
+ * pool, and what the pool did.
+ */
+public final class ChannelSwitchSimulation {
+	private static final int kSwitches = 20;
+	private static final long kDurationUs = 5000000;
+	private static final long kVideoFrameUs = 40000;
+	private static final long kAudioFrameUs = 21333;
+	private static final int kVideoSampleSize = 16 * 1024;
+	private static final int kAudioSampleSize = 400;
+	// create and configure, then start
+	private static final long kVideoCreateUs = 60000;
+	private static final long kVideoStartUs = 90000;
+	private static final long kAudioCreateUs = 20000;
+	private static final long kAudioStartUs = 15000;
+	private static final long kTimeoutMs = 5000;
+
+	private static final String[] kVideoKeys = { "video/avc 1920x1080",
+			"video/avc 1280x720" };
+	private static final String[] kAudioKeys = { "audio/mp4a-latm 48000 Hz",
+			"audio/mp4a-latm 44100 Hz" };
+
+	private ChannelSwitchSimulation() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		Log.mDebug = false;
+		ScheduledExecutorService pool = DecodePipeline.newWorkerPool(2);
+		switchChannels("new decoders", pool, null);
+		PipelineMetrics metrics = new PipelineMetrics();
+		DecoderPool decoders = new DecoderPool(4);
+		decoders.setMetrics(metrics);
+		switchChannels("pooled", pool, decoders);
+		PipelineMetrics.Snapshot snapshot = metrics.snapshot();
+		System.out.println(String.format(
+				"pool hits %d misses %d evictions %d idle %d",
+				snapshot.getCounter("decoderPool.hits"),
+				snapshot.getCounter("decoderPool.misses"),
+				snapshot.getCounter("decoderPool.evictions"),
+				decoders.getIdleCount()));
+		// memory pressure empties the pool, preparing fills it again
+		decoders.trim(0);
+		for (int i = 0; i < kVideoKeys.length; i++) {
+			decoders.prepare(kVideoKeys[i], new SlowFactory(kVideoSampleSize,
+					64, kVideoCreateUs, kVideoStartUs));
+			decoders.prepare(kAudioKeys[i], new SlowFactory(kAudioSampleSize,
+					4096, kAudioCreateUs, kAudioStartUs));
+		}
+		switchChannels("trimmed, prepared", pool, decoders);
+		decoders.trim(0);
+		pool.shutdown();
+	}
+
+	private static void switchChannels(String name,
+			ScheduledExecutorService pool, DecoderPool decoders)
+			throws Exception {
+		LatencyHistogram firstFrameUs = new LatencyHistogram();
+		int timeouts = 0;
+		for (int i = 0; i < kSwitches; i++) {
+			int channel = i % kVideoKeys.length;
+			long startNs = System.nanoTime();
+			SimulatedSampleSource source = new SimulatedSampleSource(
+					kDurationUs);
+			int video = source.addTrack("video/avc", kVideoFrameUs,
+					kVideoSampleSize, 25);
+			int audio = source.addTrack("audio/mp4a-latm", kAudioFrameUs,
+					kAudioSampleSize, 1);
+			DecodePipeline pipeline = new DecodePipeline(name, source, pool);
+			SampleQueue samples = pipeline.addTrack(video, 32,
+					kVideoSampleSize);
+			Decoder codec = acquire(decoders, kVideoKeys[channel],
+					new SlowFactory(kVideoSampleSize, 64, kVideoCreateUs,
+							kVideoStartUs));
+			pipeline.setVideoDecoder(new VideoTrackDecoder(codec, samples,
+					new AdaptiveFrameDropPolicy(-10000, 30000)));
+			samples = pipeline.addTrack(audio, 64, kAudioSampleSize);
+			codec = acquire(decoders, kAudioKeys[channel], new SlowFactory(
+					kAudioSampleSize, 4096, kAudioCreateUs, kAudioStartUs));
+			pipeline.setAudioDecoder(new AudioTrackDecoder(codec, samples,
+					new SimulatedAudioSink(48000, 4, 16 * 1024, true), 48000,
+					2, new FixedWindowDropPolicy(-10000, 30000)));
+			pipeline.start();
+			while (pipeline.getTimeToFirstFrameUs() < 0
+					&& System.nanoTime() - startNs < kTimeoutMs * 1000000) {
+				Thread.sleep(1);
+			}
+			long timeUs = pipeline.getTimeToFirstFrameUs();
+			pipeline.release();
+			source.release();
+			if (timeUs < 0) {
+				++timeouts;
+			} else {
+				firstFrameUs.record(timeUs);
+			}
+		}
+		System.out.println(String.format(
+				"%-18s first frame p50 %6d us p99 %6d us max %6d us"
+						+ "  timeouts %d", name,
+				firstFrameUs.getValueAtPercentile(50),
+				firstFrameUs.getValueAtPercentile(99),
+				firstFrameUs.getMax(), timeouts));
+	}
+
+	private static Decoder acquire(DecoderPool decoders, String key,
+			SlowFactory factory) {
+		if (decoders == null) {
+			return factory.create();
+		}
+		return decoders.acquire(key, factory);
+	}
+
+	/**
+	 * Creates stand-in codecs that take as long as a hardware codec to
+	 * create and configure, and to start.
+	 */
+	private static class SlowFactory implements DecoderPool.Factory {
+		private final int mInputSize;
+		private final int mOutputSize;
+		private final long mCreateUs;
+		private final long mStartUs;
+
+		SlowFactory(int inputSize, int outputSize, long createUs, long startUs) {
+			mInputSize = inputSize;
+			mOutputSize = outputSize;
+			mCreateUs = createUs;
+			mStartUs = startUs;
+		}
+
+		@Override
+		public Decoder create() {
+			try {
+				Thread.sleep(mCreateUs / 1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			SimulatedDecoder decoder = new SimulatedDecoder(8, 8, mInputSize,
+					mOutputSize, 2000);
+			decoder.setStartLatency(mStartUs);
+			return decoder;
+		}
+	}
+}
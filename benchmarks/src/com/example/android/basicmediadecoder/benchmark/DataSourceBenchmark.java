@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import android.media.DataSource;
+
+import com.example.android.basicmediadecoder.CachedDataSource;
+import com.example.android.basicmediadecoder.MappedDataSource;
+import com.example.android.basicmediadecoder.ObjectPool;
+import com.example.android.basicmediadecoder.TsDataSource;
+
+/**
+ * Sequential and random {@link DataSource#readAt} throughput of the file
+ * backed data sources, over a temporary file or the file given as argument.
+ * Before timing them, checks what each source reads against
+ * {@link RandomAccessFile}: across mapping windows, at and past the end.
+ */
+public class DataSourceBenchmark {
+	private static final int kFileSize = 64 * 1024 * 1024;
+	// MediaExtractor mostly asks for a few packets at a time
+	private static final int kSequentialReadSize = 7 * 188;
+	private static final int kRandomReadSize = 4096;
+	// the default window of MappedDataSource
+	private static final long kWindowSize = 64l * 1024 * 1024;
+	// not a multiple of the packet or page size, to cross windows often
+	private static final long kSmallWindowSize = 1000 * 1000;
+	private static final int[] kCheckReadSizes = { 1, 188, 4096,
+			1024 * 1024 };
+	private static final int kRandomChecks = 2000;
+
+	public static void main(String[] args) throws Exception {
+		// measure what a release build allocates
+		ObjectPool.setTrackLeaksByDefault(false);
+		File file = args.length > 0 ? new File(args[0]) : createFile();
+		String path = file.getPath();
+		try {
+			check("TsDataSource", new TsDataSource(path), file);
+			check("CachedDataSource", new CachedDataSource(
+					new TsDataSource(path)), file);
+			check("MappedDataSource", new MappedDataSource(path), file);
+			check("MappedDataSource small window", new MappedDataSource(path,
+					kSmallWindowSize), file);
+			run("TsDataSource", new TsDataSource(path), file.length());
+			run("CachedDataSource", new CachedDataSource(new TsDataSource(path)),
+					file.length());
+			run("MappedDataSource", new MappedDataSource(path), file.length());
+		} finally {
+			if (args.length == 0) {
+				file.delete();
+			}
+		}
+	}
+
+	private static void run(String name, final DataSource source,
+			final long length) throws Exception {
+		final byte[] buffer = new byte[kRandomReadSize];
+		Bench.run(name + " sequential", 100000, kSequentialReadSize,
+				new Bench.Body() {
+					long mOffset;
+
+					@Override
+					public void run(int ops) {
+						for (int i = 0; i < ops; i++) {
+							if (mOffset + kSequentialReadSize > length) {
+								mOffset = 0;
+							}
+							mOffset += source.readAt(mOffset, buffer,
+									kSequentialReadSize);
+						}
+					}
+				});
+		Bench.run(name + " random", 20000, kRandomReadSize, new Bench.Body() {
+			final Random mRandom = new Random(1);
+
+			@Override
+			public void run(int ops) {
+				for (int i = 0; i < ops; i++) {
+					long offset = (long) (mRandom.nextDouble() * (length - kRandomReadSize));
+					source.readAt(offset, buffer, kRandomReadSize);
+				}
+			}
+		});
+		source.close();
+	}
+
+	private static void check(String name, DataSource source, File file)
+			throws IOException {
+		RandomAccessFile reference = new RandomAccessFile(file, "r");
+		try {
+			long length = reference.length();
+			if (source.getSize() != length) {
+				throw new IllegalStateException(name + ": size "
+						+ source.getSize() + ", the file has " + length);
+			}
+			int checks = 0;
+			for (int size : kCheckReadSizes) {
+				for (long window : new long[] { kWindowSize, kSmallWindowSize }) {
+					for (long boundary = window; boundary < length; boundary += window) {
+						check(name, source, reference, boundary - size / 2, size);
+						check(name, source, reference, boundary - 1, size);
+						check(name, source, reference, boundary, size);
+						checks += 3;
+					}
+				}
+				// short reads at the end, nothing past it
+				check(name, source, reference, length - size / 2, size);
+				check(name, source, reference, length - 1, size);
+				check(name, source, reference, length, size);
+				check(name, source, reference, length + size, size);
+				check(name, source, reference, length + kWindowSize, size);
+				checks += 5;
+			}
+			Random random = new Random(2);
+			for (int i = 0; i < kRandomChecks; i++) {
+				int size = 1 + random.nextInt(kRandomReadSize * 4);
+				check(name, source, reference,
+						(long) (random.nextDouble() * (length + size)), size);
+			}
+			checks += kRandomChecks;
+			System.out.println(name + ": " + checks + " reads match");
+		} finally {
+			reference.close();
+			source.close();
+		}
+	}
+
+	private static void check(String name, DataSource source,
+			RandomAccessFile reference, long offset, int size)
+			throws IOException {
+		byte[] buffer = new byte[size];
+		byte[] expected = new byte[size];
+		int n = source.readAt(offset, buffer, size);
+		int m = -1;
+		if (offset < reference.length()) {
+			reference.seek(offset);
+			m = 0;
+			while (m < size) {
+				int read = reference.read(expected, m, size - m);
+				if (read <= 0) {
+					break;
+				}
+				m += read;
+			}
+		}
+		if (n != m
+				|| (n > 0 && !Arrays.equals(Arrays.copyOf(buffer, n),
+						Arrays.copyOf(expected, n)))) {
+			throw new IllegalStateException(name + ": " + size + " bytes at "
+					+ offset + " read " + n + ", the file has " + m);
+		}
+	}
+
+	private static File createFile() throws IOException {
+		File file = File.createTempFile("datasource", ".ts");
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			// different everywhere, so that reads from the wrong offset fail
+			// the checks
+			byte[] chunk = new byte[188 * 1024];
+			Random random = new Random(1);
+			for (int written = 0; written < kFileSize; written += chunk.length) {
+				random.nextBytes(chunk);
+				out.write(chunk);
+			}
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
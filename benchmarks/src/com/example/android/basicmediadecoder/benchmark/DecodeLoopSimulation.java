@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.example.android.basicmediadecoder.AudioTrackDecoder;
+import com.example.android.basicmediadecoder.DecodePipeline;
+import com.example.android.basicmediadecoder.Demuxer;
+import com.example.android.basicmediadecoder.FixedWindowDropPolicy;
+import com.example.android.basicmediadecoder.Log;
+import com.example.android.basicmediadecoder.MediaClock;
+import com.example.android.basicmediadecoder.SampleQueue;
+import com.example.android.basicmediadecoder.SimulatedAudioSink;
+import com.example.android.basicmediadecoder.SimulatedDecoder;
+import com.example.android.basicmediadecoder.SimulatedSampleSource;
+import com.example.android.basicmediadecoder.TrackDecoder;
+import com.example.android.basicmediadecoder.VideoTrackDecoder;
+
+/**
+ * Plays a few seconds of video and audio in real time on simulated codecs,
+ * once with the polling loop the decoder thread used to run, which steps
+ * the tracks over and over whether there is work or not, and once with
+ * {@link DecodePipeline}, which parks each track until a sample arrives, an
+ * output is due or the codec poll interval passes, e.g.
+ *
+ *   benchmarks/run.sh DecodeLoopSimulation
+ *
+ * Reports how often the decode thread woke up and how much CPU it used,
+ * without the demuxer thread, which is the same in both, and fails if the
+ * parked pipeline drops frames the loop did not or burns more CPU.
+ */
+public final class DecodeLoopSimulation {
+	private static final long kDurationUs = 3000000;
+	private static final long kVideoFrameUs = 40000;
+	private static final long kAudioFrameUs = 21333;
+	private static final int kVideoSampleSize = 16 * 1024;
+	private static final int kAudioSampleSize = 400;
+	private static final long kCodecLatencyUs = 2000;
+	private static final long kTimeoutMs = 10000;
+
+	private static final ThreadMXBean sThreadBean = ManagementFactory
+			.getThreadMXBean();
+
+	private DecodeLoopSimulation() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		Log.mDebug = false;
+		Result polling = runPolling();
+		Result parked = runPipeline();
+		if (parked.mCpuNs >= polling.mCpuNs
+				|| parked.mDropped > polling.mDropped + 1) {
+			throw new IllegalStateException("parking is no better");
+		}
+	}
+
+	private static class Result {
+		final String mName;
+		long mWakeups;
+		long mCpuNs;
+		long mElapsedNs;
+		long mRendered;
+		long mDropped;
+
+		Result(String name) {
+			mName = name;
+		}
+
+		void print() {
+			System.out.println(String.format(
+					"%-8s %9d wakeups %9.0f/s  cpu %6d ms %5.1f%% of a core"
+							+ "  video %3d rendered %3d dropped", mName,
+					mWakeups, mWakeups * 1e9 / mElapsedNs,
+					mCpuNs / 1000000, mCpuNs * 100.0 / mElapsedNs,
+					mRendered, mDropped));
+		}
+	}
+
+	/**
+	 * The loop of the original decoder thread: step both tracks back to
+	 * back until they have ended.
+	 */
+	private static Result runPolling() throws Exception {
+		SimulatedSampleSource source = createSource();
+		Demuxer demuxer = new Demuxer(source);
+		final VideoTrackDecoder video = createVideo(demuxer.addTrack(0, 32,
+				kVideoSampleSize));
+		final AudioTrackDecoder audio = createAudio(demuxer.addTrack(1, 64,
+				kAudioSampleSize));
+		final MediaClock clock = new MediaClock();
+		clock.setAudioTimeSource(audio);
+		video.setClock(clock);
+		video.start();
+		audio.start();
+		final Result result = new Result("polling");
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				long cpuNs = sThreadBean.getCurrentThreadCpuTime();
+				long startNs = System.nanoTime();
+				while ((!isDone(video) || !isDone(audio))
+						&& System.nanoTime() - startNs < kTimeoutMs * 1000000) {
+					++result.mWakeups;
+					audio.doSomeWork();
+					video.doSomeWork();
+					if (!clock.isStarted()) {
+						// once both tracks have decoded something
+						long audioUs = audio.getPendingTimeUs();
+						long videoUs = video.getPendingTimeUs();
+						if (audioUs != Long.MAX_VALUE && videoUs != Long.MAX_VALUE) {
+							clock.start(Math.min(audioUs, videoUs));
+						}
+						continue;
+					}
+					audio.doRender(clock.getTimeUs());
+					video.doRender(clock.peekTimeUs());
+				}
+				result.mElapsedNs = System.nanoTime() - startNs;
+				result.mCpuNs = sThreadBean.getCurrentThreadCpuTime() - cpuNs;
+			}
+		}, "decode");
+		demuxer.start();
+		thread.start();
+		thread.join();
+		demuxer.stop();
+		if (!isDone(video) || !isDone(audio)) {
+			throw new IllegalStateException("did not finish");
+		}
+		result.mRendered = video.getRenderedCount();
+		result.mDropped = video.getDroppedCount();
+		video.release();
+		audio.release();
+		source.release();
+		result.print();
+		return result;
+	}
+
+	private static Result runPipeline() throws Exception {
+		final AtomicLong wakeups = new AtomicLong();
+		final List<Thread> threads = new ArrayList<Thread>();
+		ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(1,
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "decode");
+						thread.setDaemon(true);
+						threads.add(thread);
+						return thread;
+					}
+				}) {
+			@Override
+			protected void beforeExecute(Thread t, Runnable r) {
+				wakeups.incrementAndGet();
+			}
+		};
+		// start the worker, so that it is there to be measured
+		pool.prestartAllCoreThreads();
+		SimulatedSampleSource source = createSource();
+		DecodePipeline pipeline = new DecodePipeline("parked", source, pool);
+		VideoTrackDecoder video = createVideo(pipeline.addTrack(0, 32,
+				kVideoSampleSize));
+		pipeline.setVideoDecoder(video);
+		pipeline.setAudioDecoder(createAudio(pipeline.addTrack(1, 64,
+				kAudioSampleSize)));
+		Result result = new Result("parked");
+		long cpuNs = getCpuNs(threads);
+		long startNs = System.nanoTime();
+		wakeups.set(0);
+		pipeline.start();
+		boolean done = pipeline.awaitEndOfStream(kTimeoutMs);
+		result.mElapsedNs = System.nanoTime() - startNs;
+		result.mCpuNs = getCpuNs(threads) - cpuNs;
+		result.mWakeups = wakeups.get();
+		result.mRendered = video.getRenderedCount();
+		result.mDropped = video.getDroppedCount();
+		pipeline.release();
+		source.release();
+		pool.shutdown();
+		if (!done) {
+			throw new IllegalStateException("did not finish");
+		}
+		result.print();
+		return result;
+	}
+
+	private static long getCpuNs(List<Thread> threads) {
+		long cpuNs = 0;
+		for (Thread thread : threads) {
+			cpuNs += Math.max(0, sThreadBean.getThreadCpuTime(thread.getId()));
+		}
+		return cpuNs;
+	}
+
+	private static boolean isDone(TrackDecoder decoder) {
+		return decoder.isEndOfStream()
+				&& decoder.getPendingTimeUs() == Long.MAX_VALUE;
+	}
+
+	private static SimulatedSampleSource createSource() {
+		SimulatedSampleSource source = new SimulatedSampleSource(kDurationUs);
+		source.addTrack("video/avc", kVideoFrameUs, kVideoSampleSize, 25);
+		source.addTrack("audio/mp4a-latm", kAudioFrameUs, kAudioSampleSize, 1);
+		return source;
+	}
+
+	private static VideoTrackDecoder createVideo(SampleQueue samples) {
+		return new VideoTrackDecoder(new SimulatedDecoder(8, 8,
+				kVideoSampleSize, 64, kCodecLatencyUs), samples,
+				new FixedWindowDropPolicy(-10000, 30000));
+	}
+
+	private static AudioTrackDecoder createAudio(SampleQueue samples) {
+		return new AudioTrackDecoder(new SimulatedDecoder(8, 8,
+				kAudioSampleSize, 4096, kCodecLatencyUs), samples,
+				new SimulatedAudioSink(48000, 4, 16 * 1024, true), 48000, 2,
+				new FixedWindowDropPolicy(-10000, 30000));
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder.benchmark;
+
+import java.io.File;
+
+import android.media.DataSource;
+
+import com.example.android.basicmediadecoder.Log;
+import com.example.android.basicmediadecoder.MappedDataSource;
+import com.example.android.basicmediadecoder.TsDataSource;
+import com.example.android.basicmediadecoder.TsDemuxer;
+
+/**
+ * {@link TsDemuxer} throughput over a minute of H.264 and AAC, read through
+ * a memory mapping, which leaves mostly the cost of parsing, and through
+ * file reads. Checks first that a pass over the file delivers every frame
+ * that was written.
+ */
+public class DemuxBenchmark {
+	private static final long kDurationUs = 60000000;
+	private static final int kPacketsPerCall = 64;
+	private static final int kPacketsPerBatch = 100000;
+
+	public static void main(String[] args) throws Exception {
+		Log.mDebug = false;
+		File file = File.createTempFile("demux", ".ts");
+		try {
+			TsWriter writer = new TsWriter(file, false);
+			try {
+				writer.write(kDurationUs);
+			} finally {
+				writer.close();
+			}
+			String path = file.getPath();
+			check(new MappedDataSource(path), writer);
+			run("TsDemuxer mapped", new MappedDataSource(path));
+			run("TsDemuxer file", new TsDataSource(path));
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static void check(DataSource source, TsWriter writer)
+			throws Exception {
+		Counter counter = new Counter();
+		TsDemuxer demuxer = new TsDemuxer(source, counter);
+		while (demuxer.demux(kPacketsPerCall) >= 0) {
+		}
+		source.close();
+		int frames = writer.videoFrames + writer.audioFrames;
+		if (counter.mPackets != frames || demuxer.getSyncLossCount() != 0
+				|| demuxer.getContinuityErrorCount() != 0) {
+			throw new IllegalStateException("demuxed " + counter.mPackets
+					+ " of " + frames + " frames, "
+					+ demuxer.getSyncLossCount() + " sync losses, "
+					+ demuxer.getContinuityErrorCount() + " cc errors");
+		}
+		System.out.println("demuxed " + counter.mStreams + " streams, "
+				+ frames + " frames");
+	}
+
+	private static void run(String name, final DataSource source)
+			throws Exception {
+		final TsDemuxer demuxer = new TsDemuxer(source, new Counter());
+		Bench.run(name, kPacketsPerBatch, TsDemuxer.TS_PACKET_SIZE,
+				new Bench.Body() {
+					@Override
+					public void run(int ops) {
+						int packets = 0;
+						while (packets < ops) {
+							int n = demuxer.demux(Math.min(kPacketsPerCall,
+									ops - packets));
+							if (n < 0) {
+								demuxer.seekTo(0);
+							} else {
+								packets += n;
+							}
+						}
+					}
+				});
+		source.close();
+	}
+
+	private static class Counter implements TsDemuxer.Listener {
+		int mStreams;
+		int mPackets;
+
+		@Override
+		public void onStreamFound(int pid, int streamType) {
+			++mStreams;
+		}
+
+		@Override
+		public void onPesPacket(TsDemuxer.PesPacket packet) {
+			++mPackets;
+		}
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.example.android.basicmediadecoder.AdaptiveFrameDropPolicy;
+import com.example.android.basicmediadecoder.AudioTrackDecoder;
+import com.example.android.basicmediadecoder.DecodePipeline;
+import com.example.android.basicmediadecoder.FixedWindowDropPolicy;
+import com.example.android.basicmediadecoder.Log;
+import com.example.android.basicmediadecoder.PresentationQueue;
+import com.example.android.basicmediadecoder.SampleQueue;
+import com.example.android.basicmediadecoder.SampleSource;
+import com.example.android.basicmediadecoder.SimulatedAudioSink;
+import com.example.android.basicmediadecoder.SimulatedDecoder;
+import com.example.android.basicmediadecoder.SimulatedSampleSource;
+import com.example.android.basicmediadecoder.VideoTrackDecoder;
+
+/**
+ * Plays an audio and video stream in real time whose timestamps jump in the
+ * middle, with and without timestamp normalization, e.g.
+ *
+ *   benchmarks/run.sh DiscontinuitySimulation
+ *
+ * The jump is either a PCR discontinuity, back by an hour, or a 33 bit PTS
+ * wrap. Reports how many video frames were rendered, dropped after decoding
+ * or skipped before it, and how long playback took against the duration of
+ * the stream.
+ */
+public final class DiscontinuitySimulation {
+	private static final long kDurationUs = 6000000;
+	private static final long kJumpAtUs = 3000000;
+	private static final long kVideoFrameUs = 33333;
+	private static final long kAudioFrameUs = 21333;
+	private static final int kVideoSampleSize = 8 * 1024;
+	private static final int kAudioSampleSize = 400;
+	private static final long kTimeoutMs = 30000;
+
+	private DiscontinuitySimulation() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		Log.mDebug = false;
+		ScheduledExecutorService pool = DecodePipeline.newWorkerPool(2);
+		// back by an hour
+		long startUs = 2 * 3600 * 1000000l;
+		play("pcr jump", pool, startUs, -3600 * 1000000l, false);
+		play("pcr jump", pool, startUs, -3600 * 1000000l, true);
+		// from just before the wrap to just after it
+		startUs = PresentationQueue.kPtsWrapUs - kJumpAtUs;
+		play("pts wrap", pool, startUs, -PresentationQueue.kPtsWrapUs, false);
+		play("pts wrap", pool, startUs, -PresentationQueue.kPtsWrapUs, true);
+		pool.shutdown();
+	}
+
+	private static void play(String name, ScheduledExecutorService pool,
+			long startUs, long jumpUs, boolean normalize) throws Exception {
+		SimulatedSampleSource simulated = new SimulatedSampleSource(
+				kDurationUs);
+		int video = simulated.addTrack("video/avc", kVideoFrameUs,
+				kVideoSampleSize, 15);
+		int audio = simulated.addTrack("audio/mp4a-latm", kAudioFrameUs,
+				kAudioSampleSize, 1);
+		SampleSource source = new JumpingSource(simulated, startUs, jumpUs);
+		DecodePipeline pipeline = new DecodePipeline(name, source, pool);
+		SampleQueue samples = pipeline.addTrack(video, 32, kVideoSampleSize);
+		VideoTrackDecoder videoDecoder = new VideoTrackDecoder(
+				new SimulatedDecoder(8, 8, kVideoSampleSize, 64, 5000),
+				samples, new AdaptiveFrameDropPolicy(-10000, 30000));
+		pipeline.setVideoDecoder(videoDecoder);
+		samples = pipeline.addTrack(audio, 64, kAudioSampleSize);
+		AudioTrackDecoder audioDecoder = new AudioTrackDecoder(
+				new SimulatedDecoder(8, 8, kAudioSampleSize, 4096, 2000),
+				samples, new SimulatedAudioSink(48000, 4, 16 * 1024, true),
+				48000, 2, new FixedWindowDropPolicy(-10000, 30000));
+		pipeline.setAudioDecoder(audioDecoder);
+		pipeline.setNormalizeTimestamps(normalize);
+		long startNs = System.nanoTime();
+		pipeline.start();
+		boolean finished = pipeline.awaitEndOfStream(kTimeoutMs);
+		long elapsedMs = (System.nanoTime() - startNs) / 1000000;
+		pipeline.release();
+		System.out.println(String.format(
+				"%-9s %-13s video rendered %4d dropped %4d skipped %4d"
+						+ "  audio rendered %4d  %s after %5d ms of %d",
+				name, normalize ? "normalized" : "raw",
+				videoDecoder.getRenderedCount(),
+				videoDecoder.getDroppedCount(),
+				videoDecoder.getSkippedCount(),
+				audioDecoder.getRenderedCount(), finished ? "finished"
+						: "timed out", elapsedMs, kDurationUs / 1000));
+	}
+
+	/**
+	 * Starts the timestamps of {@code source} at {@code startUs} and moves
+	 * every timestamp from {@link #kJumpAtUs} on by {@code jumpUs}.
+	 */
+	private static class JumpingSource implements SampleSource {
+		private final SampleSource mSource;
+		private final long mStartUs;
+		private final long mJumpUs;
+
+		JumpingSource(SampleSource source, long startUs, long jumpUs) {
+			mSource = source;
+			mStartUs = startUs;
+			mJumpUs = jumpUs;
+		}
+
+		@Override
+		public long getSampleTime() {
+			long timeUs = mSource.getSampleTime();
+			return mStartUs + timeUs + (timeUs >= kJumpAtUs ? mJumpUs : 0);
+		}
+
+		@Override
+		public int getTrackCount() {
+			return mSource.getTrackCount();
+		}
+
+		@Override
+		public String getTrackMime(int track) {
+			return mSource.getTrackMime(track);
+		}
+
+		@Override
+		public void selectTrack(int track) {
+			mSource.selectTrack(track);
+		}
+
+		@Override
+		public int getSampleTrackIndex() {
+			return mSource.getSampleTrackIndex();
+		}
+
+		@Override
+		public int getSampleFlags() {
+			return mSource.getSampleFlags();
+		}
+
+		@Override
+		public int readSampleData(ByteBuffer buffer, int offset) {
+			return mSource.readSampleData(buffer, offset);
+		}
+
+		@Override
+		public boolean advance() {
+			return mSource.advance();
+		}
+
+		@Override
+		public void seekTo(long timeUs) {
+			mSource.seekTo(timeUs - mStartUs);
+		}
+
+		@Override
+		public void release() {
+			mSource.release();
+		}
+	}
+}
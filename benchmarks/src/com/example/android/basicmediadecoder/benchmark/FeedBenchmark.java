@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder.benchmark;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.example.android.basicmediadecoder.AudioTrackDecoder;
+import com.example.android.basicmediadecoder.DecodePipeline;
+import com.example.android.basicmediadecoder.FixedWindowDropPolicy;
+import com.example.android.basicmediadecoder.Log;
+import com.example.android.basicmediadecoder.SampleQueue;
+import com.example.android.basicmediadecoder.SimulatedAudioSink;
+import com.example.android.basicmediadecoder.SimulatedDecoder;
+import com.example.android.basicmediadecoder.SimulatedSampleSource;
+
+/**
+ * Samples per second through the demuxer and the feeding stage of an
+ * audio-only pipeline with small AAC frames, as fast as the simulated
+ * decoder and sink take them, for several demux batch sizes. Each size is
+ * run a few times and the best run is reported.
+ */
+public class FeedBenchmark {
+	private static final long kFrameUs = 21333;
+	private static final int kSampleSize = 200;
+	private static final int kSamples = 100000;
+	private static final int[] kBatchSizes = { 1, 4, 16, 32 };
+	private static final int kRuns = 3;
+
+	public static void main(String[] args) throws Exception {
+		Log.mDebug = false;
+		ScheduledExecutorService pool = DecodePipeline.newWorkerPool(1);
+		// warm up
+		run(pool, 1);
+		run(pool, 16);
+		for (int batch : kBatchSizes) {
+			double best = 0;
+			for (int i = 0; i < kRuns; i++) {
+				best = Math.max(best, run(pool, batch));
+			}
+			System.out.println(String.format("batch %3d %12.1f samples/s",
+					batch, best));
+		}
+		pool.shutdown();
+	}
+
+	/**
+	 * @return samples per second
+	 */
+	private static double run(ScheduledExecutorService pool, int batch)
+			throws Exception {
+		SimulatedSampleSource source = new SimulatedSampleSource(kSamples
+				* kFrameUs);
+		int track = source.addTrack("audio/mp4a-latm", kFrameUs, kSampleSize,
+				1);
+		DecodePipeline pipeline = new DecodePipeline("feed", source, pool);
+		SampleQueue samples = pipeline.addTrack(track, 64, kSampleSize);
+		AudioTrackDecoder decoder = new AudioTrackDecoder(
+				new SimulatedDecoder(8, 8, kSampleSize, 64, 0), samples,
+				new SimulatedAudioSink(48000, 4, 64 * 1024, false), 48000, 2,
+				new FixedWindowDropPolicy(0, 0));
+		decoder.setForceShow(true);
+		pipeline.setAudioDecoder(decoder);
+		// bounded by the batch size only
+		pipeline.setDemuxBatching(batch, Long.MAX_VALUE);
+		long startNs = System.nanoTime();
+		pipeline.start();
+		if (!pipeline.awaitEndOfStream(60000)) {
+			throw new IllegalStateException("did not finish");
+		}
+		long elapsedNs = System.nanoTime() - startNs;
+		long rendered = decoder.getRenderedCount();
+		pipeline.release();
+		if (rendered != kSamples) {
+			throw new IllegalStateException("rendered " + rendered);
+		}
+		return rendered * 1e9 / elapsedNs;
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder.benchmark;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.example.android.basicmediadecoder.AdaptiveFrameDropPolicy;
+import com.example.android.basicmediadecoder.FixedWindowDropPolicy;
+import com.example.android.basicmediadecoder.FrameDropPolicy;
+import com.example.android.basicmediadecoder.SampleSource;
+
+/**
+ * Replays a trace of video frames through each {@link FrameDropPolicy} on a
+ * virtual clock and reports how many frames were presented on time, late,
+ * dropped after decoding or skipped before it, e.g.
+ *
+ *   benchmarks/run.sh FrameDropSimulation [trace]
+ *
+ * A trace has one frame per line in decode order: the presentation time and
+ * the decode time in microseconds, followed by 1 for a sync frame. Without a
+ * trace a 60 fps stream with a decoder that periodically cannot keep up is
+ * replayed.
+ */
+public final class FrameDropSimulation {
+	private static final long kFrameUs = 16667;
+	private static final long kRenderCostUs = 2000;
+	// decoded frames the decoder can run ahead of presentation
+	private static final int kOutputDepth = 4;
+
+	private static final class Frame {
+		final long ptsUs;
+		final long decodeUs;
+		final boolean sync;
+
+		Frame(long ptsUs, long decodeUs, boolean sync) {
+			this.ptsUs = ptsUs;
+			this.decodeUs = decodeUs;
+			this.sync = sync;
+		}
+	}
+
+	private FrameDropSimulation() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		List<Frame> trace = args.length > 0 ? readTrace(args[0])
+				: syntheticTrace();
+		replay("fixed", new FixedWindowDropPolicy(-10000, 30000), trace);
+		replay("adaptive", new AdaptiveFrameDropPolicy(-10000, 30000), trace);
+	}
+
+	private static void replay(String name, FrameDropPolicy policy,
+			List<Frame> trace) {
+		long[] presentedAtUs = new long[trace.size()];
+		long decoderFreeUs = 0;
+		long displayFreeUs = 0;
+		int onTime = 0, late = 0, dropped = 0, skipped = 0;
+		long maxLatenessUs = 0;
+		for (int i = 0; i < trace.size(); i++) {
+			Frame frame = trace.get(i);
+			// the clock runs from the first frame, so virtual time is media
+			// time
+			long startUs = decoderFreeUs;
+			if (i >= kOutputDepth) {
+				startUs = Math.max(startUs, presentedAtUs[i - kOutputDepth]);
+			}
+			presentedAtUs[i] = startUs;
+			if (policy.shouldSkipInput(frame.ptsUs, startUs,
+					frame.sync ? SampleSource.SAMPLE_FLAG_SYNC : 0)) {
+				++skipped;
+				continue;
+			}
+			decoderFreeUs = startUs + frame.decodeUs;
+			long nowUs = Math.max(decoderFreeUs, displayFreeUs);
+			int decision = policy.onOutputFrame(frame.ptsUs, nowUs);
+			if (decision == FrameDropPolicy.WAIT) {
+				nowUs = policy.getDueTimeUs(frame.ptsUs) + 1;
+				decision = policy.onOutputFrame(frame.ptsUs, nowUs);
+			}
+			presentedAtUs[i] = nowUs;
+			if (decision == FrameDropPolicy.DROP) {
+				++dropped;
+				continue;
+			}
+			policy.onFrameRendered(kRenderCostUs);
+			displayFreeUs = nowUs + kRenderCostUs;
+			long latenessUs = nowUs - frame.ptsUs;
+			maxLatenessUs = Math.max(maxLatenessUs, latenessUs);
+			if (latenessUs > kFrameUs) {
+				++late;
+			} else {
+				++onTime;
+			}
+		}
+		System.out.println(String.format(
+				"%-10s frames %6d  on time %6d  late %6d  dropped %6d"
+						+ "  skipped %6d  max late %6.1f ms", name,
+				trace.size(), onTime, late, dropped, skipped,
+				maxLatenessUs / 1000.0));
+	}
+
+	/**
+	 * 60 s at 60 fps with a sync frame every 30 frames. Decoding takes 8 ms,
+	 * but for 3 s out of every 10 s it slows down to 25 ms per frame, as if
+	 * the CPU was busy elsewhere.
+	 */
+	private static List<Frame> syntheticTrace() {
+		List<Frame> trace = new ArrayList<Frame>();
+		for (int i = 0; i < 60 * 60; i++) {
+			long ptsUs = i * kFrameUs;
+			boolean busy = ptsUs % 10000000 >= 7000000;
+			trace.add(new Frame(ptsUs, busy ? 25000 : 8000, i % 30 == 0));
+		}
+		return trace;
+	}
+
+	private static List<Frame> readTrace(String path) throws IOException {
+		List<Frame> trace = new ArrayList<Frame>();
+		BufferedReader reader = new BufferedReader(new FileReader(path));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split("\\s+");
+				trace.add(new Frame(Long.parseLong(fields[0]),
+						Long.parseLong(fields[1]), fields.length > 2
+								&& "1".equals(fields[2])));
+			}
+		} finally {
+			reader.close();
+		}
+		return trace;
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder.benchmark;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.example.android.basicmediadecoder.ChecksumConsumer;
+import com.example.android.basicmediadecoder.ConsumerTrackDecoder;
+import com.example.android.basicmediadecoder.DecodePipeline;
+import com.example.android.basicmediadecoder.Log;
+import com.example.android.basicmediadecoder.SampleQueue;
+import com.example.android.basicmediadecoder.SimulatedDecoder;
+import com.example.android.basicmediadecoder.SimulatedSampleSource;
+
+/**
+ * Verifies a batch of recordings with headless pipelines: video and audio
+ * decoded without pacing and checksummed, on a pool of one thread and on a
+ * pool with a thread per core. Reports how many times faster than real time
+ * the batch was decoded; playing the recordings would take their duration.
+ */
+public class HeadlessBenchmark {
+	private static final int kRecordings = 8;
+	private static final long kDurationUs = 20000000;
+	private static final long kVideoFrameUs = 40000;
+	private static final long kAudioFrameUs = 21333;
+	private static final long kVideoDecodeCostUs = 2000;
+	private static final int kVideoSampleSize = 16 * 1024;
+	private static final int kAudioSampleSize = 400;
+
+	public static void main(String[] args) throws Exception {
+		Log.mDebug = false;
+		int cores = Runtime.getRuntime().availableProcessors();
+		// warm up
+		run(cores, 2);
+		run(1, kRecordings);
+		run(cores, kRecordings);
+	}
+
+	private static void run(int threads, int recordings) throws Exception {
+		ScheduledExecutorService pool = DecodePipeline.newWorkerPool(threads);
+		DecodePipeline[] pipelines = new DecodePipeline[recordings];
+		ChecksumConsumer[] checksums = new ChecksumConsumer[recordings];
+		for (int i = 0; i < recordings; i++) {
+			SimulatedSampleSource source = new SimulatedSampleSource(
+					kDurationUs);
+			int video = source.addTrack("video/avc", kVideoFrameUs,
+					kVideoSampleSize, 25);
+			int audio = source.addTrack("audio/mp4a-latm", kAudioFrameUs,
+					kAudioSampleSize, 1);
+			DecodePipeline pipeline = new DecodePipeline("headless" + i,
+					source, pool);
+			checksums[i] = new ChecksumConsumer();
+			SimulatedDecoder videoDecoder = new SimulatedDecoder(8, 8,
+					kVideoSampleSize, 1024, 0);
+			videoDecoder.setDecodeCost(kVideoDecodeCostUs);
+			SampleQueue samples = pipeline.addTrack(video, 32,
+					kVideoSampleSize);
+			pipeline.addHeadlessDecoder(new ConsumerTrackDecoder("video",
+					videoDecoder, samples, checksums[i]));
+			samples = pipeline.addTrack(audio, 64, kAudioSampleSize);
+			pipeline.addHeadlessDecoder(new ConsumerTrackDecoder("audio",
+					new SimulatedDecoder(8, 8, kAudioSampleSize, 4096, 0),
+					samples, checksums[i]));
+			pipeline.setDemuxBatching(16, 40000);
+			pipelines[i] = pipeline;
+		}
+		long startNs = System.nanoTime();
+		for (DecodePipeline pipeline : pipelines) {
+			pipeline.start();
+		}
+		for (DecodePipeline pipeline : pipelines) {
+			if (!pipeline.awaitEndOfStream(600000)) {
+				throw new IllegalStateException("did not finish");
+			}
+		}
+		long elapsedNs = System.nanoTime() - startNs;
+		for (DecodePipeline pipeline : pipelines) {
+			pipeline.release();
+		}
+		pool.shutdown();
+		long expectedVideo = kDurationUs / kVideoFrameUs;
+		for (ChecksumConsumer sums : checksums) {
+			if (sums.getBufferCount("video") != expectedVideo
+					|| !sums.isEnded("video") || !sums.isEnded("audio")
+					|| sums.getChecksum("video") != checksums[0]
+							.getChecksum("video")) {
+				throw new IllegalStateException("wrong output");
+			}
+		}
+		System.out.println(String.format(
+				"%2d threads %2d recordings %7d ms  %6.1fx real time",
+				threads, recordings, elapsedNs / 1000000, recordings
+						* kDurationUs * 1000.0 / elapsedNs));
+	}
+}
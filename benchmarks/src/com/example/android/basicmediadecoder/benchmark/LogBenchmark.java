@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder.benchmark;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.example.android.basicmediadecoder.Log;
+
+/**
+ * Cost of a log call on the decode thread while other threads log too, for
+ * the ring buffered {@link Log} against a global lock around the sink like
+ * the facade it replaced. Formatting and writing happen on the writer thread
+ * and are not measured, records dropped on a full ring are reported.
+ */
+public class LogBenchmark {
+	private static final String TAG = "LogBenchmark";
+	private static final String FILTERED_TAG = "LogBenchmarkFiltered";
+	private static final int kOtherThreads = 2;
+
+	private static final AtomicLong sWritten = new AtomicLong();
+	private static final Object sLock = new Object();
+
+	public static void main(String[] args) throws Exception {
+		Log.setSink(new Log.Sink() {
+			@Override
+			public void write(int level, String tag, String msg) {
+				sWritten.addAndGet(msg.length());
+			}
+		});
+		Log.setLevel(FILTERED_TAG, Log.INFO);
+		Thread[] others = startOtherThreads();
+
+		Bench.run("lazy format", 1000000, 0, new Bench.Body() {
+			@Override
+			public void run(int ops) {
+				for (int i = 0; i < ops; i++) {
+					Log.v(TAG, "video dequeue output: {} {}", i, 33333l * i);
+				}
+			}
+		});
+		Bench.run("concatenated", 1000000, 0, new Bench.Body() {
+			@Override
+			public void run(int ops) {
+				for (int i = 0; i < ops; i++) {
+					Log.v(TAG, "video dequeue output: " + i + " " + 33333l * i);
+				}
+			}
+		});
+		Bench.run("lazy format, tag filtered", 1000000, 0, new Bench.Body() {
+			@Override
+			public void run(int ops) {
+				for (int i = 0; i < ops; i++) {
+					Log.v(FILTERED_TAG, "video dequeue output: {} {}", i,
+							33333l * i);
+				}
+			}
+		});
+		Bench.run("global lock", 1000000, 0, new Bench.Body() {
+			final StringBuilder mBuilder = new StringBuilder();
+
+			@Override
+			public void run(int ops) {
+				for (int i = 0; i < ops; i++) {
+					lockedWrite(mBuilder, i);
+				}
+			}
+		});
+
+		for (Thread thread : others) {
+			thread.interrupt();
+			thread.join();
+		}
+		Log.flush(1000);
+		System.out.println("overflows: " + Log.getOverflowCount());
+	}
+
+	private static void lockedWrite(StringBuilder builder, long i) {
+		synchronized (sLock) {
+			builder.setLength(0);
+			builder.append("video dequeue output: ").append(i).append(' ')
+					.append(33333l * i);
+			sWritten.addAndGet(builder.length());
+		}
+	}
+
+	/**
+	 * Threads that keep logging, like the audio and render threads, through
+	 * both facades in turn.
+	 */
+	private static Thread[] startOtherThreads() {
+		Thread[] threads = new Thread[kOtherThreads];
+		for (int t = 0; t < kOtherThreads; t++) {
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					StringBuilder builder = new StringBuilder();
+					for (long i = 0; !Thread.currentThread().isInterrupted(); i++) {
+						Log.v(TAG, "audio pendingSize: {}", i);
+						lockedWrite(builder, i);
+					}
+				}
+			}, "other-" + t);
+			threads[t].start();
+		}
+		return threads;
+	}
+}
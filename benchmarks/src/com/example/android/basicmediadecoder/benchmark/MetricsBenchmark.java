@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder.benchmark;
+
+import com.example.android.basicmediadecoder.LatencyHistogram;
+import com.example.android.basicmediadecoder.PipelineMetrics;
+
+/**
+ * Recording cost of the pipeline metrics, on one thread and with other
+ * threads recording into the same histogram.
+ */
+public class MetricsBenchmark {
+	public static void main(String[] args) throws Exception {
+		final PipelineMetrics metrics = new PipelineMetrics();
+		final LatencyHistogram histogram = metrics.histogram("bench.us");
+		final PipelineMetrics.Counter counter = metrics.counter("bench.count");
+
+		Bench.run("histogram record", 5000000, 0, new Bench.Body() {
+			@Override
+			public void run(int ops) {
+				for (int i = 0; i < ops; i++) {
+					histogram.record(i & 0xffff);
+				}
+			}
+		});
+		Bench.run("counter increment", 5000000, 0, new Bench.Body() {
+			@Override
+			public void run(int ops) {
+				for (int i = 0; i < ops; i++) {
+					counter.increment();
+				}
+			}
+		});
+		Bench.run("nanoTime + histogram record", 5000000, 0,
+				new Bench.Body() {
+					@Override
+					public void run(int ops) {
+						for (int i = 0; i < ops; i++) {
+							long startNs = System.nanoTime();
+							histogram.record((System.nanoTime() - startNs) / 1000);
+						}
+					}
+				});
+
+		Thread other = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for (long i = 0; !Thread.currentThread().isInterrupted(); i++) {
+					histogram.record(i & 0xffff);
+				}
+			}
+		});
+		other.start();
+		Bench.run("histogram record, contended", 5000000, 0,
+				new Bench.Body() {
+					@Override
+					public void run(int ops) {
+						for (int i = 0; i < ops; i++) {
+							histogram.record(i & 0xffff);
+						}
+					}
+				});
+		other.interrupt();
+		other.join();
+
+		Bench.run("snapshot", 1000, 0, new Bench.Body() {
+			@Override
+			public void run(int ops) {
+				for (int i = 0; i < ops; i++) {
+					metrics.snapshot();
+				}
+			}
+		});
+		System.out.println("bench.us " + histogram);
+	}
+}
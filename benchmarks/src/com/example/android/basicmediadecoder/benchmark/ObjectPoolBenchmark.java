@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder.benchmark;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.example.android.basicmediadecoder.Decoder;
+import com.example.android.basicmediadecoder.Log;
+import com.example.android.basicmediadecoder.ObjectPool;
+
+/**
+ * Allocation per descriptor: allocating a new one each time against an
+ * {@link ObjectPool} on one thread, handing descriptors to another thread
+ * through the shared free list, and with the leak tracking of debug builds.
+ * Allocation is only counted on the benchmark thread; across threads the
+ * hand-off queue accounts for what is left.
+ */
+public class ObjectPoolBenchmark {
+	// descriptors in flight at once, like the codec slots of a track
+	private static final int kInFlight = 8;
+
+	private static final ObjectPool.Factory<Decoder.OutputInfo> sFactory = new ObjectPool.Factory<Decoder.OutputInfo>() {
+		@Override
+		public Decoder.OutputInfo create() {
+			return new Decoder.OutputInfo();
+		}
+	};
+
+	public static void main(String[] args) throws Exception {
+		Log.mDebug = false;
+		final Decoder.OutputInfo[] inFlight = new Decoder.OutputInfo[kInFlight];
+		Bench.run("new descriptor", 1000000, 0, new Bench.Body() {
+			@Override
+			public void run(int ops) {
+				for (int i = 0; i < ops; i++) {
+					Decoder.OutputInfo info = new Decoder.OutputInfo();
+					info.presentationTimeUs = i;
+					inFlight[i % kInFlight] = info;
+				}
+			}
+		});
+		run("pool", new ObjectPool<Decoder.OutputInfo>("bench", sFactory,
+				kInFlight, kInFlight, false), inFlight, 1000000);
+		run("pool, leak tracking", new ObjectPool<Decoder.OutputInfo>(
+				"bench", sFactory, kInFlight, kInFlight, true), inFlight, 20000);
+		runCrossThread();
+	}
+
+	private static void run(String name,
+			final ObjectPool<Decoder.OutputInfo> pool,
+			final Decoder.OutputInfo[] inFlight, int ops) throws Exception {
+		for (int i = 0; i < kInFlight; i++) {
+			inFlight[i] = pool.acquire();
+		}
+		Bench.run(name, ops, 0, new Bench.Body() {
+			@Override
+			public void run(int ops) {
+				for (int i = 0; i < ops; i++) {
+					int slot = i % kInFlight;
+					pool.release(inFlight[slot]);
+					Decoder.OutputInfo info = pool.acquire();
+					info.presentationTimeUs = i;
+					inFlight[slot] = info;
+				}
+			}
+		});
+		for (int i = 0; i < kInFlight; i++) {
+			pool.release(inFlight[i]);
+		}
+		System.out.println(name + ": created " + pool.getCreatedCount());
+	}
+
+	/**
+	 * The benchmark thread acquires, a consumer thread releases, as with
+	 * blocks loaded by read-ahead and evicted by the reader.
+	 */
+	private static void runCrossThread() throws Exception {
+		final ObjectPool<Decoder.OutputInfo> pool = new ObjectPool<Decoder.OutputInfo>(
+				"bench", sFactory, kInFlight, 4 * kInFlight, false);
+		final BlockingQueue<Decoder.OutputInfo> queue = new ArrayBlockingQueue<Decoder.OutputInfo>(
+				kInFlight);
+		Thread consumer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						pool.release(queue.take());
+					}
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		consumer.setDaemon(true);
+		consumer.start();
+		Bench.run("pool, released on another thread", 200000, 0,
+				new Bench.Body() {
+					@Override
+					public void run(int ops) throws Exception {
+						for (int i = 0; i < ops; i++) {
+							Decoder.OutputInfo info = pool.acquire();
+							info.presentationTimeUs = i;
+							queue.put(info);
+						}
+					}
+				});
+		consumer.interrupt();
+		System.out.println("pool, released on another thread: created "
+				+ pool.getCreatedCount());
+	}
+}
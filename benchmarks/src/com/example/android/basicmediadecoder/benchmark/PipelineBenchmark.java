@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder.benchmark;
+
+import com.example.android.basicmediadecoder.AudioTrackDecoder;
+import com.example.android.basicmediadecoder.FixedWindowDropPolicy;
+import com.example.android.basicmediadecoder.Log;
+import com.example.android.basicmediadecoder.PipelineMetrics;
+import com.example.android.basicmediadecoder.SampleQueue;
+import com.example.android.basicmediadecoder.SimulatedAudioSink;
+import com.example.android.basicmediadecoder.SimulatedDecoder;
+import com.example.android.basicmediadecoder.TrackDecoder;
+import com.example.android.basicmediadecoder.VideoTrackDecoder;
+
+/**
+ * One full decode loop iteration (feed, drain and render of both tracks)
+ * against simulated codecs with zero latency, so that only the cost of the
+ * pipeline itself is measured, without and with {@link PipelineMetrics}
+ * attached.
+ */
+public class PipelineBenchmark {
+	private static final int kSampleRate = 48000;
+	private static final int kChannelCount = 2;
+	private static final int kAudioFrameSize = 1024 * 2 * kChannelCount;
+	private static final long kAudioFrameUs = 1024 * 1000000l / kSampleRate;
+	private static final long kVideoFrameUs = 16667;
+
+	public static void main(String[] args) throws Exception {
+		Log.mDebug = false;
+		run("decode loop iteration", null);
+		run("decode loop iteration, metrics", new PipelineMetrics());
+	}
+
+	private static void run(String name, PipelineMetrics metrics)
+			throws Exception {
+		final SampleQueue videoSamples = new SampleQueue(32, 64 * 1024);
+		final SampleQueue audioSamples = new SampleQueue(64, 1024);
+		final VideoTrackDecoder video = new VideoTrackDecoder(
+				new SimulatedDecoder(8, 8, 64 * 1024, 0, 0), videoSamples,
+				new FixedWindowDropPolicy(0, 0));
+		final AudioTrackDecoder audio = new AudioTrackDecoder(
+				new SimulatedDecoder(4, 4, 1024, kAudioFrameSize, 0),
+				audioSamples, new SimulatedAudioSink(kSampleRate,
+						2 * kChannelCount, 4 * kAudioFrameSize, false),
+				kSampleRate, kChannelCount, new FixedWindowDropPolicy(0, 0));
+		video.setForceShow(true);
+		audio.setForceShow(true);
+		if (metrics != null) {
+			video.setMetrics(metrics);
+			audio.setMetrics(metrics);
+		}
+		video.start();
+		audio.start();
+		Bench.run(name, 200000, 0, new Bench.Body() {
+			long mVideoUs;
+			long mAudioUs;
+
+			@Override
+			public void run(int ops) throws Exception {
+				for (int i = 0; i < ops; i++) {
+					mVideoUs = feed(videoSamples, 20000, mVideoUs,
+							kVideoFrameUs);
+					mAudioUs = feed(audioSamples, 400, mAudioUs,
+							kAudioFrameUs);
+					doSomeWork(audio);
+					doSomeWork(video);
+				}
+			}
+		});
+		video.release();
+		audio.release();
+	}
+
+	private static void doSomeWork(TrackDecoder decoder) {
+		decoder.doSomeWork();
+		decoder.doRender(Long.MAX_VALUE);
+	}
+
+	private static long feed(SampleQueue queue, int size, long timeUs,
+			long frameUs) throws InterruptedException {
+		// top the queue up in one batch, as the demuxer thread would
+		int count = 4 - queue.size();
+		for (int i = 0; i < count; ++i) {
+			SampleQueue.Sample sample = queue.obtain(i);
+			sample.size = size;
+			sample.timeUs = timeUs;
+			timeUs += frameUs;
+		}
+		if (count > 0) {
+			queue.queue(count);
+		}
+		return timeUs;
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import android.media.DataSource;
+
+import com.example.android.basicmediadecoder.LatencyHistogram;
+import com.example.android.basicmediadecoder.PrefetchingDataSource;
+import com.example.android.basicmediadecoder.ThrottledDataSource;
+import com.example.android.basicmediadecoder.TsDataSource;
+
+/**
+ * Plays a stream from storage that behaves like a network mount, read
+ * directly and through a {@link PrefetchingDataSource}, e.g.
+ *
+ *   benchmarks/run.sh PrefetchSimulation
+ *
+ * The player reads packets at the stream bitrate in real time. Each read
+ * that takes longer than a frame interval would have held up decoding;
+ * those are reported as stalls together with the read latency percentiles.
+ */
+public final class PrefetchSimulation {
+	// an 8 Mbit/s stream read a few packets at a time, as MediaExtractor does
+	private static final long kBitrate = 8000000;
+	private static final int kReadSize = 7 * 188;
+	private static final long kDurationUs = 6000000;
+	private static final long kFrameUs = 33333;
+	// 2 ms per request, 4 MB/s and a 300 ms hang every 2 MB
+	private static final long kLatencyUs = 2000;
+	private static final long kBandwidth = 4 * 1024 * 1024;
+	private static final long kStallIntervalBytes = 2 * 1024 * 1024;
+	private static final long kStallUs = 300000;
+
+	private PrefetchSimulation() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		File file = createFile(kBitrate / 8 * kDurationUs / 1000000);
+		try {
+			play("direct", throttled(file), null);
+			PrefetchingDataSource prefetching = new PrefetchingDataSource(
+					throttled(file));
+			play("prefetching", prefetching, prefetching);
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static DataSource throttled(File file) {
+		ThrottledDataSource source = new ThrottledDataSource(new TsDataSource(
+				file.getPath()), kLatencyUs, kBandwidth);
+		source.setStalls(kStallIntervalBytes, kStallUs);
+		return source;
+	}
+
+	private static void play(String name, DataSource source,
+			PrefetchingDataSource prefetching) throws Exception {
+		byte[] buffer = new byte[kReadSize];
+		LatencyHistogram readUs = new LatencyHistogram();
+		long size = source.getSize();
+		long startNs = System.nanoTime();
+		long stalls = 0;
+		for (long offset = 0; offset < size;) {
+			// the media time of this packet at the stream bitrate
+			long dueUs = offset * 8 * 1000000 / kBitrate;
+			long nowUs = (System.nanoTime() - startNs) / 1000;
+			if (dueUs > nowUs) {
+				Thread.sleep((dueUs - nowUs) / 1000);
+			}
+			long readStartNs = System.nanoTime();
+			int n = source.readAt(offset, buffer, kReadSize);
+			long latencyUs = (System.nanoTime() - readStartNs) / 1000;
+			if (n <= 0) {
+				break;
+			}
+			readUs.record(latencyUs);
+			if (latencyUs > kFrameUs) {
+				++stalls;
+			}
+			offset += n;
+		}
+		long behindUs = (System.nanoTime() - startNs) / 1000 - kDurationUs;
+		System.out.println(String.format(
+				"%-12s stalls %4d  read p50 %6d us p99 %6d us max %7d us"
+						+ "  finished %5d ms late", name, stalls,
+				readUs.getValueAtPercentile(50),
+				readUs.getValueAtPercentile(99), readUs.getMax(),
+				behindUs / 1000));
+		if (prefetching != null) {
+			System.out.println(String.format(
+					"%-12s source stalls %d (%d ms) misses %d", name,
+					prefetching.getStallCount(),
+					prefetching.getStallTimeUs() / 1000,
+					prefetching.getMissCount()));
+		}
+		source.close();
+	}
+
+	private static File createFile(long size) throws IOException {
+		File file = File.createTempFile("prefetch", ".ts");
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			byte[] chunk = new byte[188 * 1024];
+			new Random(1).nextBytes(chunk);
+			for (long written = 0; written < size; written += chunk.length) {
+				out.write(chunk);
+			}
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
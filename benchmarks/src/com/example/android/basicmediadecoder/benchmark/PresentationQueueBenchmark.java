@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder.benchmark;
+
+import java.util.Random;
+
+import com.example.android.basicmediadecoder.CodecSlotQueue;
+import com.example.android.basicmediadecoder.FixedWindowDropPolicy;
+import com.example.android.basicmediadecoder.FrameDropPolicy;
+import com.example.android.basicmediadecoder.PresentationQueue;
+
+/**
+ * Decoded output through the FIFO {@link CodecSlotQueue} against the
+ * {@link PresentationQueue}, on synthetic traces of output timestamps as
+ * decoders return them: in order, with neighbours swapped, in decode order
+ * of an IBBP stream, across a 33 bit PTS wrap and across a splice.
+ * <p>
+ * For each trace the frames are presented on a virtual clock and counted
+ * as presented, out of order or dropped, followed by the offer/poll cost of
+ * both queues on the reordered trace.
+ */
+public class PresentationQueueBenchmark {
+	private static final long kFrameUs = 33333;
+	private static final int kFrames = 3000;
+	// decoded frames held before the clock starts, like the codec does
+	private static final int kDepth = 4;
+	private static final int kSlots = 8;
+
+	/**
+	 * The part both queues have in common.
+	 */
+	private interface OutputQueue {
+		void offer(int index, long timeUs);
+
+		boolean isEmpty();
+
+		int peekIndex();
+
+		long peekTimeUs();
+
+		void poll();
+	}
+
+	public static void main(String[] args) throws Exception {
+		simulate("in order", inOrder());
+		simulate("swapped", swapped(0.2));
+		simulate("ibbp", ibbp());
+		simulate("wrap", wrapped(ibbp()));
+		simulate("splice", spliced(ibbp()));
+
+		final long[] trace = swapped(0.2).timeUs;
+		Bench.run("CodecSlotQueue", 1000000, 0, new Bench.Body() {
+			final CodecSlotQueue mQueue = new CodecSlotQueue(kSlots);
+			long mSink;
+
+			@Override
+			public void run(int ops) {
+				for (int i = 0; i < ops; i++) {
+					if (mQueue.size() == kSlots / 2) {
+						mSink += mQueue.peekTimeUs();
+						mSink += mQueue.poll();
+					}
+					mQueue.offer(i % kSlots, 0, 4096,
+							trace[i % trace.length], 0);
+				}
+			}
+		});
+		Bench.run("PresentationQueue", 1000000, 0, new Bench.Body() {
+			final PresentationQueue mQueue = new PresentationQueue(kSlots);
+			long mSink;
+
+			@Override
+			public void run(int ops) {
+				for (int i = 0; i < ops; i++) {
+					if (i % trace.length == 0) {
+						// the trace starts over
+						mQueue.clear();
+					}
+					if (mQueue.size() == kSlots / 2) {
+						mSink += mQueue.peekTimeUs();
+						mSink += mQueue.poll();
+					}
+					mQueue.offer(i % kSlots, 0, 4096,
+							trace[i % trace.length], 0);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Presents {@code trace}, one decoded frame per frame interval, through
+	 * both queues.
+	 */
+	private static void simulate(String name, Trace trace) {
+		final CodecSlotQueue fifo = new CodecSlotQueue(kFrames);
+		simulate(name + " fifo", trace, new OutputQueue() {
+			@Override
+			public void offer(int index, long timeUs) {
+				fifo.offer(index, 0, 0, timeUs, 0);
+			}
+
+			@Override
+			public boolean isEmpty() {
+				return fifo.isEmpty();
+			}
+
+			@Override
+			public int peekIndex() {
+				return fifo.peekIndex();
+			}
+
+			@Override
+			public long peekTimeUs() {
+				return fifo.peekTimeUs();
+			}
+
+			@Override
+			public void poll() {
+				fifo.poll();
+			}
+		});
+		final PresentationQueue sorted = new PresentationQueue(kFrames);
+		simulate(name + " sorted", trace, new OutputQueue() {
+			@Override
+			public void offer(int index, long timeUs) {
+				sorted.offer(index, 0, 0, timeUs, 0);
+			}
+
+			@Override
+			public boolean isEmpty() {
+				return sorted.isEmpty();
+			}
+
+			@Override
+			public int peekIndex() {
+				return sorted.peekIndex();
+			}
+
+			@Override
+			public long peekTimeUs() {
+				return sorted.peekTimeUs();
+			}
+
+			@Override
+			public void poll() {
+				sorted.poll();
+			}
+		});
+	}
+
+	/**
+	 * The clock runs on the presentation positions of the frames, so that
+	 * wraps and splices, which the clock owner deals with, do not matter
+	 * here. Only the order the queue releases frames in does.
+	 */
+	private static void simulate(String name, Trace trace,
+			OutputQueue queue) {
+		FrameDropPolicy policy = new FixedWindowDropPolicy(-10000, 30000);
+		int presented = 0, outOfOrder = 0, dropped = 0;
+		int lastPosition = -1;
+		for (int tick = 0; tick < kFrames + kDepth; tick++) {
+			if (tick < kFrames) {
+				queue.offer(trace.position[tick], trace.timeUs[tick]);
+			}
+			if (tick < kDepth) {
+				continue;
+			}
+			// the clock starts at the first frame once kDepth were decoded
+			long clockUs = (tick - kDepth) * kFrameUs;
+			while (!queue.isEmpty()) {
+				int position = queue.peekIndex();
+				int decision = policy.onOutputFrame(position * kFrameUs,
+						clockUs);
+				if (decision == FrameDropPolicy.WAIT) {
+					break;
+				}
+				queue.poll();
+				if (decision == FrameDropPolicy.DROP) {
+					++dropped;
+					continue;
+				}
+				if (position < lastPosition) {
+					++outOfOrder;
+				}
+				lastPosition = Math.max(lastPosition, position);
+				++presented;
+			}
+		}
+		System.out.println(String.format(
+				"%-16s presented %5d  out of order %5d  dropped %5d", name,
+				presented, outOfOrder, dropped));
+	}
+
+	/**
+	 * Output timestamps as a decoder returns them, together with the
+	 * position of each frame in presentation order.
+	 */
+	private static final class Trace {
+		final int[] position = new int[kFrames];
+		final long[] timeUs = new long[kFrames];
+	}
+
+	private static Trace inOrder() {
+		Trace trace = new Trace();
+		for (int i = 0; i < kFrames; i++) {
+			trace.position[i] = i;
+			trace.timeUs[i] = i * kFrameUs;
+		}
+		return trace;
+	}
+
+	private static Trace swapped(double probability) {
+		Trace trace = inOrder();
+		Random random = new Random(1);
+		for (int i = 0; i + 1 < kFrames; i++) {
+			if (random.nextDouble() < probability) {
+				trace.position[i] = i + 1;
+				trace.position[i + 1] = i;
+				trace.timeUs[i] = (i + 1) * kFrameUs;
+				trace.timeUs[i + 1] = i * kFrameUs;
+				++i;
+			}
+		}
+		return trace;
+	}
+
+	/**
+	 * Output in decode order: I0 P3 B1 B2 P6 B4 B5 ...
+	 */
+	private static Trace ibbp() {
+		Trace trace = new Trace();
+		for (int i = 0; i < kFrames; i++) {
+			int position;
+			if (i == 0) {
+				position = 0;
+			} else if (i % 3 == 1) {
+				position = Math.min(i + 2, kFrames - 1);
+			} else {
+				position = i - 1;
+			}
+			trace.position[i] = position;
+			trace.timeUs[i] = position * kFrameUs;
+		}
+		return trace;
+	}
+
+	/**
+	 * Moves the timestamps so that they wrap in the middle of the trace.
+	 */
+	private static Trace wrapped(Trace trace) {
+		long baseUs = PresentationQueue.kPtsWrapUs - kFrames / 2 * kFrameUs;
+		for (int i = 0; i < kFrames; i++) {
+			trace.timeUs[i] = (baseUs + trace.timeUs[i])
+					% PresentationQueue.kPtsWrapUs;
+		}
+		return trace;
+	}
+
+	/**
+	 * Restarts the timestamps at an earlier time in the middle of the trace,
+	 * like a recording spliced from two.
+	 */
+	private static Trace spliced(Trace trace) {
+		for (int i = 0; i < kFrames; i++) {
+			if (trace.position[i] >= kFrames / 2) {
+				trace.timeUs[i] -= (kFrames / 2) * kFrameUs - 5000000;
+			} else {
+				trace.timeUs[i] += 60000000;
+			}
+		}
+		return trace;
+	}
+}
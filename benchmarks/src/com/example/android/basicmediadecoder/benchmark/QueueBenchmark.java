@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder.benchmark;
+
+import java.util.LinkedList;
+import java.util.Queue;
+
+import com.example.android.basicmediadecoder.CodecSlotQueue;
+import com.example.android.basicmediadecoder.Decoder;
+
+/**
+ * Offer/poll cost of the codec index queues: {@link CodecSlotQueue} against
+ * the boxed {@link LinkedList} pair it replaced.
+ */
+public class QueueBenchmark {
+	private static final int kSlots = 16;
+
+	public static void main(String[] args) throws Exception {
+		Bench.run("CodecSlotQueue", 1000000, 0, new Bench.Body() {
+			final CodecSlotQueue mQueue = new CodecSlotQueue(kSlots);
+			long mSink;
+
+			@Override
+			public void run(int ops) {
+				for (int i = 0; i < ops; i++) {
+					int index = i % kSlots;
+					mQueue.offer(index, 0, 4096, i * 33333l, 0);
+					mSink += mQueue.peekTimeUs();
+					mSink += mQueue.poll();
+				}
+			}
+		});
+		Bench.run("LinkedList<Integer> + info", 1000000, 0, new Bench.Body() {
+			final Queue<Integer> mIndex = new LinkedList<Integer>();
+			final Queue<Decoder.OutputInfo> mInfo = new LinkedList<Decoder.OutputInfo>();
+			long mSink;
+
+			@Override
+			public void run(int ops) {
+				for (int i = 0; i < ops; i++) {
+					Decoder.OutputInfo info = new Decoder.OutputInfo();
+					info.size = 4096;
+					info.presentationTimeUs = i * 33333l;
+					// indices above 127 are not cached by Integer.valueOf()
+					mIndex.offer(128 + i % kSlots);
+					mInfo.offer(info);
+					mSink += mInfo.peek().presentationTimeUs;
+					mSink += mIndex.poll();
+					mInfo.poll();
+				}
+			}
+		});
+	}
+}
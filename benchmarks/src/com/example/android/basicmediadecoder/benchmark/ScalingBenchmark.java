@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder.benchmark;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.example.android.basicmediadecoder.DecodePipeline;
+import com.example.android.basicmediadecoder.FixedWindowDropPolicy;
+import com.example.android.basicmediadecoder.Log;
+import com.example.android.basicmediadecoder.SampleQueue;
+import com.example.android.basicmediadecoder.SimulatedDecoder;
+import com.example.android.basicmediadecoder.SimulatedSampleSource;
+import com.example.android.basicmediadecoder.VideoTrackDecoder;
+
+/**
+ * Total decode throughput of N video-only pipelines sharing one worker pool
+ * with a thread per core. The simulated decoders keep a core busy for
+ * {@link #kDecodeCostUs} per frame and frames are shown as soon as they are
+ * decoded, so throughput should grow with N up to the core count and stay
+ * flat beyond it.
+ */
+public class ScalingBenchmark {
+	private static final long kFrameUs = 33333;
+	private static final long kDecodeCostUs = 500;
+	private static final int kFramesPerStream = 1000;
+	private static final int kSampleSize = 16 * 1024;
+
+	public static void main(String[] args) throws Exception {
+		Log.mDebug = false;
+		int cores = Runtime.getRuntime().availableProcessors();
+		ScheduledExecutorService pool = DecodePipeline.newWorkerPool(cores);
+		System.out.println("cores: " + cores);
+		// warm up
+		run(pool, cores);
+		for (int streams = 1; streams <= 2 * cores; streams *= 2) {
+			run(pool, streams);
+		}
+		if (Integer.bitCount(cores) != 1) {
+			run(pool, cores);
+		}
+		pool.shutdown();
+	}
+
+	private static void run(ScheduledExecutorService pool, int streams)
+			throws Exception {
+		DecodePipeline[] pipelines = new DecodePipeline[streams];
+		VideoTrackDecoder[] decoders = new VideoTrackDecoder[streams];
+		for (int i = 0; i < streams; i++) {
+			SimulatedSampleSource source = new SimulatedSampleSource(
+					kFramesPerStream * kFrameUs);
+			int track = source.addTrack("video/avc", kFrameUs, kSampleSize, 30);
+			pipelines[i] = new DecodePipeline("stream" + i, source, pool);
+			SampleQueue samples = pipelines[i].addTrack(track, 16, kSampleSize);
+			SimulatedDecoder decoder = new SimulatedDecoder(4, 4, kSampleSize,
+					0, 0);
+			decoder.setDecodeCost(kDecodeCostUs);
+			decoders[i] = new VideoTrackDecoder(decoder, samples,
+					new FixedWindowDropPolicy(0, 0));
+			decoders[i].setForceShow(true);
+			pipelines[i].setVideoDecoder(decoders[i]);
+		}
+		long startNs = System.nanoTime();
+		for (DecodePipeline pipeline : pipelines) {
+			pipeline.start();
+		}
+		for (DecodePipeline pipeline : pipelines) {
+			if (!pipeline.awaitEndOfStream(60000)) {
+				throw new IllegalStateException(pipeline.getName()
+						+ " did not finish");
+			}
+		}
+		long elapsedNs = System.nanoTime() - startNs;
+		long frames = 0;
+		for (int i = 0; i < streams; i++) {
+			frames += decoders[i].getRenderedCount();
+			pipelines[i].release();
+		}
+		double fps = frames * 1e9 / elapsedNs;
+		System.out.println(String.format(
+				"%3d streams %8d frames %10.1f frames/s %8.1f per stream",
+				streams, frames, fps, fps / streams));
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import com.example.android.basicmediadecoder.Log;
+import com.example.android.basicmediadecoder.TsIntegrityScanner;
+
+/**
+ * Scans a recording with damage injected at known places, on a pool of one
+ * thread and on a pool with a thread per core, e.g.
+ *
+ *   benchmarks/run.sh ScanBenchmark
+ *
+ * Reports the throughput of the best of a few scans of the file, which is
+ * in the page cache after the first, and what the scan found against what
+ * was injected.
+ */
+public class ScanBenchmark {
+	private static final long kDurationUs = 60000000;
+	private static final int kRuns = 3;
+
+	public static void main(String[] args) throws Exception {
+		Log.mDebug = false;
+		File file = File.createTempFile("scan", ".ts");
+		try {
+			TsWriter writer = new TsWriter(file, true);
+			try {
+				writer.write(kDurationUs);
+			} finally {
+				writer.close();
+			}
+			System.out.println(String.format(
+					"injected: %d sync loss, %d transport error, %d cc errors,"
+							+ " %d pes error, %d keyframes",
+					writer.syncLosses, writer.transportErrors,
+					writer.continuityErrors, writer.pesErrors,
+					writer.keyframes));
+			TsIntegrityScanner scanner = new TsIntegrityScanner(
+					TsIntegrityScanner.forFile(file.getPath()));
+			int cores = Runtime.getRuntime().availableProcessors();
+			// warm up, which also reads the file into the page cache
+			scan(scanner, cores);
+			TsIntegrityScanner.Report report = null;
+			for (int threads : new int[] { 1, cores }) {
+				report = scan(scanner, threads);
+			}
+			System.out.print(report);
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static TsIntegrityScanner.Report scan(TsIntegrityScanner scanner,
+			int threads) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			TsIntegrityScanner.Report best = null;
+			for (int i = 0; i < kRuns; i++) {
+				TsIntegrityScanner.Report report = scanner.scan(pool);
+				if (best == null || report.elapsedMs < best.elapsedMs) {
+					best = report;
+				}
+			}
+			System.out.println(String.format(
+					"%2d threads: %5d ms %8.1f MB/s %d errors", threads,
+					best.elapsedMs, best.bytes / 1e3
+							/ Math.max(1, best.elapsedMs), best.errors));
+			return best;
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Writes a program of H.264 video and AAC audio with random payload and
+ * PCRs on the video PID, optionally damaged at known places. What it wrote
+ * is counted in its fields.
+ */
+final class TsWriter {
+	private static final long kVideoFrameUs = 40000;
+	private static final long kAudioFrameUs = 21333;
+	private static final long kTableIntervalUs = 100000;
+	private static final int kGopFrames = 25;
+	private static final int kVideoFrameSize = 32 * 1024;
+	private static final int kAudioFrameSize = 400;
+
+	private static final int kPatPid = 0x0000;
+	private static final int kPmtPid = 0x1000;
+	private static final int kVideoPid = 0x0100;
+	private static final int kAudioPid = 0x0101;
+
+	private final OutputStream mOut;
+	private final Random mRandom = new Random(1);
+	private final byte[] mPacket = new byte[188];
+	private final int[] mCc = new int[0x2000];
+	private final byte[] mVideo = new byte[kVideoFrameSize + 14];
+	private final byte[] mAudio = new byte[kAudioFrameSize + 14];
+	private final boolean mDamage;
+	private long mPackets;
+	private long mDamageAt;
+
+	int syncLosses;
+	int transportErrors;
+	int continuityErrors;
+	int pesErrors;
+	int keyframes;
+	int videoFrames;
+	int audioFrames;
+
+	TsWriter(File file, boolean damage) throws IOException {
+		mDamage = damage;
+		mOut = new BufferedOutputStream(new FileOutputStream(file),
+				64 * 1024);
+	}
+
+	void write(long durationUs) throws IOException {
+		// a video packet every quarter of the file is damaged
+		long videoPackets = durationUs / kVideoFrameUs
+				* (kVideoFrameSize / 184);
+		mDamageAt = videoPackets / 4;
+		mRandom.nextBytes(mVideo);
+		mRandom.nextBytes(mAudio);
+		long nextTableUs = 0;
+		long videoUs = 0;
+		long audioUs = 0;
+		int frame = 0;
+		while (videoUs < durationUs || audioUs < durationUs) {
+			if (videoUs >= nextTableUs) {
+				writeTables();
+				nextTableUs += kTableIntervalUs;
+			}
+			if (videoUs <= audioUs) {
+				writeVideo(frame++, videoUs);
+				videoUs += kVideoFrameUs;
+			} else {
+				// the PES of one audio frame claims a byte it lacks
+				boolean shortPes = mDamage && audioUs < durationUs / 2
+						&& audioUs + kAudioFrameUs >= durationUs / 2;
+				writeAudio(audioUs, shortPes);
+				audioUs += kAudioFrameUs;
+			}
+		}
+	}
+
+	void close() throws IOException {
+		mOut.close();
+	}
+
+	private void writeTables() throws IOException {
+		byte[] pat = { 0x00, 0x00, (byte) 0xb0, 13, 0x00, 0x01,
+				(byte) 0xc1, 0x00, 0x00, 0x00, 0x01,
+				(byte) (0xe0 | kPmtPid >> 8), (byte) kPmtPid, 0, 0, 0, 0 };
+		writePacket(kPatPid, true, false, -1, pat, 0, pat.length);
+		byte[] pmt = { 0x00, 0x02, (byte) 0xb0, 23, 0x00, 0x01,
+				(byte) 0xc1, 0x00, 0x00,
+				(byte) (0xe0 | kVideoPid >> 8), (byte) kVideoPid,
+				(byte) 0xf0, 0x00, 0x1b, (byte) (0xe0 | kVideoPid >> 8),
+				(byte) kVideoPid, (byte) 0xf0, 0x00, 0x0f,
+				(byte) (0xe0 | kAudioPid >> 8), (byte) kAudioPid,
+				(byte) 0xf0, 0x00, 0, 0, 0, 0 };
+		writePacket(kPmtPid, true, false, -1, pmt, 0, pmt.length);
+	}
+
+	private void writeVideo(int frame, long timeUs) throws IOException {
+		boolean keyframe = frame % kGopFrames == 0;
+		++videoFrames;
+		if (keyframe) {
+			++keyframes;
+		}
+		int size = kVideoFrameSize + 14;
+		writePesHeader(mVideo, 0xe0, 0, timeUs);
+		// an IDR or a non-IDR slice
+		mVideo[14] = 0x00;
+		mVideo[15] = 0x00;
+		mVideo[16] = 0x00;
+		mVideo[17] = 0x01;
+		mVideo[18] = (byte) (keyframe ? 0x65 : 0x41);
+		// the PCR runs 100 ms ahead of the presentation
+		writePes(kVideoPid, mVideo, size, keyframe,
+				(timeUs + 900000) * 27);
+	}
+
+	private void writeAudio(long timeUs, boolean shortPes)
+			throws IOException {
+		++audioFrames;
+		int size = kAudioFrameSize + 14;
+		int pesLength = size - 6 + (shortPes ? 1 : 0);
+		if (shortPes) {
+			++pesErrors;
+		}
+		writePesHeader(mAudio, 0xc0, pesLength, timeUs);
+		writePes(kAudioPid, mAudio, size, false, -1);
+	}
+
+	private static void writePesHeader(byte[] pes, int streamId,
+			int length, long timeUs) {
+		long pts = (timeUs + 1000000) * 9 / 100;
+		pes[0] = 0x00;
+		pes[1] = 0x00;
+		pes[2] = 0x01;
+		pes[3] = (byte) streamId;
+		pes[4] = (byte) (length >> 8);
+		pes[5] = (byte) length;
+		pes[6] = (byte) 0x80;
+		pes[7] = (byte) 0x80;
+		pes[8] = 0x05;
+		pes[9] = (byte) (0x21 | ((pts >> 29) & 0x0e));
+		pes[10] = (byte) (pts >> 22);
+		pes[11] = (byte) (((pts >> 14) & 0xfe) | 1);
+		pes[12] = (byte) (pts >> 7);
+		pes[13] = (byte) (((pts << 1) & 0xfe) | 1);
+	}
+
+	private void writePes(int pid, byte[] pes, int size,
+			boolean randomAccess, long pcr) throws IOException {
+		int offset = 0;
+		boolean first = true;
+		while (offset < size) {
+			int room = 184;
+			if (first && (randomAccess || pcr >= 0)) {
+				room -= pcr >= 0 ? 8 : 2;
+			}
+			int n = Math.min(room, size - offset);
+			writePacket(pid, first, first && randomAccess, first ? pcr
+					: -1, pes, offset, n);
+			offset += n;
+			first = false;
+		}
+	}
+
+	/**
+	 * Writes a packet carrying {@code size} bytes, stuffed up with its
+	 * adaptation field.
+	 */
+	private void writePacket(int pid, boolean unitStart,
+			boolean randomAccess, long pcr, byte[] data, int offset,
+			int size) throws IOException {
+		byte[] p = mPacket;
+		int adaptation = 0;
+		if (randomAccess || pcr >= 0) {
+			adaptation = pcr >= 0 ? 8 : 2;
+		}
+		int stuffing = 184 - adaptation - size;
+		if (stuffing > 0 && adaptation == 0) {
+			// the length byte, then the flags
+			adaptation = 1;
+			--stuffing;
+			if (stuffing > 0) {
+				adaptation = 2;
+				--stuffing;
+			}
+		}
+		adaptation += stuffing;
+		p[0] = 0x47;
+		p[1] = (byte) ((unitStart ? 0x40 : 0) | pid >> 8);
+		p[2] = (byte) pid;
+		p[3] = (byte) ((adaptation > 0 ? 0x30 : 0x10) | (mCc[pid]++ & 0x0f));
+		if (adaptation > 0) {
+			p[4] = (byte) (adaptation - 1);
+			int pos = 5;
+			if (adaptation > 1) {
+				p[pos++] = (byte) ((randomAccess ? 0x40 : 0)
+						| (pcr >= 0 ? 0x10 : 0));
+				if (pcr >= 0) {
+					long base = pcr / 300;
+					int extension = (int) (pcr % 300);
+					p[pos++] = (byte) (base >> 25);
+					p[pos++] = (byte) (base >> 17);
+					p[pos++] = (byte) (base >> 9);
+					p[pos++] = (byte) (base >> 1);
+					p[pos++] = (byte) (((base & 1) << 7) | 0x7e | extension >> 8);
+					p[pos++] = (byte) extension;
+				}
+			}
+			while (pos < 4 + adaptation) {
+				p[pos++] = (byte) 0xff;
+			}
+		}
+		System.arraycopy(data, offset, p, 4 + adaptation, size);
+		if (mDamage && pid == kVideoPid && !unitStart && damage()) {
+			return;
+		}
+		mOut.write(p);
+	}
+
+	/**
+	 * Damages every so many video packets in the middle of a frame, in
+	 * turn a lost sync byte, a transport error and a lost packet, each
+	 * of which also breaks the continuity counter.
+	 *
+	 * @return whether the packet is lost
+	 */
+	private boolean damage() {
+		if (++mPackets % mDamageAt != 0) {
+			return false;
+		}
+		++continuityErrors;
+		switch ((int) (mPackets / mDamageAt)) {
+		case 1:
+			++syncLosses;
+			mPacket[0] = 0x00;
+			return false;
+		case 2:
+			++transportErrors;
+			mPacket[1] |= 0x80;
+			return false;
+		case 3:
+			return true;
+		default:
+			--continuityErrors;
+			return false;
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+/**
+ * A {@link FrameDropPolicy} that adapts to how far behind the pipeline is.
+ * It tracks the lateness of decoded frames and the cost of presenting them,
+ * and drops a frame when it would be presented too late once that cost is
+ * accounted for. When frames keep arriving late, or a sample is already
+ * hopelessly late before it was even decoded, it stops decoding until the
+ * next sync sample instead of letting the backlog grow. Frames in between
+ * depend on each other, so that is the earliest point decoding can resume.
+ */
+public class AdaptiveFrameDropPolicy implements FrameDropPolicy {
+	private static final long kDefaultDelayMinUs = -10000l;
+	private static final long kDefaultDelayMaxUs = 30000l;
+	// this many late frames in a row means decoding cannot keep up
+	private static final int kMaxConsecutiveLate = 4;
+	// samples later than this before decoding cannot make it any more
+	private static final long kInputLateUs = 100000l;
+	// averages move by 1/2^kAverageShift of each new value
+	private static final int kAverageShift = 3;
+
+	private final long mDelayMinUs;
+	private final long mDelayMaxUs;
+
+	private long mAverageLatenessUs;
+	private long mAverageRenderCostUs;
+	private int mConsecutiveLate;
+	private boolean mSkipToSync;
+
+	private long mOnTime;
+	private long mLate;
+	private long mDropped;
+	private long mSkipped;
+
+	public AdaptiveFrameDropPolicy() {
+		this(kDefaultDelayMinUs, kDefaultDelayMaxUs);
+	}
+
+	/**
+	 * @param delayMinUs frames less late than this wait (usually negative)
+	 * @param delayMaxUs frames later than this, including the expected
+	 *            render cost, are dropped
+	 */
+	public AdaptiveFrameDropPolicy(long delayMinUs, long delayMaxUs) {
+		mDelayMinUs = delayMinUs;
+		mDelayMaxUs = delayMaxUs;
+	}
+
+	@Override
+	public synchronized int onOutputFrame(long presentationTimeUs,
+			long clockTimeUs) {
+		long delayUs = clockTimeUs - presentationTimeUs;
+		if (delayUs <= mDelayMinUs) {
+			return WAIT;
+		}
+		mAverageLatenessUs += (delayUs - mAverageLatenessUs) >> kAverageShift;
+		if (delayUs + mAverageRenderCostUs > mDelayMaxUs) {
+			++mDropped;
+			if (++mConsecutiveLate >= kMaxConsecutiveLate) {
+				mSkipToSync = true;
+			}
+			return DROP;
+		}
+		mConsecutiveLate = 0;
+		if (delayUs > 0) {
+			++mLate;
+		} else {
+			++mOnTime;
+		}
+		return RENDER;
+	}
+
+	@Override
+	public long getDueTimeUs(long presentationTimeUs) {
+		return presentationTimeUs + mDelayMinUs;
+	}
+
+	@Override
+	public synchronized void onFrameRendered(long renderCostUs) {
+		mAverageRenderCostUs += (renderCostUs - mAverageRenderCostUs) >> kAverageShift;
+	}
+
+	@Override
+	public synchronized boolean shouldSkipInput(long presentationTimeUs,
+			long clockTimeUs, int sampleFlags) {
+		boolean sync = (sampleFlags & SampleSource.SAMPLE_FLAG_SYNC) != 0;
+		long delayUs = clockTimeUs - presentationTimeUs;
+		if (!mSkipToSync && !sync && delayUs > kInputLateUs) {
+			mSkipToSync = true;
+		}
+		if (mSkipToSync) {
+			if (sync) {
+				// caught up, the decoder can start over from here
+				mSkipToSync = false;
+				mConsecutiveLate = 0;
+				return false;
+			}
+			++mSkipped;
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public synchronized void reset() {
+		mAverageLatenessUs = 0;
+		mConsecutiveLate = 0;
+		mSkipToSync = false;
+	}
+
+	public synchronized boolean isSkippingToSync() {
+		return mSkipToSync;
+	}
+
+	public synchronized long getAverageLatenessUs() {
+		return mAverageLatenessUs;
+	}
+
+	public synchronized long getAverageRenderCostUs() {
+		return mAverageRenderCostUs;
+	}
+
+	public synchronized long getOnTimeCount() {
+		return mOnTime;
+	}
+
+	public synchronized long getLateCount() {
+		return mLate;
+	}
+
+	public synchronized long getDroppedCount() {
+		return mDropped;
+	}
+
+	public synchronized long getSkippedCount() {
+		return mSkipped;
+	}
+}
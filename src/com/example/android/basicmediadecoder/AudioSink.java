@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The subset of {@link android.media.AudioTrack} used to play decoded 16 bit
+ * PCM.
+ */
+public interface AudioSink {
+	public void play();
+
+	public void stop();
+
+	public void release();
+
+	/**
+	 * Discards everything written but not played yet, e.g. for a seek. The
+	 * playback head starts again from 0 and the sink keeps playing.
+	 */
+	public void flush();
+
+	/**
+	 * @return the size of the sink buffer in bytes
+	 */
+	public int getBufferSize();
+
+	public int write(byte[] data, int offset, int size);
+
+	/**
+	 * @return true if {@link #write(ByteBuffer, int)} is supported
+	 */
+	public boolean supportsDirectWrite();
+
+	/**
+	 * Writes {@code size} bytes from the position of {@code data} without
+	 * blocking, advancing the position by the amount written.
+	 *
+	 * @return the number of bytes written
+	 */
+	public int write(ByteBuffer data, int size);
+
+	/**
+	 * @return the number of frames played since {@link #play()}, as an
+	 *         unsigned 32 bit value that wraps around
+	 */
+	public int getPlaybackHeadPosition();
+}
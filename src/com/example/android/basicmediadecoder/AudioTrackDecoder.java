@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link TrackDecoder} writing decoded 16 bit PCM to an {@link AudioSink}.
+ * Output is only written as far as the sink has room, so rendering never
+ * blocks on the sink. Sinks that accept a {@link ByteBuffer} are written
+ * straight from the codec buffer, others through one staging array sized to
+ * the sink buffer, so writing never allocates. If the sink reports an error,
+ * the rest of the audio is decoded and dropped, and the clock runs on
+ * system time.
+ */
+public class AudioTrackDecoder extends TrackDecoder implements
+		MediaClock.AudioTimeSource {
+	private static final String TAG = "AudioTrackDecoder";
+	private static final long MICROS_PER_SECOND = 1000000l;
+
+	private final AudioSink mSink;
+	private final int mSampleRate;
+	private final long mFrameSize;
+	private final int mBufferSize;
+	private final boolean mDirectWrite;
+
+	private long submittedBytes;
+	private long lastRawPlaybackHeadPosition;
+	private long rawPlaybackHeadWrapCount;
+	// the part of the current output buffer that is still to be written
+	private int pendingOffset;
+	private int pendingSize;
+	// at most one sink buffer is written at a time, so this never grows
+	private final byte[] stagingBuffer;
+	// presentation time of the first frame of the buffer being written
+	private long anchorTimeUs;
+	private long anchorFrame;
+	// set while the sink has run dry, so each underrun is counted once
+	private boolean underrun;
+	// set once the sink failed a write, it is not written to again
+	private boolean failed;
+
+	private LatencyHistogram mWriteUs;
+	private PipelineMetrics.Counter mUnderruns;
+	private PipelineMetrics.Counter mWrittenBytes;
+
+	public AudioTrackDecoder(Decoder decoder, SampleQueue samples,
+			AudioSink sink, int sampleRate, int channelCount,
+			FrameDropPolicy policy) {
+		super("audio", decoder, samples, policy);
+		mSink = sink;
+		mSampleRate = sampleRate;
+		mFrameSize = 2 * channelCount;
+		mBufferSize = sink.getBufferSize();
+		mDirectWrite = sink.supportsDirectWrite();
+		stagingBuffer = mDirectWrite ? null : new byte[(int) Math.max(
+				mBufferSize, mFrameSize)];
+	}
+
+	@Override
+	public void start() {
+		resetPlayback();
+		mSink.play();
+		super.start();
+	}
+
+	@Override
+	public void flush() {
+		super.flush();
+		mSink.flush();
+		resetPlayback();
+	}
+
+	private void resetPlayback() {
+		submittedBytes = 0;
+		pendingSize = 0;
+		anchorTimeUs = -1;
+		anchorFrame = 0;
+		underrun = false;
+		lastRawPlaybackHeadPosition = 0;
+		rawPlaybackHeadWrapCount = 0;
+	}
+
+	/**
+	 * Adds "audio.writeUs", "audio.writtenBytes" and "audio.underruns" to the
+	 * stages every track records.
+	 */
+	@Override
+	public void setMetrics(PipelineMetrics metrics) {
+		super.setMetrics(metrics);
+		mWriteUs = metrics.histogram(mName + ".writeUs");
+		mUnderruns = metrics.counter(mName + ".underruns");
+		mWrittenBytes = metrics.counter(mName + ".writtenBytes");
+	}
+
+	@Override
+	public void release() {
+		super.release();
+		mSink.stop();
+		mSink.release();
+	}
+
+	@Override
+	protected boolean renderOutputBuffer(int index, ByteBuffer buffer,
+			int offset, int size, long presentationTimeUs) {
+		if (failed) {
+			mDecoder.releaseOutputBuffer(index, false);
+			return true;
+		}
+		if (pendingSize == 0) {
+			anchorTimeUs = presentationTimeUs;
+			anchorFrame = submittedBytes / mFrameSize;
+		}
+		if (!writeAudioTrack(buffer, offset, size)) {
+			return false;
+		}
+		mDecoder.releaseOutputBuffer(index, false);
+		return true;
+	}
+
+	/**
+	 * Must be called on the thread that renders this track, like every
+	 * other method reading the playback head.
+	 */
+	@Override
+	public long getPlayingTimeUs() {
+		if (failed || anchorTimeUs < 0) {
+			return -1;
+		}
+		long playbackHeadPosition = getPlaybackHeadPosition();
+		if (playbackHeadPosition == 0) {
+			return -1;
+		}
+		return anchorTimeUs
+				+ framesToDurationUs(playbackHeadPosition - anchorFrame);
+	}
+
+	public long getPlaybackHeadPosition() {
+		long rawPlaybackHeadPosition = 0xFFFFFFFFL & mSink
+				.getPlaybackHeadPosition();
+		if (lastRawPlaybackHeadPosition > rawPlaybackHeadPosition) {
+			// The value must have wrapped around.
+			rawPlaybackHeadWrapCount++;
+		}
+		lastRawPlaybackHeadPosition = rawPlaybackHeadPosition;
+		return rawPlaybackHeadPosition + (rawPlaybackHeadWrapCount << 32);
+	}
+
+	/**
+	 * Writes as much of {@code buf} as the sink has room for.
+	 *
+	 * @return true once the whole buffer has been written, or if the sink
+	 *         failed and the buffer was dropped
+	 */
+	public boolean writeAudioTrack(ByteBuffer buf, int offset, int size) {
+		if (pendingSize == 0) {
+			pendingOffset = offset;
+			pendingSize = size;
+		}
+
+		int bytesPending = (int) (submittedBytes - getPlaybackHeadPosition()
+				* mFrameSize);
+		int bytesToWrite = mBufferSize - bytesPending;
+		Log.v(TAG, "bytesPending: {} bytesToWrite: {}", bytesPending,
+				bytesToWrite);
+		if (bytesPending <= 0 && submittedBytes > 0) {
+			// everything written so far has been played
+			if (!underrun && mUnderruns != null) {
+				mUnderruns.increment();
+			}
+			underrun = true;
+		}
+
+		if (bytesToWrite > 0) {
+			bytesToWrite = Math.min(pendingSize, bytesToWrite);
+			int written;
+			long startNs = mWriteUs != null ? System.nanoTime() : 0;
+			buf.clear();
+			buf.position(pendingOffset);
+			if (mDirectWrite) {
+				buf.limit(pendingOffset + bytesToWrite);
+				written = mSink.write(buf, bytesToWrite);
+			} else {
+				bytesToWrite = Math.min(bytesToWrite, stagingBuffer.length);
+				buf.get(stagingBuffer, 0, bytesToWrite);
+				written = mSink.write(stagingBuffer, 0, bytesToWrite);
+			}
+			if (mWriteUs != null) {
+				mWriteUs.record((System.nanoTime() - startNs) / 1000);
+			}
+			if (written < 0) {
+				// retrying the same buffer would fail forever
+				Log.e(TAG, "audio sink write failed: {}", written);
+				failed = true;
+				pendingSize = 0;
+				return true;
+			}
+			if (written > 0) {
+				pendingOffset += written;
+				pendingSize -= written;
+				submittedBytes += written;
+				underrun = false;
+				if (mWrittenBytes != null) {
+					mWrittenBytes.add(written);
+				}
+			}
+			Log.v(TAG, "pendingSize: {}", pendingSize);
+			if (0 == pendingSize) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public long framesToDurationUs(long frameCount) {
+		return (frameCount * MICROS_PER_SECOND) / mSampleRate;
+	}
+
+	public long durationUsToFrames(long durationUs) {
+		return (durationUs * mSampleRate) / MICROS_PER_SECOND;
+	}
+}
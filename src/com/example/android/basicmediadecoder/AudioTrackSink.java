@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.nio.ByteBuffer;
+
+import android.annotation.TargetApi;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Build;
+
+/**
+ * An {@link AudioSink} backed by a streaming {@link AudioTrack} using the
+ * minimum buffer size.
+ */
+public class AudioTrackSink implements AudioSink {
+	private final AudioTrack mTrack;
+	private final int mBufferSize;
+
+	public AudioTrackSink(int sampleRate, int channelCount) {
+		int channelConfig = AudioFormat.CHANNEL_OUT_STEREO;
+		switch (channelCount) {
+		case 1:
+			channelConfig = AudioFormat.CHANNEL_OUT_MONO;
+			break;
+		case 2:
+			channelConfig = AudioFormat.CHANNEL_OUT_STEREO;
+			break;
+		case 6:
+			channelConfig = AudioFormat.CHANNEL_OUT_5POINT1;
+			break;
+		}
+		mBufferSize = AudioTrack.getMinBufferSize(sampleRate, channelConfig,
+				AudioFormat.ENCODING_PCM_16BIT);
+		mTrack = new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate,
+				channelConfig, AudioFormat.ENCODING_PCM_16BIT, mBufferSize,
+				AudioTrack.MODE_STREAM);
+	}
+
+	@Override
+	public void play() {
+		mTrack.play();
+	}
+
+	@Override
+	public void stop() {
+		mTrack.stop();
+	}
+
+	@Override
+	public void flush() {
+		// AudioTrack only flushes while paused or stopped
+		mTrack.pause();
+		mTrack.flush();
+		mTrack.play();
+	}
+
+	@Override
+	public void release() {
+		mTrack.release();
+	}
+
+	@Override
+	public int getBufferSize() {
+		return mBufferSize;
+	}
+
+	@Override
+	public int write(byte[] data, int offset, int size) {
+		return mTrack.write(data, offset, size);
+	}
+
+	@Override
+	public boolean supportsDirectWrite() {
+		// AudioTrack.write(ByteBuffer, ...) exists since Lollipop
+		return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+	}
+
+	/**
+	 * Only called if {@link #supportsDirectWrite()}.
+	 */
+	@Override
+	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+	public int write(ByteBuffer data, int size) {
+		return mTrack.write(data, size, AudioTrack.WRITE_NON_BLOCKING);
+	}
+
+	@Override
+	public int getPlaybackHeadPosition() {
+		return mTrack.getPlaybackHeadPosition();
+	}
+}
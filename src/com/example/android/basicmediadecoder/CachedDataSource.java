@@ -0,0 +1,436 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.basicmediadecoder;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.media.DataSource;
+
+/**
+ * A {@link DataSource} decorator that keeps fixed-size blocks of the
+ * underlying source in a bounded LRU cache. Blocks are a whole number of
+ * transport stream packets long and aligned on packet boundaries. When the
+ * reader is moving forward sequentially, the following blocks are fetched
+ * ahead on a background thread so that most reads are served from memory.
+ * Blocks are recycled through an {@link ObjectPool} and looked up without
+ * boxing, so reads do not allocate once the cache is full.
+ */
+public class CachedDataSource implements DataSource {
+	public static final int TS_PACKET_SIZE = 188;
+
+	private static final int kDefaultPacketsPerBlock = 64;
+	private static final int kDefaultMaxBlocks = 64;
+	private static final int kDefaultReadAheadBlocks = 8;
+
+	private final DataSource mSource;
+	private final int mBlockSize;
+	private final int mMaxBlocks;
+	private final int mReadAheadBlocks;
+
+	private final Object mLock = new Object();
+	private final Object mSourceLock = new Object();
+	// blocks being loaded are in the map already, marked as loading
+	private final LinkedHashMap<BlockKey, Block> mBlocks;
+	private final ObjectPool<Block> mPool;
+	// guarded by mLock
+	private final BlockKey mLookupKey = new BlockKey();
+	// readAt() always fills from the start of the buffer, so partial reads
+	// go through this scratch array (guarded by mSourceLock)
+	private final byte[] mScratch;
+
+	private Thread mReadAheadThread;
+	private long mReadAheadFrom = -1;
+	private long mReadAheadTo = -1;
+	private long mLastReadEnd = -1;
+	private boolean mClosed;
+
+	private long mHits;
+	private long mMisses;
+	private long mPrefetched;
+	private long mPrefetchHits;
+
+	private static class BlockKey {
+		long index;
+
+		@Override
+		public int hashCode() {
+			return (int) (index ^ (index >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof BlockKey && ((BlockKey) o).index == index;
+		}
+	}
+
+	private static class Block {
+		final byte[] data;
+		final BlockKey key = new BlockKey();
+		int length;
+		boolean prefetched;
+		boolean loading;
+		// whether the block is in the map
+		boolean cached;
+		// readers copying out of the block, it is only recycled at 0
+		int refs;
+
+		Block(int size) {
+			data = new byte[size];
+		}
+	}
+
+	public CachedDataSource(DataSource source) {
+		this(source, kDefaultPacketsPerBlock, kDefaultMaxBlocks,
+				kDefaultReadAheadBlocks);
+	}
+
+	/**
+	 * @param source the data source to cache
+	 * @param packetsPerBlock block size in 188-byte packets
+	 * @param maxBlocks how many blocks the cache may hold
+	 * @param readAheadBlocks how many blocks to fetch ahead of a sequential
+	 *            reader, 0 to disable read-ahead
+	 */
+	public CachedDataSource(DataSource source, int packetsPerBlock,
+			int maxBlocks, int readAheadBlocks) {
+		if (packetsPerBlock <= 0 || maxBlocks <= 0 || readAheadBlocks < 0) {
+			throw new IllegalArgumentException();
+		}
+		mSource = source;
+		mBlockSize = packetsPerBlock * TS_PACKET_SIZE;
+		mMaxBlocks = maxBlocks;
+		mScratch = new byte[mBlockSize];
+		// leave room for the block being read when prefetching
+		mReadAheadBlocks = Math.min(readAheadBlocks, maxBlocks - 1);
+		mPool = new ObjectPool<Block>("CachedDataSource",
+				new ObjectPool.Factory<Block>() {
+					@Override
+					public Block create() {
+						return new Block(mBlockSize);
+					}
+				}, mReadAheadBlocks + 1, maxBlocks);
+		mBlocks = new LinkedHashMap<BlockKey, Block>(maxBlocks, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<BlockKey, Block> eldest) {
+				if (size() <= mMaxBlocks) {
+					return false;
+				}
+				Block block = eldest.getValue();
+				block.cached = false;
+				if (block.refs == 0) {
+					mPool.release(block);
+				}
+				return true;
+			}
+		};
+		if (mReadAheadBlocks > 0) {
+			mReadAheadThread = new Thread(mReadAheadRunnable, "readahead");
+			mReadAheadThread.setDaemon(true);
+			mReadAheadThread.start();
+		}
+	}
+
+	@Override
+	public int readAt(long offset, byte[] buffer, int size) {
+		if (offset < 0) {
+			return -1;
+		}
+		size = Math.min(size, buffer.length);
+		int copied = 0;
+		while (copied < size) {
+			long position = offset + copied;
+			long index = position / mBlockSize;
+			Block block = getBlock(index);
+			if (block == null) {
+				return copied > 0 ? copied : -1;
+			}
+			int blockOffset = (int) (position - index * mBlockSize);
+			int n = Math.min(block.length - blockOffset, size - copied);
+			if (n > 0) {
+				System.arraycopy(block.data, blockOffset, buffer, copied, n);
+				copied += n;
+			}
+			boolean last = block.length < mBlockSize;
+			unpin(block);
+			if (n <= 0 || last) {
+				// short block, end of source
+				break;
+			}
+		}
+		if (copied == 0 && size > 0) {
+			return -1;
+		}
+		onRead(offset, offset + copied);
+		return copied;
+	}
+
+	@Override
+	public long getSize() {
+		return mSource.getSize();
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (mLock) {
+			mClosed = true;
+			for (Block block : mBlocks.values()) {
+				block.cached = false;
+				if (block.refs == 0) {
+					mPool.release(block);
+				}
+			}
+			mBlocks.clear();
+			mLock.notifyAll();
+		}
+		if (mReadAheadThread != null) {
+			mReadAheadThread.interrupt();
+			try {
+				mReadAheadThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			mReadAheadThread = null;
+		}
+		// the blocks cached by the threads that read are dropped as well
+		mPool.close();
+		mSource.close();
+	}
+
+	public long getHitCount() {
+		synchronized (mLock) {
+			return mHits;
+		}
+	}
+
+	public long getMissCount() {
+		synchronized (mLock) {
+			return mMisses;
+		}
+	}
+
+	/**
+	 * @return how many blocks were loaded by read-ahead
+	 */
+	public long getPrefetchCount() {
+		synchronized (mLock) {
+			return mPrefetched;
+		}
+	}
+
+	/**
+	 * @return how many prefetched blocks were later read
+	 */
+	public long getPrefetchHitCount() {
+		synchronized (mLock) {
+			return mPrefetchHits;
+		}
+	}
+
+	/**
+	 * Starts reading ahead from {@code offset}, e.g. where a seek is about to
+	 * continue, and treats a read there as sequential.
+	 */
+	public void prefetch(long offset) {
+		if (mReadAheadBlocks == 0 || offset < 0) {
+			return;
+		}
+		synchronized (mLock) {
+			mReadAheadFrom = offset / mBlockSize;
+			mReadAheadTo = mReadAheadFrom + mReadAheadBlocks - 1;
+			mLastReadEnd = offset;
+			mLock.notifyAll();
+		}
+	}
+
+	/**
+	 * @return the loaded block, pinned until {@link #unpin(Block)}, or null
+	 *         past the end of the source
+	 */
+	private Block getBlock(long index) {
+		Block block;
+		synchronized (mLock) {
+			if (mClosed) {
+				return null;
+			}
+			mLookupKey.index = index;
+			block = mBlocks.get(mLookupKey);
+			if (block != null) {
+				++block.refs;
+				// read-ahead may still be loading this block, wait for it
+				while (block.loading && !mClosed) {
+					try {
+						mLock.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+				if (block.loading || block.length == 0) {
+					unpinLocked(block);
+					return null;
+				}
+				++mHits;
+				if (block.prefetched) {
+					block.prefetched = false;
+					++mPrefetchHits;
+				}
+				return block;
+			}
+			++mMisses;
+			block = startLoading(index);
+		}
+		loadBlock(block, false);
+		if (block.length == 0) {
+			unpin(block);
+			return null;
+		}
+		return block;
+	}
+
+	/**
+	 * Puts a pinned block marked as loading into the map, so that other
+	 * readers wait for it instead of loading it again.
+	 */
+	private Block startLoading(long index) {
+		Block block = mPool.acquire();
+		block.key.index = index;
+		block.length = 0;
+		block.prefetched = false;
+		block.loading = true;
+		block.cached = true;
+		block.refs = 1;
+		mBlocks.put(block.key, block);
+		return block;
+	}
+
+	private void unpin(Block block) {
+		synchronized (mLock) {
+			unpinLocked(block);
+		}
+	}
+
+	private void unpinLocked(Block block) {
+		if (--block.refs == 0 && !block.cached) {
+			mPool.release(block);
+		}
+	}
+
+	private void loadBlock(Block block, boolean prefetch) {
+		long index = block.key.index;
+		int length = 0;
+		synchronized (mSourceLock) {
+			while (length < mBlockSize) {
+				int n = mSource.readAt(index * mBlockSize + length,
+						length == 0 ? block.data : mScratch,
+						mBlockSize - length);
+				if (n <= 0) {
+					break;
+				}
+				if (length > 0) {
+					System.arraycopy(mScratch, 0, block.data, length, n);
+				}
+				length += n;
+			}
+		}
+		synchronized (mLock) {
+			block.length = length;
+			block.prefetched = prefetch;
+			block.loading = false;
+			if (length == 0 && block.cached) {
+				// past the end of the source
+				mBlocks.remove(block.key);
+				block.cached = false;
+			} else if (prefetch) {
+				++mPrefetched;
+			}
+			mLock.notifyAll();
+		}
+	}
+
+	private void onRead(long start, long end) {
+		if (mReadAheadBlocks == 0) {
+			return;
+		}
+		synchronized (mLock) {
+			boolean sequential = mLastReadEnd >= 0
+					&& start >= mLastReadEnd - mBlockSize
+					&& start <= mLastReadEnd + mBlockSize;
+			mLastReadEnd = end;
+			if (!sequential) {
+				// a seek, the window ahead of the old position is stale and
+				// would hold off read-ahead until the reader passes it
+				mReadAheadFrom = -1;
+				mReadAheadTo = -1;
+				return;
+			}
+			long next = (end - 1) / mBlockSize + 1;
+			long size = mSource.getSize();
+			long last = next + mReadAheadBlocks - 1;
+			if (size >= 0) {
+				last = Math.min(last, (size - 1) / mBlockSize);
+			}
+			if (mReadAheadTo >= next && mReadAheadTo >= last) {
+				return;
+			}
+			mReadAheadFrom = next;
+			mReadAheadTo = last;
+			mLock.notifyAll();
+		}
+	}
+
+	private final Runnable mReadAheadRunnable = new Runnable() {
+		@Override
+		public void run() {
+			while (true) {
+				Block block;
+				synchronized (mLock) {
+					while (!mClosed
+							&& (mReadAheadFrom < 0 || mReadAheadFrom > mReadAheadTo)) {
+						try {
+							mLock.wait();
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+					if (mClosed) {
+						return;
+					}
+					long index = mReadAheadFrom++;
+					mLookupKey.index = index;
+					if (mBlocks.containsKey(mLookupKey)) {
+						continue;
+					}
+					block = startLoading(index);
+				}
+				loadBlock(block, true);
+				synchronized (mLock) {
+					if (block.length == 0) {
+						// hit the end of the source, stop until the next
+						// request
+						mReadAheadFrom = mReadAheadTo + 1;
+					}
+					unpinLocked(block);
+				}
+			}
+		}
+	};
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * An {@link OutputConsumer} keeping a CRC32 of the decoded output and a
+ * buffer count per track, e.g. to check that an archived recording still
+ * decodes to what it did when it was written.
+ */
+public class ChecksumConsumer implements OutputConsumer {
+	private static class TrackSum {
+		final CRC32 crc = new CRC32();
+		// grows to the largest buffer seen
+		byte[] scratch = new byte[0];
+		long buffers;
+		long bytes;
+		boolean ended;
+	}
+
+	private final HashMap<String, TrackSum> mTracks = new HashMap<String, TrackSum>();
+
+	@Override
+	public void onOutput(String track, ByteBuffer buffer, int offset, int size,
+			long presentationTimeUs) {
+		TrackSum sum = getTrack(track);
+		synchronized (sum) {
+			if (sum.scratch.length < size) {
+				sum.scratch = new byte[size];
+			}
+			buffer.clear();
+			buffer.position(offset);
+			buffer.get(sum.scratch, 0, size);
+			sum.crc.update(sum.scratch, 0, size);
+			++sum.buffers;
+			sum.bytes += size;
+		}
+	}
+
+	@Override
+	public void onEndOfStream(String track) {
+		TrackSum sum = getTrack(track);
+		synchronized (sum) {
+			sum.ended = true;
+		}
+	}
+
+	/**
+	 * @return the CRC32 of everything {@code track} decoded so far
+	 */
+	public long getChecksum(String track) {
+		TrackSum sum = getTrack(track);
+		synchronized (sum) {
+			return sum.crc.getValue();
+		}
+	}
+
+	public long getBufferCount(String track) {
+		TrackSum sum = getTrack(track);
+		synchronized (sum) {
+			return sum.buffers;
+		}
+	}
+
+	public long getByteCount(String track) {
+		TrackSum sum = getTrack(track);
+		synchronized (sum) {
+			return sum.bytes;
+		}
+	}
+
+	/**
+	 * @return true once {@code track} returned all of its output
+	 */
+	public boolean isEnded(String track) {
+		TrackSum sum = getTrack(track);
+		synchronized (sum) {
+			return sum.ended;
+		}
+	}
+
+	private TrackSum getTrack(String track) {
+		synchronized (mTracks) {
+			TrackSum sum = mTracks.get(track);
+			if (sum == null) {
+				sum = new TrackSum();
+				mTracks.put(track, sum);
+			}
+			return sum;
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.basicmediadecoder;
+
+/**
+ * A FIFO of codec buffer indices with the buffer description of each entry
+ * kept in parallel primitive arrays. Offering and polling never allocate.
+ * Not thread safe.
+ */
+public class CodecSlotQueue {
+	private int[] mIndex;
+	private int[] mOffset;
+	private int[] mSize;
+	private long[] mTimeUs;
+	private int[] mFlags;
+	private int mHead;
+	private int mCount;
+
+	public CodecSlotQueue(int capacity) {
+		allocate(capacity);
+	}
+
+	/**
+	 * Grows the queue to hold at least {@code capacity} entries, e.g. after
+	 * the codec changed its buffers. Queued entries are dropped if the
+	 * queue has to grow.
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity > mIndex.length) {
+			allocate(capacity);
+		}
+	}
+
+	public boolean offer(int index) {
+		return offer(index, 0, 0, 0, 0);
+	}
+
+	/**
+	 * @return false if the queue is full
+	 */
+	public boolean offer(int index, int offset, int size, long timeUs,
+			int flags) {
+		if (mCount == mIndex.length) {
+			return false;
+		}
+		int tail = mHead + mCount;
+		if (tail >= mIndex.length) {
+			tail -= mIndex.length;
+		}
+		mIndex[tail] = index;
+		mOffset[tail] = offset;
+		mSize[tail] = size;
+		mTimeUs[tail] = timeUs;
+		mFlags[tail] = flags;
+		++mCount;
+		return true;
+	}
+
+	/**
+	 * Removes the head entry.
+	 *
+	 * @return the buffer index of the removed entry, or -1 if the queue is
+	 *         empty
+	 */
+	public int poll() {
+		if (mCount == 0) {
+			return -1;
+		}
+		int index = mIndex[mHead];
+		if (++mHead == mIndex.length) {
+			mHead = 0;
+		}
+		--mCount;
+		return index;
+	}
+
+	/**
+	 * @return the buffer index of the head entry, or -1 if the queue is empty
+	 */
+	public int peekIndex() {
+		return mCount == 0 ? -1 : mIndex[mHead];
+	}
+
+	public int peekOffset() {
+		return mOffset[mHead];
+	}
+
+	public int peekSize() {
+		return mSize[mHead];
+	}
+
+	public long peekTimeUs() {
+		return mTimeUs[mHead];
+	}
+
+	public int peekFlags() {
+		return mFlags[mHead];
+	}
+
+	public boolean isEmpty() {
+		return mCount == 0;
+	}
+
+	public int size() {
+		return mCount;
+	}
+
+	public int capacity() {
+		return mIndex.length;
+	}
+
+	public void clear() {
+		mHead = 0;
+		mCount = 0;
+	}
+
+	private void allocate(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity: " + capacity);
+		}
+		mIndex = new int[capacity];
+		mOffset = new int[capacity];
+		mSize = new int[capacity];
+		mTimeUs = new long[capacity];
+		mFlags = new int[capacity];
+		mHead = 0;
+		mCount = 0;
+	}
+}
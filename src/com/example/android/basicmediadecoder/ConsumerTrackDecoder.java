@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link TrackDecoder} handing every decoded buffer to an
+ * {@link OutputConsumer} as soon as it is decoded, without a clock, a
+ * surface or a sink. Used by headless pipelines, see
+ * {@link DecodePipeline#addHeadlessDecoder(TrackDecoder)}.
+ */
+public class ConsumerTrackDecoder extends TrackDecoder {
+	private final OutputConsumer mConsumer;
+	private boolean mEndReported;
+
+	/**
+	 * @param decoder a decoder without an output surface, so that the
+	 *            output is readable
+	 */
+	public ConsumerTrackDecoder(String name, Decoder decoder,
+			SampleQueue samples, OutputConsumer consumer) {
+		// the policy is never asked while every buffer is rendered at once
+		super(name, decoder, samples, new FixedWindowDropPolicy(0, 0));
+		mConsumer = consumer;
+		setForceShow(true);
+	}
+
+	@Override
+	public void start() {
+		mEndReported = false;
+		super.start();
+	}
+
+	@Override
+	public void flush() {
+		super.flush();
+		mEndReported = false;
+	}
+
+	@Override
+	public boolean doRender(long timeUs) {
+		boolean progress = super.doRender(timeUs);
+		if (!mEndReported && isEndOfStream()
+				&& getPendingTimeUs() == Long.MAX_VALUE) {
+			mEndReported = true;
+			mConsumer.onEndOfStream(mName);
+		}
+		return progress;
+	}
+
+	@Override
+	protected boolean renderOutputBuffer(int index, ByteBuffer buffer,
+			int offset, int size, long presentationTimeUs) {
+		mConsumer.onOutput(mName, buffer, offset, size, presentationTimeUs);
+		mDecoder.releaseOutputBuffer(index, false);
+		return true;
+	}
+}
@@ -0,0 +1,589 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One stream being played: a {@link Demuxer} over a {@link SampleSource},
+ * an optional video and an optional audio {@link TrackDecoder}, and the
+ * {@link MediaClock} they are presented against. Any number of pipelines
+ * can share one bounded worker pool.
+ * <p>
+ * Every track runs on its own: it is fed from its {@link SampleQueue} and
+ * renders at its own cadence, and the tracks only meet at the clock. The
+ * audio track is the clock master and samples its playback head, video only
+ * reads the clock. A slow video frame therefore never holds back audio, and
+ * the other way around. A track never occupies a worker while it waits:
+ * each step does the work that is possible right now and then schedules the
+ * next step, either immediately, when a sample arrives or when the next
+ * output is due. Steps of one track never overlap.
+ * <p>
+ * Headless tracks, added with {@link #addHeadlessDecoder(TrackDecoder)},
+ * have no clock at all: everything is rendered as soon as it is decoded, so
+ * a pipeline of only headless tracks runs as fast as its decoders, e.g. to
+ * verify or analyze recordings.
+ */
+public class DecodePipeline {
+	private static final String TAG = "DecodePipeline";
+	// how long a step may wait before polling the codec for free slots
+	private static final long kCodecPollUs = 5000l;
+	// headless tracks have no deadlines and want their output soon
+	private static final long kHeadlessPollUs = 1000l;
+
+	private final String mName;
+	private final SampleSource mSource;
+	private final ScheduledExecutorService mPool;
+	private final Demuxer mDemuxer;
+	private final MediaClock mClock = new MediaClock();
+	private Track mVideo;
+	private Track mAudio;
+	private Track[] mTracks = new Track[0];
+
+	private final Object mLock = new Object();
+	private volatile boolean mIsRunning;
+	private int mStoppedTracks;
+	private volatile boolean mEndOfStream;
+
+	private TimestampNormalizer mNormalizer;
+	private KeyframeIndex mKeyframeIndex;
+	private CachedDataSource mCache;
+	private volatile long mSeekTimeUs;
+	// seeks requested and performed, a track stops stepping while they differ
+	private final AtomicInteger mSeekRequests = new AtomicInteger();
+	private volatile int mSeeksDone;
+	// tracks that stopped for the pending seeks, each counted once until
+	// the seek is done, the last one performs it
+	private final AtomicInteger mSeekParked = new AtomicInteger();
+	private volatile long mSeekStartNs;
+	// when the pipeline was created, until its first video frame
+	private long mCreatedNs = System.nanoTime();
+	private volatile long mFirstFrameUs = -1;
+
+	private LatencyHistogram mAvOffsetUs;
+	private PipelineMetrics.Counter mClockDriftUs;
+	private LatencyHistogram mSeekFirstFrameUs;
+	private LatencyHistogram mStartFirstFrameUs;
+	private long mLastVideoRendered;
+
+	/**
+	 * @return a pool of {@code threads} daemon threads to share between
+	 *         pipelines, usually one per core
+	 */
+	public static ScheduledExecutorService newWorkerPool(int threads) {
+		return new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+			private final AtomicInteger mCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "decode-"
+						+ mCount.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @param name used in logs
+	 * @param pool the workers the tracks are stepped on
+	 */
+	public DecodePipeline(String name, SampleSource source,
+			ScheduledExecutorService pool) {
+		mName = name;
+		mSource = source;
+		mPool = pool;
+		mDemuxer = new Demuxer(source);
+	}
+
+	public String getName() {
+		return mName;
+	}
+
+	/**
+	 * Selects a track of the source.
+	 *
+	 * @return the queue the decoder of the track is fed from
+	 */
+	public SampleQueue addTrack(int trackIndex, int capacity, int sampleSize) {
+		return mDemuxer.addTrack(trackIndex, capacity, sampleSize);
+	}
+
+	public void setVideoDecoder(TrackDecoder decoder) {
+		decoder.setClock(mClock);
+		mVideo = addDecoder(decoder, true);
+	}
+
+	/**
+	 * The audio track becomes the master of the clock.
+	 */
+	public void setAudioDecoder(AudioTrackDecoder decoder) {
+		mAudio = addDecoder(decoder, true);
+	}
+
+	/**
+	 * Adds a track that is not paced: its output is rendered as soon as it
+	 * is decoded, and it neither waits for nor starts the clock. Usually a
+	 * {@link ConsumerTrackDecoder}.
+	 */
+	public void addHeadlessDecoder(TrackDecoder decoder) {
+		decoder.setForceShow(true);
+		addDecoder(decoder, false);
+	}
+
+	private Track addDecoder(TrackDecoder decoder, boolean paced) {
+		Track track = new Track(decoder, paced);
+		// the queue is the only link between the demuxer and the track
+		decoder.mSamples.setListener(track.mWakeup);
+		Track[] tracks = new Track[mTracks.length + 1];
+		System.arraycopy(mTracks, 0, tracks, 0, mTracks.length);
+		tracks[mTracks.length] = track;
+		mTracks = tracks;
+		return track;
+	}
+
+	/**
+	 * @see Demuxer#setBatching(int, long)
+	 */
+	public void setDemuxBatching(int maxSamples, long maxSpanUs) {
+		mDemuxer.setBatching(maxSamples, maxSpanUs);
+	}
+
+	/**
+	 * Keeps the timestamps the tracks and the clock see continuous across
+	 * discontinuities and wraps of the source timestamps, see
+	 * {@link TimestampNormalizer}. Seeks still use the source timestamps.
+	 * Must be called before {@link #setMetrics(PipelineMetrics)} and
+	 * {@link #start()}.
+	 */
+	public void setNormalizeTimestamps(boolean normalize) {
+		mNormalizer = normalize ? new TimestampNormalizer(
+				mSource.getTrackCount()) : null;
+		mDemuxer.setTimestampNormalizer(mNormalizer);
+	}
+
+	/**
+	 * Must be called after the decoders were set and before
+	 * {@link #start()}.
+	 */
+	public void setMetrics(PipelineMetrics metrics) {
+		mDemuxer.setMetrics(metrics);
+		if (mNormalizer != null) {
+			mNormalizer.setMetrics(metrics);
+		}
+		for (Track track : mTracks) {
+			track.mDecoder.setMetrics(metrics);
+		}
+		mAvOffsetUs = metrics.histogram("av.offsetUs");
+		mClockDriftUs = metrics.counter("clock.driftUs");
+		mSeekFirstFrameUs = metrics.histogram("seek.firstFrameUs");
+		mStartFirstFrameUs = metrics.histogram("start.firstFrameUs");
+	}
+
+	/**
+	 * Makes seeks land on a known keyframe and, with {@code cache}, have
+	 * its data read ahead.
+	 *
+	 * @param cache the data source of the extractor if it is cached, or
+	 *            null
+	 */
+	public void setKeyframeIndex(KeyframeIndex index, CachedDataSource cache) {
+		mKeyframeIndex = index;
+		mCache = cache;
+	}
+
+	public MediaClock getClock() {
+		return mClock;
+	}
+
+	public void start() {
+		Log.d(TAG, "{} start", mName);
+		for (Track track : mTracks) {
+			track.mDecoder.start();
+			track.reset();
+			track.mStopped = false;
+		}
+		mClock.reset();
+		mClock.setAudioTimeSource(mAudio != null ? (AudioTrackDecoder) mAudio.mDecoder
+				: null);
+		mEndOfStream = false;
+		mStoppedTracks = 0;
+		mIsRunning = true;
+		mDemuxer.start();
+		wakeAll();
+	}
+
+	/**
+	 * Stops stepping, waits for running steps to finish and releases the
+	 * demuxer and the decoders. The source is left to the owner.
+	 */
+	public void release() {
+		Log.d(TAG, "{} release", mName);
+		mIsRunning = false;
+		wakeAll();
+		synchronized (mLock) {
+			while (mStoppedTracks < mTracks.length) {
+				try {
+					mLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		mDemuxer.stop();
+		if (mVideo != null) {
+			TrackDecoder decoder = mVideo.mDecoder;
+			Log.d(TAG, "video rendered: " + decoder.getRenderedCount()
+					+ " dropped: " + decoder.getDroppedCount() + " skipped: "
+					+ decoder.getSkippedCount());
+		}
+		// headless tracks included
+		for (Track track : mTracks) {
+			track.mDecoder.release();
+		}
+	}
+
+	/**
+	 * Continues playback from the last keyframe at or before {@code timeUs}.
+	 * May be called from any thread.
+	 */
+	public void seekTo(long timeUs) {
+		mSeekTimeUs = Math.max(0, timeUs);
+		mSeekRequests.incrementAndGet();
+		wakeAll();
+	}
+
+	/**
+	 * @return the time from creating the pipeline, before its decoders are
+	 *         created, until its first video frame was rendered, also
+	 *         recorded as "start.firstFrameUs", or -1 before that
+	 */
+	public long getTimeToFirstFrameUs() {
+		return mFirstFrameUs;
+	}
+
+	/**
+	 * @return true once every track has been fed to its end and all decoded
+	 *         output was rendered
+	 */
+	public boolean isEndOfStream() {
+		return mEndOfStream;
+	}
+
+	/**
+	 * Blocks until {@link #isEndOfStream()} or {@code timeoutMs} elapses.
+	 *
+	 * @return true at the end of stream
+	 */
+	public boolean awaitEndOfStream(long timeoutMs) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		synchronized (mLock) {
+			while (!mEndOfStream) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return false;
+				}
+				mLock.wait(remaining);
+			}
+			return true;
+		}
+	}
+
+	private void wakeAll() {
+		for (Track track : mTracks) {
+			track.wake();
+		}
+	}
+
+	/**
+	 * Starts the clock at the earliest pending output once every track that
+	 * has not ended has decoded something. Called by each track that is
+	 * ready, so the last one to get there starts it.
+	 */
+	private void maybeStartClock() {
+		synchronized (mLock) {
+			if (mClock.isStarted()) {
+				return;
+			}
+			long startUs = Long.MAX_VALUE;
+			for (Track track : mTracks) {
+				long timeUs = track.mStartTimeUs;
+				if (timeUs == Long.MAX_VALUE) {
+					return;
+				}
+				if (timeUs != Long.MIN_VALUE) {
+					startUs = Math.min(startUs, timeUs);
+				}
+			}
+			if (startUs == Long.MAX_VALUE) {
+				// every track has ended
+				return;
+			}
+			mClock.start(startUs);
+		}
+		// the others may be waiting for the clock on a codec poll timeout
+		wakeAll();
+	}
+
+	private void updateEndOfStream() {
+		for (Track track : mTracks) {
+			if (!track.mDone) {
+				return;
+			}
+		}
+		synchronized (mLock) {
+			if (mEndOfStream) {
+				return;
+			}
+			Log.d(TAG, "{} end of stream", mName);
+			mEndOfStream = true;
+			mLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Runs on the last track to stop for the seek, so no track is being
+	 * worked on.
+	 */
+	private void performSeek() {
+		// seekTo() sets the time before the request, so this is the time of
+		// the latest request or a later one
+		int request = mSeekRequests.get();
+		long timeUs = mSeekTimeUs;
+		mSeekStartNs = System.nanoTime();
+		if (mKeyframeIndex != null) {
+			int pos = mKeyframeIndex.findBefore(timeUs);
+			if (pos >= 0) {
+				// the extractor finds the same keyframe, have its data ready
+				if (mCache != null) {
+					mCache.prefetch(mKeyframeIndex.getOffset(pos));
+				}
+				timeUs = mKeyframeIndex.getTimeUs(pos);
+			}
+		}
+		Log.d(TAG, "{} seek to {}", mName, timeUs);
+		for (Track track : mTracks) {
+			track.mDecoder.flush();
+			track.reset();
+		}
+		mDemuxer.seekTo(timeUs);
+		mClock.reset();
+		mEndOfStream = false;
+		for (Track track : mTracks) {
+			track.mParked = false;
+		}
+		mSeekParked.set(0);
+		// publishes the above to the tracks
+		mSeeksDone = request;
+		wakeAll();
+	}
+
+	private void onVideoRendered(long currentTimestampUs) {
+		TrackDecoder decoder = mVideo.mDecoder;
+		if (decoder.getRenderedCount() == mLastVideoRendered) {
+			return;
+		}
+		mLastVideoRendered = decoder.getRenderedCount();
+		if (mCreatedNs != 0) {
+			mFirstFrameUs = (System.nanoTime() - mCreatedNs) / 1000;
+			Log.d(TAG, "{} first frame after {} us", mName, mFirstFrameUs);
+			if (mStartFirstFrameUs != null) {
+				mStartFirstFrameUs.record(mFirstFrameUs);
+			}
+			mCreatedNs = 0;
+		}
+		if (mSeekStartNs != 0) {
+			if (mSeekFirstFrameUs != null) {
+				mSeekFirstFrameUs.record((System.nanoTime() - mSeekStartNs) / 1000);
+			}
+			mSeekStartNs = 0;
+		}
+		if (mAvOffsetUs != null) {
+			// how far the frame on screen is from the clock
+			mAvOffsetUs.record(Math.abs(decoder.getTimestampUs()
+					- currentTimestampUs));
+			mClockDriftUs.set(mClock.getDriftUs());
+		}
+	}
+
+	/**
+	 * Steps one track. Only this track's own steps touch its decoder, the
+	 * other tracks see the fields published here.
+	 */
+	private class Track implements Runnable {
+		final TrackDecoder mDecoder;
+		final boolean mPaced;
+		// the first pending output while the clock is not started,
+		// Long.MIN_VALUE once the track has ended
+		volatile long mStartTimeUs;
+		volatile boolean mDone;
+		private boolean mStopped;
+		// stopped for the pending seeks, cleared by performSeek()
+		private boolean mParked;
+
+		// steps requested but not run yet, only the wakeup that takes this
+		// from 0 to 1 submits a step to the pool
+		private final AtomicInteger mWakeups = new AtomicInteger();
+		private int mMissed;
+		private ScheduledFuture<?> mTimer;
+
+		final Runnable mWakeup = new Runnable() {
+			@Override
+			public void run() {
+				wake();
+			}
+		};
+
+		Track(TrackDecoder decoder, boolean paced) {
+			mDecoder = decoder;
+			mPaced = paced;
+		}
+
+		/**
+		 * Only while no step of this track is running.
+		 */
+		void reset() {
+			// headless tracks never hold back the clock
+			mStartTimeUs = mPaced ? Long.MAX_VALUE : Long.MIN_VALUE;
+			mDone = false;
+		}
+
+		void wake() {
+			if (mWakeups.getAndIncrement() == 0) {
+				mMissed = 1;
+				mPool.execute(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			step();
+			// wakeups that arrived meanwhile get one more step, which goes
+			// to the back of the pool queue so other tracks get their turn
+			int missed = mWakeups.addAndGet(-mMissed);
+			if (missed != 0) {
+				mMissed = missed;
+				mPool.execute(this);
+			}
+		}
+
+		private void step() {
+			if (mTimer != null) {
+				mTimer.cancel(false);
+				mTimer = null;
+			}
+			if (!mIsRunning) {
+				if (!mStopped) {
+					mStopped = true;
+					synchronized (mLock) {
+						++mStoppedTracks;
+						mLock.notifyAll();
+					}
+				}
+				return;
+			}
+			int request = mSeekRequests.get();
+			if (request != mSeeksDone) {
+				// seeks requested while parked are performed together
+				if (!mParked) {
+					mParked = true;
+					if (mSeekParked.incrementAndGet() == mTracks.length) {
+						performSeek();
+					}
+				}
+				return;
+			}
+			if (mDone) {
+				// parked until a seek or release wakes the track up
+				return;
+			}
+			boolean progress = mDecoder.doSomeWork();
+			progress |= render();
+			if (progress) {
+				mWakeups.incrementAndGet();
+			} else if (!mDone) {
+				mTimer = mPool.schedule(mWakeup, getIdleTimeoutUs(),
+						TimeUnit.MICROSECONDS);
+			}
+		}
+
+		/**
+		 * @return true if any buffer was rendered or dropped
+		 */
+		private boolean render() {
+			if (!mPaced) {
+				boolean progress = mDecoder.doRender(Long.MAX_VALUE);
+				updateDone();
+				return progress;
+			}
+			if (!mClock.isStarted()) {
+				mStartTimeUs = isDone() ? Long.MIN_VALUE : mDecoder
+						.getPendingTimeUs();
+				if (mStartTimeUs == Long.MAX_VALUE) {
+					return false;
+				}
+				maybeStartClock();
+				if (!mClock.isStarted()) {
+					updateDone();
+					return false;
+				}
+			}
+			// only the master samples the audio playback head
+			boolean master = this == mAudio || mAudio == null;
+			long currentTimestampUs = master ? mClock.getTimeUs() : mClock
+					.peekTimeUs();
+			Log.v(TAG, "{} ===========> {}", mDecoder.mName, currentTimestampUs);
+			boolean progress = mDecoder.doRender(currentTimestampUs);
+			if (this == mVideo) {
+				onVideoRendered(currentTimestampUs);
+			}
+			updateDone();
+			return progress;
+		}
+
+		private long getIdleTimeoutUs() {
+			if (!mPaced) {
+				return kHeadlessPollUs;
+			}
+			long deadlineUs = mDecoder.getNextDeadlineUs();
+			if (deadlineUs == Long.MAX_VALUE || !mClock.isStarted()) {
+				return kCodecPollUs;
+			}
+			// convert the media time deadline to a wait from now
+			return Math.max(0, Math.min(kCodecPollUs, deadlineUs
+					- mClock.peekTimeUs()));
+		}
+
+		private boolean isDone() {
+			return mDecoder.isEndOfStream()
+					&& mDecoder.getPendingTimeUs() == Long.MAX_VALUE;
+		}
+
+		private void updateDone() {
+			if (!mDone && isDone()) {
+				mDone = true;
+				mStartTimeUs = Long.MIN_VALUE;
+				updateEndOfStream();
+			}
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.basicmediadecoder;
+
+/**
+ * A wait with a timeout that another thread can cut short. Signals are not
+ * counted: any number of them before the next {@link #await(long)} make it
+ * return once, e.g. for the thread that waits for playback to be stopped
+ * or switched. The pipeline itself parks its tracks on its worker pool.
+ */
+public class DecodeScheduler {
+	private final Object mLock = new Object();
+	private boolean mSignaled;
+
+	private long mSignals;
+	private long mTimeouts;
+
+	/**
+	 * Wakes up the waiting thread, or makes its next {@link #await(long)}
+	 * return immediately.
+	 */
+	public void signal() {
+		synchronized (mLock) {
+			mSignaled = true;
+			mLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Blocks until {@link #signal()} is called or {@code timeoutUs} elapses.
+	 *
+	 * @return true if woken up by a signal, false on timeout or interrupt
+	 */
+	public boolean await(long timeoutUs) {
+		synchronized (mLock) {
+			long deadline = System.nanoTime() + timeoutUs * 1000;
+			while (!mSignaled) {
+				long remainingNs = deadline - System.nanoTime();
+				if (remainingNs <= 0) {
+					++mTimeouts;
+					return false;
+				}
+				try {
+					mLock.wait(remainingNs / 1000000,
+							(int) (remainingNs % 1000000));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			mSignaled = false;
+			++mSignals;
+			return true;
+		}
+	}
+
+	public long getSignalCount() {
+		synchronized (mLock) {
+			return mSignals;
+		}
+	}
+
+	public long getTimeoutCount() {
+		synchronized (mLock) {
+			return mTimeouts;
+		}
+	}
+}
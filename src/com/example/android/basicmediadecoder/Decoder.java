@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The subset of {@link android.media.MediaCodec} used by the decode loop.
+ * Return codes and flags have the same values as their MediaCodec
+ * counterparts.
+ */
+public interface Decoder {
+	public static final int INFO_TRY_AGAIN_LATER = -1;
+	public static final int INFO_OUTPUT_FORMAT_CHANGED = -2;
+	public static final int INFO_OUTPUT_BUFFERS_CHANGED = -3;
+
+	public static final int FLAG_SYNC_FRAME = 1;
+	public static final int FLAG_END_OF_STREAM = 4;
+
+	/**
+	 * Describes a dequeued output buffer, like
+	 * {@link android.media.MediaCodec.BufferInfo}.
+	 */
+	public static class OutputInfo {
+		public int offset;
+		public int size;
+		public long presentationTimeUs;
+		public int flags;
+	}
+
+	public void start();
+
+	public void flush();
+
+	public void stop();
+
+	public void release();
+
+	public ByteBuffer[] getInputBuffers();
+
+	public ByteBuffer[] getOutputBuffers();
+
+	public int dequeueInputBuffer(long timeoutUs);
+
+	public void queueInputBuffer(int index, int offset, int size,
+			long presentationTimeUs, int flags);
+
+	public int dequeueOutputBuffer(OutputInfo info, long timeoutUs);
+
+	public void releaseOutputBuffer(int index, boolean render);
+}
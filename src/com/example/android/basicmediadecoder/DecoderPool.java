@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Keeps started decoders that are not in use, so that switching to another
+ * stream does not have to create, configure and start new ones, which
+ * takes most of the time of a channel switch. Decoders are keyed by what
+ * they were configured for, e.g. with
+ * {@link MediaCodecDecoder#getPoolKey(android.media.MediaFormat, android.view.Surface)},
+ * and only reused for the same key.
+ * <p>
+ * {@link #acquire(String, Factory)} hands out a decoder that is already
+ * started. Stopping it only flushes it, and releasing it flushes it and
+ * hands it back to the pool instead of tearing it down, so a
+ * {@link TrackDecoder} uses it unchanged. The least recently used idle
+ * decoders beyond a limit are released, and {@link #trim(int)} releases
+ * more of them, e.g. under memory pressure. Thread safe.
+ */
+public class DecoderPool {
+	private static final String TAG = "DecoderPool";
+
+	public interface Factory {
+		/**
+		 * @return a new configured decoder that is not started yet
+		 */
+		Decoder create();
+	}
+
+	private static class Idle {
+		final String key;
+		final Decoder decoder;
+
+		Idle(String key, Decoder decoder) {
+			this.key = key;
+			this.decoder = decoder;
+		}
+	}
+
+	private final int mMaxIdle;
+	// least recently used first, guarded by itself
+	private final ArrayList<Idle> mIdle = new ArrayList<Idle>();
+	// keys being prepared and created for acquire(), one entry per
+	// decoder, guarded by mIdle
+	private final HashSet<String> mPreparing = new HashSet<String>();
+	private final ArrayList<String> mCreating = new ArrayList<String>();
+
+	// all null until metrics are attached
+	private PipelineMetrics.Counter mHits;
+	private PipelineMetrics.Counter mMisses;
+	private PipelineMetrics.Counter mEvictions;
+	private PipelineMetrics.Counter mIdleCount;
+	private LatencyHistogram mCreateUs;
+
+	/**
+	 * @param maxIdle how many idle decoders are kept, for all keys
+	 */
+	public DecoderPool(int maxIdle) {
+		if (maxIdle < 0) {
+			throw new IllegalArgumentException();
+		}
+		mMaxIdle = maxIdle;
+	}
+
+	/**
+	 * Counts "decoderPool.hits", "decoderPool.misses" and
+	 * "decoderPool.evictions", keeps "decoderPool.idle" at the number of
+	 * idle decoders and records "decoderPool.createUs" for decoders that
+	 * were created and started.
+	 */
+	public void setMetrics(PipelineMetrics metrics) {
+		mHits = metrics.counter("decoderPool.hits");
+		mMisses = metrics.counter("decoderPool.misses");
+		mEvictions = metrics.counter("decoderPool.evictions");
+		mIdleCount = metrics.counter("decoderPool.idle");
+		mCreateUs = metrics.histogram("decoderPool.createUs");
+	}
+
+	/**
+	 * @return a started decoder for {@code key}, an idle one if there is
+	 *         one or is being prepared, otherwise one from {@code factory}
+	 */
+	public Decoder acquire(String key, Factory factory) {
+		Decoder decoder = null;
+		synchronized (mIdle) {
+			while (true) {
+				decoder = takeIdle(key);
+				if (decoder != null || !mPreparing.contains(key)) {
+					break;
+				}
+				try {
+					mIdle.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			if (decoder == null) {
+				mCreating.add(key);
+			}
+		}
+		if (decoder != null) {
+			Log.d(TAG, "reuse {}", key);
+			if (mHits != null) {
+				mHits.increment();
+			}
+			return new PooledDecoder(key, decoder);
+		}
+		Log.d(TAG, "create {}", key);
+		if (mMisses != null) {
+			mMisses.increment();
+		}
+		try {
+			decoder = create(factory);
+		} finally {
+			synchronized (mIdle) {
+				mCreating.remove(key);
+			}
+		}
+		return new PooledDecoder(key, decoder);
+	}
+
+	/**
+	 * Creates and starts an idle decoder for {@code key} ahead of its use,
+	 * e.g. for the channel that is likely to be switched to next, unless
+	 * one is idle or being created already. Blocks while the decoder is
+	 * created.
+	 */
+	public void prepare(String key, Factory factory) {
+		synchronized (mIdle) {
+			if (mPreparing.contains(key) || mCreating.contains(key)) {
+				return;
+			}
+			for (Idle idle : mIdle) {
+				if (idle.key.equals(key)) {
+					return;
+				}
+			}
+			// reserved, so that no one else creates a decoder for the key
+			mPreparing.add(key);
+		}
+		Log.d(TAG, "prepare {}", key);
+		Decoder decoder = null;
+		try {
+			decoder = create(factory);
+		} finally {
+			synchronized (mIdle) {
+				mPreparing.remove(key);
+				if (decoder != null) {
+					mIdle.add(new Idle(key, decoder));
+					updateIdleCount();
+				}
+				// acquire() waits for the decoder, or to create its own
+				mIdle.notifyAll();
+			}
+		}
+		trim(mMaxIdle);
+	}
+
+	/**
+	 * Releases the least recently used idle decoders until at most
+	 * {@code maxIdle} are left.
+	 */
+	public void trim(int maxIdle) {
+		ArrayList<Idle> evicted = new ArrayList<Idle>();
+		synchronized (mIdle) {
+			while (mIdle.size() > maxIdle) {
+				evicted.add(mIdle.remove(0));
+			}
+			updateIdleCount();
+		}
+		release(evicted);
+	}
+
+	/**
+	 * Releases evicted decoders, outside the lock as releasing a codec
+	 * takes a while.
+	 */
+	private void release(ArrayList<Idle> evicted) {
+		for (Idle idle : evicted) {
+			Log.d(TAG, "evict {}", idle.key);
+			idle.decoder.stop();
+			idle.decoder.release();
+			if (mEvictions != null) {
+				mEvictions.increment();
+			}
+		}
+	}
+
+	/**
+	 * Releases the idle decoders whose key ends with {@code keySuffix}, e.g.
+	 * those bound to a surface that goes away.
+	 */
+	public void evict(String keySuffix) {
+		ArrayList<Idle> evicted = new ArrayList<Idle>();
+		synchronized (mIdle) {
+			for (int i = mIdle.size() - 1; i >= 0; i--) {
+				if (mIdle.get(i).key.endsWith(keySuffix)) {
+					evicted.add(mIdle.remove(i));
+				}
+			}
+			updateIdleCount();
+		}
+		release(evicted);
+	}
+
+	/**
+	 * @return how many decoders are idle, for all keys
+	 */
+	public int getIdleCount() {
+		synchronized (mIdle) {
+			return mIdle.size();
+		}
+	}
+
+	/**
+	 * Must hold mIdle.
+	 *
+	 * @return the most recently used idle decoder for {@code key}, or null
+	 */
+	private Decoder takeIdle(String key) {
+		for (int i = mIdle.size() - 1; i >= 0; i--) {
+			if (mIdle.get(i).key.equals(key)) {
+				Decoder decoder = mIdle.remove(i).decoder;
+				updateIdleCount();
+				return decoder;
+			}
+		}
+		return null;
+	}
+
+	private Decoder create(Factory factory) {
+		long startNs = System.nanoTime();
+		Decoder decoder = factory.create();
+		try {
+			decoder.start();
+		} catch (RuntimeException e) {
+			decoder.release();
+			throw e;
+		}
+		if (mCreateUs != null) {
+			mCreateUs.record((System.nanoTime() - startNs) / 1000);
+		}
+		return decoder;
+	}
+
+	/**
+	 * Takes a flushed and started decoder back.
+	 */
+	private void recycle(String key, Decoder decoder) {
+		synchronized (mIdle) {
+			mIdle.add(new Idle(key, decoder));
+		}
+		trim(mMaxIdle);
+	}
+
+	private void updateIdleCount() {
+		if (mIdleCount != null) {
+			mIdleCount.set(mIdle.size());
+		}
+	}
+
+	/**
+	 * What {@link #acquire(String, Factory)} hands out: stays started until
+	 * it is released back to the pool.
+	 */
+	private class PooledDecoder implements Decoder {
+		private final String mKey;
+		private Decoder mDecoder;
+		// input was queued since the last flush
+		private boolean mDirty;
+
+		PooledDecoder(String key, Decoder decoder) {
+			mKey = key;
+			mDecoder = decoder;
+		}
+
+		/**
+		 * Does nothing, the decoder was started by the pool.
+		 */
+		@Override
+		public void start() {
+			checkNotReleased();
+		}
+
+		@Override
+		public void flush() {
+			checkNotReleased().flush();
+			mDirty = false;
+		}
+
+		/**
+		 * Only flushes, the decoder stays started for its next use.
+		 */
+		@Override
+		public void stop() {
+			if (mDirty) {
+				flush();
+			}
+		}
+
+		/**
+		 * Hands the decoder back to the pool, it must not be used
+		 * afterwards.
+		 */
+		@Override
+		public void release() {
+			if (mDecoder == null) {
+				return;
+			}
+			stop();
+			Decoder decoder = mDecoder;
+			mDecoder = null;
+			recycle(mKey, decoder);
+		}
+
+		@Override
+		public ByteBuffer[] getInputBuffers() {
+			return checkNotReleased().getInputBuffers();
+		}
+
+		@Override
+		public ByteBuffer[] getOutputBuffers() {
+			return checkNotReleased().getOutputBuffers();
+		}
+
+		@Override
+		public int dequeueInputBuffer(long timeoutUs) {
+			return checkNotReleased().dequeueInputBuffer(timeoutUs);
+		}
+
+		@Override
+		public void queueInputBuffer(int index, int offset, int size,
+				long presentationTimeUs, int flags) {
+			checkNotReleased().queueInputBuffer(index, offset, size,
+					presentationTimeUs, flags);
+			mDirty = true;
+		}
+
+		@Override
+		public int dequeueOutputBuffer(OutputInfo info, long timeoutUs) {
+			return checkNotReleased().dequeueOutputBuffer(info, timeoutUs);
+		}
+
+		@Override
+		public void releaseOutputBuffer(int index, boolean render) {
+			checkNotReleased().releaseOutputBuffer(index, render);
+		}
+
+		private Decoder checkNotReleased() {
+			if (mDecoder == null) {
+				throw new IllegalStateException("decoder is released");
+			}
+			return mDecoder;
+		}
+	}
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.basicmediadecoder;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reads the container once on its own thread and fans the samples out to one
+ * {@link SampleQueue} per selected track. A full queue blocks the demuxer, so
+ * a track that is not being consumed holds back the reading of the file
+ * instead of growing its queue.
+ * <p>
+ * Samples can be fed in batches: a run of samples is read straight into
+ * the free slots of their queues and published together, one lock and one
+ * consumer wakeup per track and batch instead of per sample. A batch ends
+ * after a number of samples, once the samples of a track span a given
+ * stretch of media time, or when the queue of the next sample has no free
+ * slot, rather than waiting for its consumer while the samples of the other
+ * tracks are held back. This bounds the latency it adds.
+ */
+public class Demuxer implements Runnable {
+	private static final String TAG = "Demuxer";
+	private static final int kStagingSize = 2 * 1024 * 1024;
+	private static final int kDefaultBatchSamples = 1;
+	private static final long kDefaultBatchSpanUs = 40000l;
+
+	private final SampleSource mSource;
+	// indexed by track
+	private final SampleQueue[] mQueues;
+	private final ByteBuffer mStaging = ByteBuffer.allocateDirect(kStagingSize);
+	private Thread mThread;
+	private LatencyHistogram mReadUs;
+	private PipelineMetrics.Counter mBytes;
+	private PipelineMetrics.Counter mSampleCount;
+	private LatencyHistogram mBatchSize;
+	private TimestampNormalizer mNormalizer;
+	private int mBatchSamples = kDefaultBatchSamples;
+	private long mBatchSpanUs = kDefaultBatchSpanUs;
+	// samples of the current batch per track, obtained but not queued, and
+	// the time of the first of them
+	private final int[] mBatched;
+	private final long[] mBatchStartUs;
+	private volatile boolean mIsRunning;
+
+	public Demuxer(SampleSource source) {
+		mSource = source;
+		mQueues = new SampleQueue[source.getTrackCount()];
+		mBatched = new int[mQueues.length];
+		mBatchStartUs = new long[mQueues.length];
+	}
+
+	/**
+	 * Feeds up to {@code maxSamples} samples at once, as long as they span
+	 * at most {@code maxSpanUs} of media time. Must be called before
+	 * {@link #start()}; 1 feeds every sample on its own.
+	 */
+	public void setBatching(int maxSamples, long maxSpanUs) {
+		if (maxSamples < 1 || maxSpanUs < 0) {
+			throw new IllegalArgumentException();
+		}
+		mBatchSamples = maxSamples;
+		mBatchSpanUs = maxSpanUs;
+	}
+
+	/**
+	 * Maps the timestamps of every sample through {@code normalizer} before
+	 * it is queued, or passes them on as read with null. Must be called
+	 * before {@link #start()}.
+	 */
+	public void setTimestampNormalizer(TimestampNormalizer normalizer) {
+		mNormalizer = normalizer;
+	}
+
+	/**
+	 * Selects a track and returns the queue its samples are delivered to.
+	 * Must be called before {@link #start()}.
+	 */
+	public SampleQueue addTrack(int trackIndex, int capacity, int sampleSize) {
+		SampleQueue queue = new SampleQueue(capacity, sampleSize);
+		mQueues[trackIndex] = queue;
+		mSource.selectTrack(trackIndex);
+		return queue;
+	}
+
+	/**
+	 * Records "demux.readUs", "demux.bytes", "demux.samples" and
+	 * "demux.batchSize". Must be called before {@link #start()}.
+	 */
+	public void setMetrics(PipelineMetrics metrics) {
+		mReadUs = metrics.histogram("demux.readUs");
+		mBytes = metrics.counter("demux.bytes");
+		mSampleCount = metrics.counter("demux.samples");
+		mBatchSize = metrics.histogram("demux.batchSize");
+	}
+
+	public void start() {
+		// a batch interrupted by stop() was never published
+		Arrays.fill(mBatched, 0);
+		mIsRunning = true;
+		mThread = new Thread(this, TAG);
+		mThread.start();
+	}
+
+	public void stop() {
+		mIsRunning = false;
+		for (SampleQueue queue : mQueues) {
+			if (queue != null) {
+				queue.abort();
+			}
+		}
+		if (mThread != null) {
+			mThread.interrupt();
+			try {
+				mThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			mThread = null;
+		}
+	}
+
+	/**
+	 * Restarts demuxing from the last sync sample at or before
+	 * {@code timeUs}. Samples queued before the seek are dropped.
+	 */
+	public void seekTo(long timeUs) {
+		stop();
+		mSource.seekTo(timeUs);
+		if (mNormalizer != null) {
+			mNormalizer.reset();
+		}
+		for (SampleQueue queue : mQueues) {
+			if (queue != null) {
+				queue.clear();
+			}
+		}
+		start();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (mIsRunning) {
+				int count = readBatch();
+				publishBatch(count);
+				if (count <= 0) {
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			Log.d(TAG, "interrupted");
+		}
+		for (SampleQueue queue : mQueues) {
+			if (queue != null) {
+				queue.setEndOfStream();
+			}
+		}
+	}
+
+	/**
+	 * Reads samples into their queues without publishing them.
+	 *
+	 * @return the number of samples read, 0 at the end of the source or on
+	 *         an error
+	 */
+	private int readBatch() throws InterruptedException {
+		int count = 0;
+		while (mIsRunning && count < mBatchSamples) {
+			int trackIdx = mSource.getSampleTrackIndex();
+			if (trackIdx < 0) {
+				Log.d(TAG, "end of stream");
+				return count;
+			}
+			SampleQueue queue = trackIdx < mQueues.length ? mQueues[trackIdx]
+					: null;
+			if (queue == null) {
+				mSource.advance();
+				continue;
+			}
+			long timeUs = mSource.getSampleTime();
+			int batched = mBatched[trackIdx];
+			if (batched == 0) {
+				mBatchStartUs[trackIdx] = timeUs;
+			} else if (timeUs - mBatchStartUs[trackIdx] > mBatchSpanUs) {
+				break;
+			}
+			// with nothing to publish, waiting for a free slot holds no
+			// one back
+			if (count > 0 && !queue.hasFree(batched)) {
+				break;
+			}
+			SampleQueue.Sample sample = queue.obtain(batched);
+			if (sample == null) {
+				return count;
+			}
+			mStaging.clear();
+			long startNs = System.nanoTime();
+			int size = mSource.readSampleData(mStaging, 0);
+			if (size < 0) {
+				Log.e(TAG, "readSampleData failed: {}", size);
+				return count;
+			}
+			if (mReadUs != null) {
+				mReadUs.record((System.nanoTime() - startNs) / 1000);
+				mBytes.add(size);
+				mSampleCount.increment();
+			}
+			sample.ensureCapacity(size);
+			mStaging.position(0);
+			mStaging.get(sample.data, 0, size);
+			sample.size = size;
+			sample.timeUs = mNormalizer != null ? mNormalizer.normalize(
+					trackIdx, timeUs) : timeUs;
+			sample.flags = mSource.getSampleFlags();
+			++mBatched[trackIdx];
+			++count;
+			mSource.advance();
+		}
+		return count;
+	}
+
+	private void publishBatch(int count) {
+		if (count == 0) {
+			return;
+		}
+		for (int i = 0; i < mQueues.length; i++) {
+			if (mBatched[i] > 0) {
+				mQueues[i].queue(mBatched[i]);
+				mBatched[i] = 0;
+			}
+		}
+		if (mBatchSize != null) {
+			mBatchSize.record(count);
+		}
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+/**
+ * A {@link FrameDropPolicy} with a fixed window around the clock: frames
+ * earlier than the window wait, frames later than it are dropped. Input is
+ * never skipped.
+ */
+public class FixedWindowDropPolicy implements FrameDropPolicy {
+	private final long mDelayMinUs;
+	private final long mDelayMaxUs;
+
+	/**
+	 * @param delayMinUs frames less late than this wait (usually negative)
+	 * @param delayMaxUs frames later than this are dropped
+	 */
+	public FixedWindowDropPolicy(long delayMinUs, long delayMaxUs) {
+		mDelayMinUs = delayMinUs;
+		mDelayMaxUs = delayMaxUs;
+	}
+
+	@Override
+	public int onOutputFrame(long presentationTimeUs, long clockTimeUs) {
+		long delayUs = clockTimeUs - presentationTimeUs;
+		if (delayUs <= mDelayMinUs) {
+			return WAIT;
+		}
+		return delayUs > mDelayMaxUs ? DROP : RENDER;
+	}
+
+	@Override
+	public long getDueTimeUs(long presentationTimeUs) {
+		return presentationTimeUs + mDelayMinUs;
+	}
+
+	@Override
+	public void onFrameRendered(long renderCostUs) {
+	}
+
+	@Override
+	public boolean shouldSkipInput(long presentationTimeUs, long clockTimeUs,
+			int sampleFlags) {
+		return false;
+	}
+
+	@Override
+	public void reset() {
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+/**
+ * Decides when decoded output is presented, held back or dropped, and which
+ * samples are not worth decoding at all because they could only be late.
+ * Times are media times: presentation times of the stream against the
+ * current {@link MediaClock} time.
+ */
+public interface FrameDropPolicy {
+	/** the frame is early, keep it and ask again later */
+	public static final int WAIT = 0;
+	public static final int RENDER = 1;
+	public static final int DROP = 2;
+
+	/**
+	 * @return {@link #WAIT}, {@link #RENDER} or {@link #DROP} for a decoded
+	 *         frame
+	 */
+	public int onOutputFrame(long presentationTimeUs, long clockTimeUs);
+
+	/**
+	 * @return the media time at which a frame held back with {@link #WAIT}
+	 *         becomes due
+	 */
+	public long getDueTimeUs(long presentationTimeUs);
+
+	/**
+	 * Reports how long presenting a frame took.
+	 */
+	public void onFrameRendered(long renderCostUs);
+
+	/**
+	 * @param sampleFlags {@link SampleSource} sample flags
+	 * @return true to drop a sample before it reaches the decoder
+	 */
+	public boolean shouldSkipInput(long presentationTimeUs, long clockTimeUs,
+			int sampleFlags);
+
+	/**
+	 * Forgets all history, e.g. after a seek.
+	 */
+	public void reset();
+}
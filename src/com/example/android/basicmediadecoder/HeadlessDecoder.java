@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+/**
+ * Decodes a recording as fast as possible, without a surface, an audio sink
+ * or pacing, and hands every decoded video frame and PCM buffer to an
+ * {@link OutputConsumer}. Nothing waits on a clock, so a recording takes as
+ * long as its decoders need, and several recordings decoded on one worker
+ * pool with a thread per core keep every core busy, e.g.
+ *
+ * <pre>
+ * ScheduledExecutorService pool = DecodePipeline.newWorkerPool(cores);
+ * for (String path : paths) {
+ *     new HeadlessDecoder(path, new ChecksumConsumer(), pool).start();
+ * }
+ * </pre>
+ */
+public class HeadlessDecoder {
+	private static final String TAG = "HeadlessDecoder";
+
+	private static final int kSampleQueueSize = 64;
+	private static final int kDemuxBatchSamples = 16;
+	private static final long kDemuxBatchSpanUs = 40000l;
+
+	private final String mPath;
+	private final OutputConsumer mConsumer;
+	private final ScheduledExecutorService mPool;
+	private PipelineMetrics mMetrics;
+	private MediaExtractorSource mExtractor;
+	private DecodePipeline mPipeline;
+
+	public HeadlessDecoder(String path, OutputConsumer consumer,
+			ScheduledExecutorService pool) {
+		mPath = path;
+		mConsumer = consumer;
+		mPool = pool;
+	}
+
+	/**
+	 * Must be called before {@link #start()}.
+	 */
+	public void setMetrics(PipelineMetrics metrics) {
+		mMetrics = metrics;
+	}
+
+	/**
+	 * Starts decoding every audio and video track of the recording. The
+	 * first track of each kind is named "video" or "audio" for the
+	 * consumer, further ones get their track index appended, e.g.
+	 * "audio.3".
+	 *
+	 * @return false if the recording could not be opened or has no track
+	 *         that can be decoded; tracks without a decoder are skipped
+	 */
+	public boolean start() {
+		MediaExtractor mediaExtractor = new MediaExtractor();
+		try {
+			mediaExtractor.setDataSource(mPath);
+		} catch (IOException e) {
+			Log.e(TAG, "cannot open " + mPath + ": " + e);
+			mediaExtractor.release();
+			return false;
+		}
+		mExtractor = new MediaExtractorSource(mediaExtractor);
+		mPipeline = new DecodePipeline(TAG, mExtractor, mPool);
+		int videoTracks = 0;
+		int audioTracks = 0;
+		for (int i = 0; i < mExtractor.getTrackCount(); i++) {
+			MediaFormat format = mExtractor.getTrackFormat(i);
+			String mime = format.getString(MediaFormat.KEY_MIME);
+			boolean video = mime.startsWith("video/");
+			if (!video && !mime.startsWith("audio/")) {
+				continue;
+			}
+			// before the track is selected, so that a track that cannot be
+			// decoded is skipped rather than demuxed into a queue no one
+			// drains; no surface, so that frames come back in readable
+			// buffers
+			MediaCodecDecoder codec = createDecoder(format);
+			if (codec == null) {
+				continue;
+			}
+			String name;
+			int sampleSize;
+			if (video) {
+				name = videoTracks++ == 0 ? "video" : "video." + i;
+				sampleSize = 256 * 1024;
+			} else {
+				name = audioTracks++ == 0 ? "audio" : "audio." + i;
+				sampleSize = 8 * 1024;
+			}
+			if (format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)) {
+				sampleSize = format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE);
+			}
+			SampleQueue samples = mPipeline.addTrack(i, kSampleQueueSize,
+					sampleSize);
+			mPipeline.addHeadlessDecoder(new ConsumerTrackDecoder(name,
+					codec, samples, mConsumer));
+		}
+		int tracks = videoTracks + audioTracks;
+		if (tracks == 0) {
+			Log.e(TAG, "no track to decode in " + mPath);
+			mExtractor.release();
+			mExtractor = null;
+			mPipeline = null;
+			return false;
+		}
+		mPipeline.setDemuxBatching(kDemuxBatchSamples, kDemuxBatchSpanUs);
+		if (mMetrics != null) {
+			mPipeline.setMetrics(mMetrics);
+		}
+		Log.d(TAG, "decoding {}", mPath);
+		mPipeline.start();
+		return true;
+	}
+
+	/**
+	 * @return a decoder for {@code format}, or null if none could be
+	 *         created, e.g. for an unsupported format
+	 */
+	private MediaCodecDecoder createDecoder(MediaFormat format) {
+		try {
+			return new MediaCodecDecoder(format, null);
+		} catch (IllegalStateException e) {
+			Log.e(TAG, "cannot create decoder for " + format + ": " + e);
+		} catch (IllegalArgumentException e) {
+			Log.e(TAG, "cannot configure decoder for " + format + ": " + e);
+		}
+		return null;
+	}
+
+	/**
+	 * Blocks until every track was decoded or {@code timeoutMs} elapses.
+	 *
+	 * @return true once the whole recording was decoded
+	 */
+	public boolean awaitEndOfStream(long timeoutMs) throws InterruptedException {
+		return mPipeline.awaitEndOfStream(timeoutMs);
+	}
+
+	/**
+	 * Stops decoding, if it has not finished yet, and releases the decoders
+	 * and the extractor.
+	 */
+	public void release() {
+		if (mPipeline != null) {
+			mPipeline.release();
+			mPipeline = null;
+		}
+		if (mExtractor != null) {
+			mExtractor.release();
+			mExtractor = null;
+		}
+	}
+}
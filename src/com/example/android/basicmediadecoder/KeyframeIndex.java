@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Maps the presentation time of every keyframe of a stream to the byte
+ * offset of the transport packet it starts in, sorted by time. Entries can
+ * be added while the index is being used, and the index can be persisted
+ * next to the media file so the next open does not have to scan it again.
+ */
+public class KeyframeIndex {
+	private static final int kMagic = 0x4b464931; // "KFI1"
+	// magic, source size and modification time, entry count
+	private static final int kHeaderBytes = 4 + 8 + 8 + 4;
+
+	private long[] mTimeUs = new long[1024];
+	private long[] mOffset = new long[1024];
+	private int mSize;
+	private boolean mComplete;
+
+	/**
+	 * Adds a keyframe. Keyframes usually arrive in time order and are
+	 * appended, anything else is inserted in place. A second keyframe with
+	 * the same time is ignored.
+	 */
+	public synchronized void add(long timeUs, long offset) {
+		int pos = mSize;
+		if (mSize > 0 && timeUs <= mTimeUs[mSize - 1]) {
+			pos = Arrays.binarySearch(mTimeUs, 0, mSize, timeUs);
+			if (pos >= 0) {
+				return;
+			}
+			pos = -pos - 1;
+		}
+		if (mSize == mTimeUs.length) {
+			mTimeUs = Arrays.copyOf(mTimeUs, mSize * 2);
+			mOffset = Arrays.copyOf(mOffset, mSize * 2);
+		}
+		System.arraycopy(mTimeUs, pos, mTimeUs, pos + 1, mSize - pos);
+		System.arraycopy(mOffset, pos, mOffset, pos + 1, mSize - pos);
+		mTimeUs[pos] = timeUs;
+		mOffset[pos] = offset;
+		++mSize;
+	}
+
+	public synchronized int size() {
+		return mSize;
+	}
+
+	/**
+	 * @return the position of the last keyframe at or before
+	 *         {@code timeUs}, or -1 if there is none
+	 */
+	public synchronized int findBefore(long timeUs) {
+		int pos = Arrays.binarySearch(mTimeUs, 0, mSize, timeUs);
+		return pos >= 0 ? pos : -pos - 2;
+	}
+
+	public synchronized long getTimeUs(int pos) {
+		return mTimeUs[pos];
+	}
+
+	public synchronized long getOffset(int pos) {
+		return mOffset[pos];
+	}
+
+	/**
+	 * @return true once the whole stream has been indexed
+	 */
+	public synchronized boolean isComplete() {
+		return mComplete;
+	}
+
+	public synchronized void setComplete() {
+		mComplete = true;
+	}
+
+	/**
+	 * Writes a complete index to {@code file}, tagged with the size and
+	 * modification time of the media file so a stale index is not used.
+	 * Times and offsets are stored as variable length deltas, typically
+	 * around 6 bytes per keyframe.
+	 */
+	public synchronized void writeTo(File file, long sourceSize,
+			long sourceModified) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmp)));
+		try {
+			out.writeInt(kMagic);
+			out.writeLong(sourceSize);
+			out.writeLong(sourceModified);
+			out.writeInt(mSize);
+			long timeUs = 0;
+			long offset = 0;
+			for (int i = 0; i < mSize; i++) {
+				writeVarLong(out, mTimeUs[i] - timeUs);
+				writeVarLong(out, mOffset[i] - offset);
+				timeUs = mTimeUs[i];
+				offset = mOffset[i];
+			}
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+			throw new IOException("cannot rename " + tmp);
+		}
+	}
+
+	/**
+	 * Replaces the content with an index written by
+	 * {@link #writeTo(File, long, long)}.
+	 *
+	 * @return false if the file does not exist or was written for a
+	 *         different version of the media file
+	 */
+	public synchronized boolean readFrom(File file, long sourceSize,
+			long sourceModified) throws IOException {
+		if (!file.exists()) {
+			return false;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			if (in.readInt() != kMagic || in.readLong() != sourceSize
+					|| in.readLong() != sourceModified) {
+				return false;
+			}
+			int size = in.readInt();
+			// each entry takes at least one varint byte per delta
+			if (size < 0 || size > (file.length() - kHeaderBytes) / 2) {
+				throw new IOException("corrupt index: " + file);
+			}
+			long[] times = new long[Math.max(size, 1)];
+			long[] offsets = new long[Math.max(size, 1)];
+			long timeUs = 0;
+			long offset = 0;
+			for (int i = 0; i < size; i++) {
+				timeUs += readVarLong(in);
+				offset += readVarLong(in);
+				times[i] = timeUs;
+				offsets[i] = offset;
+			}
+			mTimeUs = times;
+			mOffset = offsets;
+			mSize = size;
+			mComplete = true;
+			return true;
+		} finally {
+			in.close();
+		}
+	}
+
+	// zigzag encoded, 7 bits per byte
+	private static void writeVarLong(DataOutputStream out, long value)
+			throws IOException {
+		value = (value << 1) ^ (value >> 63);
+		while ((value & ~0x7fl) != 0) {
+			out.writeByte((int) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return (value >>> 1) ^ -(value & 1);
+			}
+		}
+		throw new IOException("corrupt index");
+	}
+}
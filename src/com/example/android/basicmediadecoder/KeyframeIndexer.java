@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Builds the {@link KeyframeIndex} of a transport stream file on a
+ * background thread. A persisted index next to the file is loaded if it
+ * matches the file, otherwise the file is scanned with {@link TsDemuxer}
+ * and the index is filled as the scan goes, so that seeks can use it before
+ * the scan has finished. The complete index is then persisted.
+ * <p>
+ * Keyframes are video PES packets with the random access indicator set, or
+ * starting an IDR/IRAP/I picture for muxers that do not set it. Times are
+ * relative to the first timestamp of the file, like the sample times of
+ * {@link android.media.MediaExtractor}.
+ */
+public class KeyframeIndexer implements Runnable, TsDemuxer.Listener {
+	private static final String TAG = "KeyframeIndexer";
+	private static final String kIndexSuffix = ".kfi";
+	private static final int kPacketsPerStep = 4096;
+	// the program tables are repeated well within this
+	private static final long kTableSearchBytes = 4 * 1024 * 1024;
+	private static final long kTimestampMask = (1l << 33) - 1;
+
+	private final String mPath;
+	private final KeyframeIndex mIndex = new KeyframeIndex();
+	private Thread mThread;
+	private volatile boolean mIsRunning;
+
+	private int mVideoPid = -1;
+	private int mVideoStreamType;
+	private long mFirstTimestamp = TsDemuxer.NO_TIMESTAMP;
+	private long mLastTimeUs = -1;
+
+	public KeyframeIndexer(String path) {
+		mPath = path;
+	}
+
+	public KeyframeIndex getIndex() {
+		return mIndex;
+	}
+
+	/**
+	 * Finds where to start playing a file that is still being recorded, on
+	 * the calling thread: the last keyframe at least {@code latencyUs}
+	 * before the newest timestamp, looking at the last {@code windowBytes}
+	 * of the file only.
+	 *
+	 * @return the offset of the keyframe, or 0 if there is none
+	 */
+	public static long findLiveStart(String path, long windowBytes,
+			long latencyUs) {
+		KeyframeIndexer indexer = new KeyframeIndexer(path);
+		TsDataSource source = new TsDataSource(path);
+		TsDemuxer demuxer = new TsDemuxer(source, indexer);
+		long windowStart;
+		try {
+			// the streams are only known after the program tables, which
+			// the demuxer keeps across the seek
+			while (indexer.mVideoPid < 0
+					&& demuxer.getPosition() < kTableSearchBytes) {
+				if (demuxer.demux(kPacketsPerStep) < 0) {
+					break;
+				}
+			}
+			if (indexer.mVideoPid < 0) {
+				return 0;
+			}
+			windowStart = Math.max(0, source.getSize() - windowBytes);
+			demuxer.seekTo(windowStart);
+			while (demuxer.demux(kPacketsPerStep) >= 0) {
+			}
+		} finally {
+			try {
+				source.close();
+			} catch (IOException e) {
+			}
+		}
+		KeyframeIndex index = indexer.mIndex;
+		// skip keyframes seen while looking for the tables
+		int first = 0;
+		while (first < index.size() && index.getOffset(first) < windowStart) {
+			++first;
+		}
+		if (first == index.size()) {
+			return 0;
+		}
+		int pos = Math.max(first,
+				index.findBefore(indexer.mLastTimeUs - latencyUs));
+		Log.d(TAG, "live start {} us behind the edge",
+				indexer.mLastTimeUs - index.getTimeUs(pos));
+		return index.getOffset(pos);
+	}
+
+	public void start() {
+		mIsRunning = true;
+		mThread = new Thread(this, TAG);
+		mThread.setPriority(Thread.MIN_PRIORITY);
+		mThread.start();
+	}
+
+	public void stop() {
+		mIsRunning = false;
+		if (mThread != null) {
+			try {
+				mThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			mThread = null;
+		}
+	}
+
+	@Override
+	public void run() {
+		File media = new File(mPath);
+		File indexFile = new File(mPath + kIndexSuffix);
+		try {
+			if (mIndex.readFrom(indexFile, media.length(), media.lastModified())) {
+				Log.d(TAG, "loaded {} keyframes", mIndex.size());
+				return;
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "cannot read index: " + e);
+		}
+
+		long startNs = System.nanoTime();
+		TsDataSource source = new TsDataSource(mPath);
+		TsDemuxer demuxer = new TsDemuxer(source, this);
+		try {
+			while (mIsRunning) {
+				if (demuxer.demux(kPacketsPerStep) < 0) {
+					mIndex.setComplete();
+					break;
+				}
+			}
+		} finally {
+			try {
+				source.close();
+			} catch (IOException e) {
+			}
+		}
+		if (!mIndex.isComplete()) {
+			return;
+		}
+		Log.d(TAG, "indexed {} keyframes in {} ms", mIndex.size(),
+				(System.nanoTime() - startNs) / 1000000);
+		try {
+			mIndex.writeTo(indexFile, media.length(), media.lastModified());
+		} catch (IOException e) {
+			// e.g. a read-only location, the index is still used in memory
+			Log.w(TAG, "cannot write index: " + e);
+		}
+	}
+
+	@Override
+	public void onStreamFound(int pid, int streamType) {
+		if (mVideoPid < 0 && isVideo(streamType)) {
+			mVideoPid = pid;
+			mVideoStreamType = streamType;
+		}
+	}
+
+	@Override
+	public void onPesPacket(TsDemuxer.PesPacket packet) {
+		if (packet.pts == TsDemuxer.NO_TIMESTAMP) {
+			return;
+		}
+		if (mFirstTimestamp == TsDemuxer.NO_TIMESTAMP) {
+			mFirstTimestamp = packet.pts;
+		}
+		// masked, so one wrap of the 33 bit clock is handled
+		long timeUs = TsDemuxer
+				.timestampToUs((packet.pts - mFirstTimestamp) & kTimestampMask);
+		mLastTimeUs = Math.max(mLastTimeUs, timeUs);
+		if (packet.pid != mVideoPid) {
+			return;
+		}
+		if (packet.randomAccess
+				|| isKeyframe(mVideoStreamType, packet.data, packet.offset,
+						packet.size)) {
+			mIndex.add(timeUs, packet.position);
+		}
+	}
+
+	static boolean isVideo(int streamType) {
+		return streamType == TsDemuxer.STREAM_TYPE_MPEG1_VIDEO
+				|| streamType == TsDemuxer.STREAM_TYPE_MPEG2_VIDEO
+				|| streamType == TsDemuxer.STREAM_TYPE_H264
+				|| streamType == TsDemuxer.STREAM_TYPE_HEVC;
+	}
+
+	/**
+	 * Looks at the first picture of a PES payload, which may be cut short
+	 * after the picture header.
+	 */
+	static boolean isKeyframe(int streamType, byte[] data, int offset,
+			int size) {
+		int end = offset + size - 5;
+		for (int i = offset; i < end; i++) {
+			if (data[i] != 0 || data[i + 1] != 0 || data[i + 2] != 1) {
+				continue;
+			}
+			int code = data[i + 3] & 0xff;
+			switch (streamType) {
+			case TsDemuxer.STREAM_TYPE_H264: {
+				int type = code & 0x1f;
+				if (type >= 1 && type <= 5) {
+					return type == 5;
+				}
+				break;
+			}
+			case TsDemuxer.STREAM_TYPE_HEVC: {
+				int type = (code >> 1) & 0x3f;
+				if (type <= 21) {
+					return type >= 16;
+				}
+				break;
+			}
+			default:
+				// picture start code, then the picture coding type
+				if (code == 0x00) {
+					return ((data[i + 5] >> 3) & 0x07) == 1;
+				}
+				break;
+			}
+			i += 2;
+		}
+		return false;
+	}
+}
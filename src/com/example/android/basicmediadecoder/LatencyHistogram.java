@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values, usually latencies in microseconds, in
+ * the style of HdrHistogram: every power of two is split into the same
+ * number of linear buckets, so the relative error stays within about 6% from
+ * a few microseconds up to hours while the bucket array stays small.
+ * Recording never allocates or locks and may be done from several threads.
+ */
+public class LatencyHistogram {
+	// values below 2^kSubBucketBits get a bucket each
+	private static final int kSubBucketBits = 5;
+	private static final int kHalfSubBuckets = 1 << (kSubBucketBits - 1);
+	// values from 2^kMaxExponent on are counted in the last bucket
+	private static final int kMaxExponent = 40;
+	// the linear buckets, one half per exponent above them, and the overflow
+	private static final int kBucketCount = (kMaxExponent - kSubBucketBits + 2)
+			* kHalfSubBuckets + 1;
+
+	private final AtomicLongArray mCounts = new AtomicLongArray(kBucketCount);
+	private final AtomicLong mCount = new AtomicLong();
+	private final AtomicLong mSum = new AtomicLong();
+	private final AtomicLong mMax = new AtomicLong();
+
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		mCounts.incrementAndGet(bucketOf(value));
+		mCount.incrementAndGet();
+		mSum.addAndGet(value);
+		long max;
+		while (value > (max = mMax.get())) {
+			if (mMax.compareAndSet(max, value)) {
+				break;
+			}
+		}
+	}
+
+	public long getCount() {
+		return mCount.get();
+	}
+
+	public long getMax() {
+		return mMax.get();
+	}
+
+	public long getMean() {
+		long count = mCount.get();
+		return count == 0 ? 0 : mSum.get() / count;
+	}
+
+	/**
+	 * @param percentile 0 to 100
+	 * @return the largest value in the bucket holding that percentile, or 0
+	 *         if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = 0;
+		for (int i = 0; i < kBucketCount; i++) {
+			count += mCounts.get(i);
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < kBucketCount; i++) {
+			seen += mCounts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValueOf(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * @return a copy of the current state that further recording does not
+	 *         change
+	 */
+	public LatencyHistogram copy() {
+		LatencyHistogram copy = new LatencyHistogram();
+		for (int i = 0; i < kBucketCount; i++) {
+			copy.mCounts.set(i, mCounts.get(i));
+		}
+		copy.mCount.set(mCount.get());
+		copy.mSum.set(mSum.get());
+		copy.mMax.set(mMax.get());
+		return copy;
+	}
+
+	public void reset() {
+		for (int i = 0; i < kBucketCount; i++) {
+			mCounts.set(i, 0);
+		}
+		mCount.set(0);
+		mSum.set(0);
+		mMax.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "n=" + getCount() + " mean=" + getMean() + " p50="
+				+ getValueAtPercentile(50) + " p90=" + getValueAtPercentile(90)
+				+ " p99=" + getValueAtPercentile(99) + " max=" + getMax();
+	}
+
+	private static int bucketOf(long value) {
+		if (value < (1 << kSubBucketBits)) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent >= kMaxExponent) {
+			return kBucketCount - 1;
+		}
+		int shift = exponent - kSubBucketBits + 1;
+		return shift * kHalfSubBuckets + (int) (value >> shift);
+	}
+
+	private static long highestValueOf(int bucket) {
+		if (bucket < (1 << kSubBucketBits)) {
+			return bucket;
+		}
+		int shift = bucket / kHalfSubBuckets - 1;
+		long mantissa = bucket % kHalfSubBuckets + kHalfSubBuckets;
+		return ((mantissa + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import android.media.DataSource;
+
+/**
+ * A {@link DataSource} following a transport stream file that is still
+ * being recorded. A read past the data written so far waits for the file to
+ * grow instead of returning the end of the source, so the extractor and the
+ * pipeline behind it simply wait for new samples. Only whole packets are
+ * exposed, the recorder may be in the middle of writing one. The end of the
+ * source is only reported once the file has stopped growing for a while.
+ * <p>
+ * The source can start at an offset into the file, e.g. the keyframe found
+ * by {@link KeyframeIndexer#findLiveStart(String, long, long)}, so that
+ * playback starts close to the live edge. Offsets passed to
+ * {@link #readAt(long, byte[], int)} are relative to it. Not thread safe.
+ */
+public class LiveTsDataSource implements DataSource {
+	private static final String TAG = "LiveTsDataSource";
+
+	private RandomAccessFile mFile;
+	private final long mStartOffset;
+	private final long mPollMs;
+	private final long mIdleTimeoutMs;
+
+	// the file length at the last poll and when it last changed
+	private long mLength;
+	private long mLastGrowthMs;
+	private long mLastReadEnd;
+
+	private PipelineMetrics.Counter mBehindBytes;
+	private LatencyHistogram mWaitUs;
+
+	/**
+	 * @param startOffset where in the file the source starts, rounded down
+	 *            to a packet boundary
+	 * @param pollMs how often the file size is polled while waiting, which
+	 *            bounds the latency added behind the live edge
+	 * @param idleTimeoutMs how long the file may not grow before the
+	 *            recording is considered finished
+	 */
+	public LiveTsDataSource(String path, long startOffset, long pollMs,
+			long idleTimeoutMs) {
+		try {
+			mFile = new RandomAccessFile(path, "r");
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		}
+		mStartOffset = startOffset - startOffset % TsDemuxer.TS_PACKET_SIZE;
+		mPollMs = pollMs;
+		mIdleTimeoutMs = idleTimeoutMs;
+		mLastGrowthMs = nowMs();
+	}
+
+	/**
+	 * Keeps "live.behindBytes" at how far the last read is behind the live
+	 * edge and records "live.waitUs" for reads that waited for the file to
+	 * grow.
+	 */
+	public void setMetrics(PipelineMetrics metrics) {
+		mBehindBytes = metrics.counter("live.behindBytes");
+		mWaitUs = metrics.histogram("live.waitUs");
+	}
+
+	@Override
+	public int readAt(long offset, byte[] buffer, int size) {
+		if (mFile == null || offset < 0) {
+			return -1;
+		}
+		long position = mStartOffset + offset;
+		try {
+			long available = poll();
+			long waitStartNs = 0;
+			while (position >= available) {
+				if (nowMs() - mLastGrowthMs >= mIdleTimeoutMs) {
+					Log.d(TAG, "file stopped growing at {}", mLength);
+					return -1;
+				}
+				if (waitStartNs == 0) {
+					waitStartNs = System.nanoTime();
+				}
+				Thread.sleep(mPollMs);
+				available = poll();
+			}
+			if (waitStartNs != 0 && mWaitUs != null) {
+				mWaitUs.record((System.nanoTime() - waitStartNs) / 1000);
+			}
+			mFile.seek(position);
+			int n = mFile.read(buffer, 0,
+					(int) Math.min(Math.min(size, buffer.length), available
+							- position));
+			if (n > 0) {
+				mLastReadEnd = position + n;
+				if (mBehindBytes != null) {
+					mBehindBytes.set(available - mLastReadEnd);
+				}
+			}
+			return n;
+		} catch (InterruptedException e) {
+			// e.g. the demuxer being stopped
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return -1;
+	}
+
+	/**
+	 * @return -1, the size is not known while the file grows
+	 */
+	@Override
+	public long getSize() {
+		return -1;
+	}
+
+	/**
+	 * @return how many bytes have been written after the end of the last
+	 *         read
+	 */
+	public long getBytesBehindLiveEdge() {
+		return Math.max(0, mLength - Math.max(mLastReadEnd, mStartOffset));
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (mFile != null) {
+			mFile.close();
+			mFile = null;
+		}
+	}
+
+	/**
+	 * @return the end of the last whole packet in the file
+	 */
+	private long poll() throws IOException {
+		long length = mFile.length();
+		if (length != mLength) {
+			mLength = length;
+			mLastGrowthMs = nowMs();
+		}
+		return length - (length - mStartOffset) % TsDemuxer.TS_PACKET_SIZE;
+	}
+
+	private static long nowMs() {
+		return System.nanoTime() / 1000000;
+	}
+}
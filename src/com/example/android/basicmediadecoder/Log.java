@@ -1,46 +1,463 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
 package com.example.android.basicmediadecoder;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The logging facade of the decoder. Calls never block and never take a lock
+ * shared with other threads: each thread appends records to its own ring,
+ * which a background writer drains into the {@link Sink}. A full ring drops
+ * the record instead of waiting. The writer parks while every ring is empty
+ * and the first record after that wakes it up.
+ * <p>
+ * The formatted variants take a format with {} placeholders and primitive
+ * arguments, and only format on the writer thread, so a call in a hot loop
+ * does not allocate whether or not it is logged. Object arguments are
+ * formatted later as well and should not be mutated after the call.
+ * <p>
+ * Levels can be set per tag, and a tag can be sampled so that only every
+ * n-th record is kept.
+ */
 public class Log {
-    public static boolean mDebug = true;
-    
-    public static Object mLock;
-    
-    static {
-        mLock = new Object();
-    }
-
-    public static void v( String tag, String msg ) {
-        if ( false == mDebug ) {
-            return ;
-        }
-        synchronized ( mLock ) {
-            android.util.Log.e( tag, msg );
-        }
-    }
-    public static void d( String tag, String msg ) {
-        if ( false == mDebug ) {
-            return ;
-        }
-        synchronized ( mLock ) {
-            android.util.Log.e( tag, msg );
-        }
-    }
-    public static void i( String tag, String msg ) {
-        synchronized ( mLock ) {
-            android.util.Log.i( tag, msg );
-        }
-    }
-    public static void w( String tag, String msg ) {
-        if ( false == mDebug ) {
-            return ;
-        }
-        synchronized ( mLock ) {
-            android.util.Log.e( tag, msg );
-        }
-    }
-    public static void e( String tag, String msg ) {
-        synchronized ( mLock ) {
-            android.util.Log.e( tag, msg );
-        }
-    }
+	public static final int VERBOSE = android.util.Log.VERBOSE;
+	public static final int DEBUG = android.util.Log.DEBUG;
+	public static final int INFO = android.util.Log.INFO;
+	public static final int WARN = android.util.Log.WARN;
+	public static final int ERROR = android.util.Log.ERROR;
+
+	/**
+	 * Receives the formatted records on the writer thread.
+	 */
+	public interface Sink {
+		void write(int level, String tag, String msg);
+	}
+
+	/**
+	 * Writes to logcat.
+	 */
+	public static class LogcatSink implements Sink {
+		@Override
+		public void write(int level, String tag, String msg) {
+			android.util.Log.println(level, tag, msg);
+		}
+	}
+
+	/**
+	 * When false only {@link #INFO} and {@link #ERROR} records are kept.
+	 */
+	public static boolean mDebug = true;
+
+	private static final int kRingSize = 1024;
+	private static final long kFlushPollNs = 1000000l;
+	private static final int kNoArgs = 0;
+	private static final int kArgObject = 1;
+	private static final int kArgLong = 2;
+	private static final int kArgLongLong = 3;
+	private static final int kArgObjectLong = 4;
+
+	private static final class TagConfig {
+		final int level;
+		final int sampleEvery;
+		final AtomicInteger counter = new AtomicInteger();
+
+		TagConfig(int level, int sampleEvery) {
+			this.level = level;
+			this.sampleEvery = sampleEvery;
+		}
+	}
+
+	private static final class Record {
+		int level;
+		String tag;
+		String format;
+		int args;
+		Object obj;
+		long a;
+		long b;
+	}
+
+	/**
+	 * Single producer (the owning thread), single consumer (the writer).
+	 */
+	private static final class Ring {
+		final Thread thread;
+		final Record[] records = new Record[kRingSize];
+		// next slot to write, only advanced by the producer
+		final AtomicLong tail = new AtomicLong();
+		// next slot to read, only advanced by the writer
+		final AtomicLong head = new AtomicLong();
+
+		Ring(Thread thread) {
+			this.thread = thread;
+			for (int i = 0; i < kRingSize; i++) {
+				records[i] = new Record();
+			}
+		}
+	}
+
+	private static volatile Sink sSink = new LogcatSink();
+	private static volatile int sDefaultLevel = VERBOSE;
+	// copied on write, so lookups need no lock
+	private static volatile Map<String, TagConfig> sTags = new HashMap<String, TagConfig>();
+
+	private static final CopyOnWriteArrayList<Ring> sRings = new CopyOnWriteArrayList<Ring>();
+	private static final ThreadLocal<Ring> sRing = new ThreadLocal<Ring>() {
+		@Override
+		protected Ring initialValue() {
+			Ring ring = new Ring(Thread.currentThread());
+			sRings.add(ring);
+			startWriter();
+			return ring;
+		}
+	};
+	private static Thread sWriter;
+	// set by the writer before it parks, cleared by the producer that wakes
+	// it up
+	private static final AtomicBoolean sWriterParked = new AtomicBoolean();
+
+	private static final AtomicLong sOverflows = new AtomicLong();
+	private static final AtomicLong sSampledOut = new AtomicLong();
+
+	public static void setSink(Sink sink) {
+		sSink = sink;
+	}
+
+	/**
+	 * Sets the level of every tag without a level of its own.
+	 */
+	public static void setDefaultLevel(int level) {
+		sDefaultLevel = level;
+	}
+
+	public static void setLevel(String tag, int level) {
+		setTagConfig(tag, level, 1);
+	}
+
+	/**
+	 * Keeps only every {@code sampleEvery}-th record of {@code tag} at or
+	 * above {@code level}.
+	 */
+	public static void setSampling(String tag, int level, int sampleEvery) {
+		setTagConfig(tag, level, Math.max(1, sampleEvery));
+	}
+
+	private static synchronized void setTagConfig(String tag, int level,
+			int sampleEvery) {
+		Map<String, TagConfig> tags = new HashMap<String, TagConfig>(sTags);
+		tags.put(tag, new TagConfig(level, sampleEvery));
+		sTags = tags;
+	}
+
+	/**
+	 * @return true if a record of {@code tag} at {@code level} would be
+	 *         kept, ignoring sampling
+	 */
+	public static boolean isLoggable(String tag, int level) {
+		if (!mDebug && level != INFO && level != ERROR) {
+			return false;
+		}
+		TagConfig config = sTags.get(tag);
+		return level >= (config != null ? config.level : sDefaultLevel);
+	}
+
+	/**
+	 * @return how many records were dropped because a ring was full
+	 */
+	public static long getOverflowCount() {
+		return sOverflows.get();
+	}
+
+	/**
+	 * @return how many records were dropped by sampling
+	 */
+	public static long getSampledOutCount() {
+		return sSampledOut.get();
+	}
+
+	/**
+	 * Waits up to {@code timeoutMs} until every record logged so far was
+	 * written.
+	 */
+	public static void flush(long timeoutMs) {
+		long deadline = System.nanoTime() + timeoutMs * 1000000;
+		while (System.nanoTime() < deadline) {
+			boolean empty = true;
+			for (Ring ring : sRings) {
+				if (ring.head.get() != ring.tail.get()) {
+					empty = false;
+					break;
+				}
+			}
+			if (empty) {
+				return;
+			}
+			LockSupport.unpark(sWriter);
+			LockSupport.parkNanos(kFlushPollNs);
+		}
+	}
+
+	public static void v(String tag, String msg) {
+		log(VERBOSE, tag, msg, kNoArgs, null, 0, 0);
+	}
+
+	public static void v(String tag, String format, Object obj) {
+		log(VERBOSE, tag, format, kArgObject, obj, 0, 0);
+	}
+
+	public static void v(String tag, String format, long a) {
+		log(VERBOSE, tag, format, kArgLong, null, a, 0);
+	}
+
+	public static void v(String tag, String format, long a, long b) {
+		log(VERBOSE, tag, format, kArgLongLong, null, a, b);
+	}
+
+	public static void v(String tag, String format, Object obj, long a) {
+		log(VERBOSE, tag, format, kArgObjectLong, obj, a, 0);
+	}
+
+	public static void d(String tag, String msg) {
+		log(DEBUG, tag, msg, kNoArgs, null, 0, 0);
+	}
+
+	public static void d(String tag, String format, Object obj) {
+		log(DEBUG, tag, format, kArgObject, obj, 0, 0);
+	}
+
+	public static void d(String tag, String format, long a) {
+		log(DEBUG, tag, format, kArgLong, null, a, 0);
+	}
+
+	public static void d(String tag, String format, long a, long b) {
+		log(DEBUG, tag, format, kArgLongLong, null, a, b);
+	}
+
+	public static void d(String tag, String format, Object obj, long a) {
+		log(DEBUG, tag, format, kArgObjectLong, obj, a, 0);
+	}
+
+	public static void i(String tag, String msg) {
+		log(INFO, tag, msg, kNoArgs, null, 0, 0);
+	}
+
+	public static void i(String tag, String format, Object obj) {
+		log(INFO, tag, format, kArgObject, obj, 0, 0);
+	}
+
+	public static void i(String tag, String format, long a) {
+		log(INFO, tag, format, kArgLong, null, a, 0);
+	}
+
+	public static void i(String tag, String format, long a, long b) {
+		log(INFO, tag, format, kArgLongLong, null, a, b);
+	}
+
+	public static void i(String tag, String format, Object obj, long a) {
+		log(INFO, tag, format, kArgObjectLong, obj, a, 0);
+	}
+
+	public static void w(String tag, String msg) {
+		log(WARN, tag, msg, kNoArgs, null, 0, 0);
+	}
+
+	public static void w(String tag, String format, Object obj) {
+		log(WARN, tag, format, kArgObject, obj, 0, 0);
+	}
+
+	public static void w(String tag, String format, long a) {
+		log(WARN, tag, format, kArgLong, null, a, 0);
+	}
+
+	public static void w(String tag, String format, long a, long b) {
+		log(WARN, tag, format, kArgLongLong, null, a, b);
+	}
+
+	public static void w(String tag, String format, Object obj, long a) {
+		log(WARN, tag, format, kArgObjectLong, obj, a, 0);
+	}
+
+	public static void e(String tag, String msg) {
+		log(ERROR, tag, msg, kNoArgs, null, 0, 0);
+	}
+
+	public static void e(String tag, String format, Object obj) {
+		log(ERROR, tag, format, kArgObject, obj, 0, 0);
+	}
+
+	public static void e(String tag, String format, long a) {
+		log(ERROR, tag, format, kArgLong, null, a, 0);
+	}
+
+	public static void e(String tag, String format, long a, long b) {
+		log(ERROR, tag, format, kArgLongLong, null, a, b);
+	}
+
+	public static void e(String tag, String format, Object obj, long a) {
+		log(ERROR, tag, format, kArgObjectLong, obj, a, 0);
+	}
+
+	private static void log(int level, String tag, String format, int args,
+			Object obj, long a, long b) {
+		if (!mDebug && level != INFO && level != ERROR) {
+			return;
+		}
+		TagConfig config = sTags.get(tag);
+		if (level < (config != null ? config.level : sDefaultLevel)) {
+			return;
+		}
+		if (config != null && config.sampleEvery > 1
+				&& config.counter.getAndIncrement() % config.sampleEvery != 0) {
+			sSampledOut.incrementAndGet();
+			return;
+		}
+		Ring ring = sRing.get();
+		long tail = ring.tail.get();
+		if (tail - ring.head.get() == kRingSize) {
+			sOverflows.incrementAndGet();
+			return;
+		}
+		Record record = ring.records[(int) (tail % kRingSize)];
+		record.level = level;
+		record.tag = tag;
+		record.format = format;
+		record.args = args;
+		record.obj = obj;
+		record.a = a;
+		record.b = b;
+		// publishes the record to the writer, and orders it before reading
+		// whether the writer parked: either the writer sees the record when
+		// it looks again before parking, or this sees the writer parked
+		ring.tail.set(tail + 1);
+		if (sWriterParked.get() && sWriterParked.compareAndSet(true, false)) {
+			LockSupport.unpark(sWriter);
+		}
+	}
+
+	private static synchronized void startWriter() {
+		if (sWriter != null) {
+			return;
+		}
+		sWriter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				StringBuilder builder = new StringBuilder();
+				while (true) {
+					if (drain(builder)) {
+						continue;
+					}
+					sWriterParked.set(true);
+					// records published before the flag was set
+					if (!drain(builder)) {
+						LockSupport.park();
+					}
+					sWriterParked.set(false);
+				}
+			}
+		}, "Log");
+		sWriter.setDaemon(true);
+		sWriter.start();
+	}
+
+	/**
+	 * @return true if any record was written
+	 */
+	private static boolean drain(StringBuilder builder) {
+		boolean written = false;
+		for (Ring ring : sRings) {
+			long head = ring.head.get();
+			long tail = ring.tail.get();
+			if (head == tail) {
+				if (!ring.thread.isAlive()) {
+					sRings.remove(ring);
+				}
+				continue;
+			}
+			for (; head != tail; head++) {
+				Record record = ring.records[(int) (head % kRingSize)];
+				builder.setLength(0);
+				builder.append('[').append(ring.thread.getName()).append("] ");
+				format(builder, record);
+				int level = record.level;
+				String tag = record.tag;
+				record.obj = null;
+				ring.head.lazySet(head + 1);
+				try {
+					sSink.write(level, tag, builder.toString());
+				} catch (RuntimeException e) {
+					// a broken sink must not stop the writer
+				}
+			}
+			written = true;
+		}
+		return written;
+	}
+
+	private static void format(StringBuilder builder, Record record) {
+		String format = record.format;
+		if (record.args == kNoArgs) {
+			builder.append(format);
+			return;
+		}
+		int arg = 0;
+		int start = 0;
+		int next;
+		while ((next = format.indexOf("{}", start)) >= 0) {
+			builder.append(format, start, next);
+			appendArg(builder, record, arg++);
+			start = next + 2;
+		}
+		builder.append(format, start, format.length());
+	}
+
+	private static void appendArg(StringBuilder builder, Record record, int arg) {
+		switch (record.args) {
+		case kArgObject:
+			builder.append(arg == 0 ? String.valueOf(record.obj) : "{}");
+			break;
+		case kArgLong:
+			if (arg == 0) {
+				builder.append(record.a);
+			} else {
+				builder.append("{}");
+			}
+			break;
+		case kArgLongLong:
+			if (arg < 2) {
+				builder.append(arg == 0 ? record.a : record.b);
+			} else {
+				builder.append("{}");
+			}
+			break;
+		case kArgObjectLong:
+			if (arg == 0) {
+				builder.append(record.obj);
+			} else if (arg == 1) {
+				builder.append(record.a);
+			} else {
+				builder.append("{}");
+			}
+			break;
+		}
+	}
 }
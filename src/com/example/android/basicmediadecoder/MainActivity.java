@@ -16,24 +16,15 @@
 
 package com.example.android.basicmediadecoder;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.nio.ByteBuffer;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.concurrent.BrokenBarrierException;
-import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ScheduledExecutorService;
 
 import android.app.Activity;
-import android.media.AudioFormat;
-import android.media.AudioManager;
-import android.media.AudioTrack;
+import android.content.ComponentCallbacks2;
+import android.graphics.SurfaceTexture;
 import android.media.DataSource;
-import android.media.MediaCodec;
-import android.media.MediaCodec.BufferInfo;
 import android.media.MediaExtractor;
 import android.media.MediaFormat;
 import android.os.Bundle;
@@ -41,8 +32,6 @@ import android.os.Environment;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
-import android.os.Message;
-import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
@@ -99,6 +88,26 @@ public class MainActivity extends Activity {
 	protected void onPause() {
 		super.onPause();
 		mIsRunning = false;
+		mStopSignal.signal();
+		// codecs are shared by the whole system, once playback has ended
+		// none are kept idle in the background
+		mUIHandler.post(mTrimDecodersRunnable);
+	}
+
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+			sDecoderPool.trim(0);
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+			sDecoderPool.trim(kIdleDecoders / 2);
+		}
+	}
+
+	@Override
+	public void onLowMemory() {
+		super.onLowMemory();
+		sDecoderPool.trim(0);
 	}
 
 	@Override
@@ -112,466 +121,268 @@ public class MainActivity extends Activity {
 		return true;
 	}
 
-	private static class TsDataSource implements DataSource {
-		private RandomAccessFile mFile;
-
-		public TsDataSource(String path) {
-			mFile = null;
-			try {
-				mFile = new RandomAccessFile(path, "r");
-			} catch (FileNotFoundException e) {
-				e.printStackTrace();
-			}
-		}
-		
-		@Override
-		public int readAt(long offset, byte[] buffer, int size) {
-			if (mFile != null) {
-				try {
-					mFile.seek( offset );
-					return mFile.read( buffer );
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-			return 0;
-		}
-		
-		@Override
-		public long getSize() {
-			return -1;
-		}
-
-		@Override
-		public void close() throws IOException {
-		}
-	}
-
 	// TODO:
 	// video & audio controller
 	private static final String kMediaPath = Environment
 			.getExternalStorageDirectory().getPath() + "/demo.ts";
+	// the stream switchTo() asked for, taken by the decode loop
+	private volatile String mSwitchPath;
 	private static boolean kUseStreamingDataSource = false;
+	// for recordings on network mounts, read ahead on a thread of its own
+	private static boolean kUsePrefetchingDataSource = false;
+	// play a recording that is still being written and follow its end
+	private static boolean kLivePlayback = false;
+	private static final long kLiveLatencyUs = 1000000l;
+	private static final long kLivePollMs = 10l;
+	private static final long kLiveIdleTimeoutMs = 5000l;
+	private static final long kLiveScanBytes = 16 * 1024 * 1024;
 	private static boolean kUsePipeDecoding = false;
+	// decode the file as fast as possible and log checksums instead of
+	// playing it
+	private static boolean kHeadlessVerify = false;
+	private static final long kHeadlessTimeoutMs = 60 * 60 * 1000l;
 	private static boolean kForceShow = false;
 	private static long kVideoDelayMin = -10000l;
 	private static long kVideoDelayMax = 30000l;
 	private static long kAudioDelayMin = -10000l;
 	private static long kAudioDelayMax = 30000l;
-	private TsDataSource mVideoDataSource;
-	private TsDataSource mAudioDataSource;
-	private MediaExtractor extractorVideo;
-	private MediaExtractor extractorAudio;
-	private MediaCodec decoderVideo;
-	private MediaCodec decoderAudio;
+	private static final int kVideoSampleQueueSize = 32;
+	private static final int kAudioSampleQueueSize = 64;
+	// small AAC frames are fed to the decoders in runs
+	private static final int kDemuxBatchSamples = 16;
+	private static final long kDemuxBatchSpanUs = 40000l;
+	// broadcast captures have PCR discontinuities and PTS wraps
+	private static boolean kNormalizeTimestamps = true;
+	private DataSource mDataSource;
+	private MediaExtractorSource extractor;
+	private volatile DecodePipeline mPipeline;
 	private Surface surface;
-	private AudioTrack audioTracker;
-	private int sampleRate;
-	private int channelCount;
+	// pooled video decoders stay bound to the surface they were
+	// configured with, so it is kept while the texture is
+	private SurfaceTexture mSurfaceTexture;
 	private int videoTrackerIdx = -1;
 	private int audioTrackerIdx = -1;
 
-	private ByteBuffer[] videoInputBuffers;
-	private ByteBuffer[] videoOutputBuffers;
-	private ByteBuffer[] audioInputBuffers;
-	private ByteBuffer[] audioOutputBuffers;
-
-	private boolean isEOS = false;
-	private long startedUs = 0;
-	private long audioTimestampUs;
-	private long videoTimestampUs;
-
-	private Queue<Integer> vecVideoInIndex = new LinkedList<Integer>();
-	private Queue<Integer> vecVideoOutIndex = new LinkedList<Integer>();
-	private Queue<BufferInfo> vecVideoInfo = new LinkedList<BufferInfo>();
-
-	private Queue<Integer> vecAudioInIndex = new LinkedList<Integer>();
-	private Queue<Integer> vecAudioOutIndex = new LinkedList<Integer>();
-	private Queue<BufferInfo> vecAudioInfo = new LinkedList<BufferInfo>();
-
-	private int videoDequeuCounter = 0;
-	private int audioDequeuCounter = 0;
+	private static final long kStopPollUs = 100000l;
+	private final DecodeScheduler mStopSignal = new DecodeScheduler();
+	// shared by every pipeline of the process
+	private static final ScheduledExecutorService sDecodePool = DecodePipeline
+			.newWorkerPool(Runtime.getRuntime().availableProcessors());
+	// in pipe mode every track of the stream has a thread of its own
+	private ScheduledExecutorService mPipePool;
+	private static final long kMetricsDumpMs = 5000l;
+	private final PipelineMetrics mMetrics = new PipelineMetrics();
+	private KeyframeIndexer mIndexer;
+	// a video and an audio decoder for each of two formats, so switching
+	// between two channels never creates one
+	private static final int kIdleDecoders = 4;
+	private static final DecoderPool sDecoderPool = new DecoderPool(
+			kIdleDecoders);
+	private final Runnable mTrimDecodersRunnable = new Runnable() {
+		@Override
+		public void run() {
+			sDecoderPool.trim(0);
+			// nothing renders to it any more
+			if (surface != null) {
+				surface.release();
+				surface = null;
+			}
+		}
+	};
 
-	private boolean initAudioDecoder() {
-		Log.d(TAG, "initAudioDecoder");
-		extractorAudio = new MediaExtractor();
-		if (kUseStreamingDataSource) {
-			mAudioDataSource = new TsDataSource(kMediaPath);
-			if ( !setDataSource(extractorAudio, mAudioDataSource) ) {
+	private boolean initExtractor(String path) {
+		Log.d(TAG, "initExtractor");
+		MediaExtractor mediaExtractor = new MediaExtractor();
+		if (kLivePlayback) {
+			long startOffset = KeyframeIndexer.findLiveStart(path,
+					kLiveScanBytes, kLiveLatencyUs);
+			LiveTsDataSource live = new LiveTsDataSource(path,
+					startOffset, kLivePollMs, kLiveIdleTimeoutMs);
+			live.setMetrics(mMetrics);
+			mDataSource = live;
+			if ( !setDataSource(mediaExtractor, mDataSource) ) {
 				Log.e( TAG, "setDataSource failed" );
+				mediaExtractor.release();
+				return false;
+			}
+		} else if (kUseStreamingDataSource) {
+			mDataSource = openDataSource(path);
+			if ( !setDataSource(mediaExtractor, mDataSource) ) {
+				Log.e( TAG, "setDataSource failed" );
+				mediaExtractor.release();
 				return false;
 			}
 		} else {
 			try {
-				extractorAudio.setDataSource(kMediaPath);
+				mediaExtractor.setDataSource(path);
 			} catch (IOException e1) {
 				e1.printStackTrace();
+				mediaExtractor.release();
 				return false;
 			}
 		}
+		extractor = new MediaExtractorSource(mediaExtractor);
 
-		int channelConfig = AudioFormat.CHANNEL_OUT_STEREO;
-		for (int i = 0; i < extractorAudio.getTrackCount(); i++) {
-			MediaFormat format = extractorAudio.getTrackFormat(i);
-			String mime = format.getString(MediaFormat.KEY_MIME);
-			extractorAudio.unselectTrack(i);
-			if (mime.startsWith("audio/")) {
-				decoderAudio = MediaCodec.createDecoderByType(mime);
-				decoderAudio.configure(format, null, null, 0);
-				audioTrackerIdx = i;
-				extractorAudio.selectTrack(i);
-
-				// TODO:
-				// init audio
-				submittedBytes = 0;
-				temporaryBufferSize = 0;
-				lastRawPlaybackHeadPosition = 0;
-				rawPlaybackHeadWrapCount = 0;
-				sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
-				channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
-				frameSize = 2 * channelCount;
-				switch (channelCount) {
-				case 1:
-					channelConfig = AudioFormat.CHANNEL_OUT_MONO;
-					break;
-				case 2:
-					channelConfig = AudioFormat.CHANNEL_OUT_STEREO;
-					break;
-				case 6:
-					channelConfig = AudioFormat.CHANNEL_OUT_5POINT1;
-					break;
-				}
-				bufferSize = AudioTrack.getMinBufferSize(sampleRate,
-						channelConfig, AudioFormat.ENCODING_PCM_16BIT);
-				Log.v(TAG, "sampleRate: " + sampleRate);
-				Log.v(TAG, "bufferSize: " + bufferSize);
-				break;
-			}
+		if (kUsePipeDecoding) {
+			mPipePool = DecodePipeline.newWorkerPool(2);
+		}
+		mPipeline = new DecodePipeline(TAG, extractor,
+				kUsePipeDecoding ? mPipePool : sDecodePool);
+		if (!kLivePlayback) {
+			// a growing file changes under the index
+			mIndexer = new KeyframeIndexer(path);
+			mIndexer.start();
+			mPipeline.setKeyframeIndex(mIndexer.getIndex(),
+					mDataSource instanceof CachedDataSource ? (CachedDataSource) mDataSource
+							: null);
 		}
-		audioTracker = new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate,
-				channelConfig, AudioFormat.ENCODING_PCM_16BIT, bufferSize,
-				AudioTrack.MODE_STREAM);
-		audioTracker.play();
-
-		Log.v(TAG, "proc: decoder start");
-		decoderAudio.start();
-		audioInputBuffers = decoderAudio.getInputBuffers();
-		audioOutputBuffers = decoderAudio.getOutputBuffers();
 		return true;
 	}
 
-	private void releaseAudioDecoder() {
-		Log.d(TAG, "releaseAudioDecoder");
-		decoderAudio.stop();
-		decoderAudio.release();
-		audioTracker.stop();
-		audioTracker.release();
-		extractorAudio.release();
-	}
-
-	private void doAudioSomeWork(long timeUs) {
-		while (!vecAudioOutIndex.isEmpty()) {
-			int audioOutIdx = vecAudioOutIndex.peek();
-			BufferInfo info = vecAudioInfo.peek();
-			if (kForceShow) {
-				audioTimestampUs = info.presentationTimeUs;
-				writeAudioTrack(audioTracker, audioOutputBuffers[audioOutIdx],
-						info.offset, info.size);
-				decoderAudio.releaseOutputBuffer(audioOutIdx, false);
-			} else {
-				long delayUs = (timeUs - info.presentationTimeUs);
-				Log.v(TAG, "releaseOutputBuffer audio ready: " + delayUs);
-				if (delayUs > kAudioDelayMin) {
-					if (delayUs > kAudioDelayMax) {
-						Log.v(TAG, "drop audio");
-						audioOutIdx = vecAudioOutIndex.poll();
-						info = vecAudioInfo.poll();
-						decoderAudio.releaseOutputBuffer(audioOutIdx, false);
-					} else {
-						Log.v(TAG, "play audio: " + info.presentationTimeUs);
-						audioTimestampUs = info.presentationTimeUs;
-						if (writeAudioTrack(audioTracker,
-								audioOutputBuffers[audioOutIdx], info.offset,
-								info.size)) {
-							audioOutIdx = vecAudioOutIndex.poll();
-							info = vecAudioInfo.poll();
-							decoderAudio
-									.releaseOutputBuffer(audioOutIdx, false);
-						}
-					}
-				} else {
-					Log.v(TAG, "too early audio");
-					break;
-				}
-			}
+	private void releaseExtractor() {
+		Log.d(TAG, "releaseExtractor");
+		if (mIndexer != null) {
+			mIndexer.stop();
+			mIndexer = null;
 		}
+		if (extractor != null) {
+			extractor.release();
+			extractor = null;
+		}
+		closeDataSource(mDataSource);
+		mDataSource = null;
 	}
 
-	private void doAudioSomeWork() {
-		audioDequeuCounter = 0;
-		do {
-			int audioInIdx = decoderAudio.dequeueInputBuffer(0);
-			if (audioInIdx < 0) {
-				break;
-			}
-			vecAudioInIndex.offer(audioInIdx);
-			++audioDequeuCounter;
-		} while (true);
-
-		Log.v(TAG, "dequeue input: " + audioDequeuCounter);
-		Log.v(TAG, "vecAudioInIndex size: " + vecAudioInIndex.size());
-
-		audioDequeuCounter = 0;
-		do {
-			BufferInfo info = new BufferInfo();
-			int audioOutIdx = decoderAudio.dequeueOutputBuffer(info, 0);
-			if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-				Log.e(TAG, "BUFFER_FLAG_END_OF_STREAM");
-			}
-			if (audioOutIdx < 0) {
-				if (MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED == audioOutIdx) {
-					audioOutputBuffers = decoderAudio.getOutputBuffers();
-					vecAudioOutIndex.clear();
-					vecAudioInfo.clear();
-				} else if (MediaCodec.INFO_OUTPUT_FORMAT_CHANGED == audioOutIdx) {
-					Log.e(TAG, "INFO_OUTPUT_FORMAT_CHANGED");
+	private boolean initAudioDecoder() {
+		Log.d(TAG, "initAudioDecoder");
+		AudioTrackDecoder decoder = null;
+		for (int i = 0; i < extractor.getTrackCount(); i++) {
+			MediaFormat format = extractor.getTrackFormat(i);
+			String mime = format.getString(MediaFormat.KEY_MIME);
+			if (mime.startsWith("audio/")) {
+				final MediaFormat audioFormat = format;
+				audioTrackerIdx = i;
+				SampleQueue samples = mPipeline.addTrack(i,
+						kAudioSampleQueueSize, getMaxInputSize(format, 8 * 1024));
+				int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+				int channelCount = format
+						.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+				AudioSink sink = new AudioTrackSink(sampleRate, channelCount);
+				Log.v(TAG, "sampleRate: " + sampleRate);
+				Log.v(TAG, "bufferSize: " + sink.getBufferSize());
+				Decoder codec = acquireDecoder(
+						MediaCodecDecoder.getPoolKey(format, null),
+						new DecoderPool.Factory() {
+							@Override
+							public Decoder create() {
+								return new MediaCodecDecoder(audioFormat, null);
+							}
+						});
+				if (codec == null) {
+					sink.release();
+					return false;
 				}
+				decoder = new AudioTrackDecoder(codec, samples, sink,
+						sampleRate, channelCount, new FixedWindowDropPolicy(
+								kAudioDelayMin, kAudioDelayMax));
+				decoder.setForceShow(kForceShow);
 				break;
 			}
-			++audioDequeuCounter;
-			vecAudioOutIndex.offer(audioOutIdx);
-			vecAudioInfo.offer(info);
-		} while (true);
-
-		Log.v(TAG, "dequeue output: " + audioDequeuCounter);
-		Log.v(TAG, "vecAudioOutIndex size: " + vecAudioOutIndex.size());
-
-		do {
-			int trackIdx = extractorAudio.getSampleTrackIndex();
-			Log.v(TAG, "audio getSampleTrackIndex: " + trackIdx);
-			if (trackIdx < 0) {
-				isEOS = true;
-				break;
-			}
-			long presentationTimeUs = extractorAudio.getSampleTime();
-			if (audioTrackerIdx == trackIdx) {
-				if (vecAudioInIndex.isEmpty()) {
-					break;
-				}
-				int audioInIdx = vecAudioInIndex.poll();
-				Log.v(TAG, "readSampleData audio ++");
-				int size = extractorAudio.readSampleData(
-						audioInputBuffers[audioInIdx], 0);
-				Log.v(TAG, "readSampleData audio --");
-				extractorAudio.advance();
-				decoderAudio.queueInputBuffer(audioInIdx, 0, size,
-						presentationTimeUs, 0);
-			}
-		} while (true);
+		}
+		if (decoder == null) {
+			Log.e(TAG, "no audio track");
+			return false;
+		}
+		mPipeline.setAudioDecoder(decoder);
+		return true;
 	}
 
 	private boolean initVideoDecoder() {
 		Log.d(TAG, "initVideoDecoder");
-		extractorVideo = new MediaExtractor();
-
-		if (kUseStreamingDataSource) {
-			mVideoDataSource = new TsDataSource(kMediaPath);
-			if ( !setDataSource(extractorVideo, mVideoDataSource) ) {
-				Log.e( TAG, "setDataSource failed" );
-				return false;
-			}
-		} else {
-			try {
-				extractorVideo.setDataSource(kMediaPath);
-			} catch (IOException e1) {
-				e1.printStackTrace();
-				return false;
+		SurfaceTexture texture = mPlaybackView.getSurfaceTexture();
+		if (surface == null || texture != mSurfaceTexture) {
+			if (surface != null) {
+				// decoders bound to the old surface can never be reused,
+				// and must not outlive it
+				sDecoderPool.evict(MediaCodecDecoder.getSurfaceKey(surface));
+				surface.release();
 			}
+			mSurfaceTexture = texture;
+			surface = new Surface(texture);
 		}
-
-		surface = new Surface(mPlaybackView.getSurfaceTexture());
-		for (int i = 0; i < extractorVideo.getTrackCount(); i++) {
-			MediaFormat format = extractorVideo.getTrackFormat(i);
+		VideoTrackDecoder decoder = null;
+		for (int i = 0; i < extractor.getTrackCount(); i++) {
+			MediaFormat format = extractor.getTrackFormat(i);
 			String mime = format.getString(MediaFormat.KEY_MIME);
-			extractorVideo.unselectTrack(i);
 			if (mime.startsWith("video/")) {
-				decoderVideo = MediaCodec.createDecoderByType(mime);
-				decoderVideo.configure(format, surface, null, 0);
+				final MediaFormat videoFormat = format;
 				videoTrackerIdx = i;
-				extractorVideo.selectTrack(i);
+				SampleQueue samples = mPipeline.addTrack(i,
+						kVideoSampleQueueSize,
+						getMaxInputSize(format, 256 * 1024));
+				Decoder codec = acquireDecoder(
+						MediaCodecDecoder.getPoolKey(format, surface),
+						new DecoderPool.Factory() {
+							@Override
+							public Decoder create() {
+								return new MediaCodecDecoder(videoFormat,
+										surface);
+							}
+						});
+				if (codec == null) {
+					return false;
+				}
+				decoder = new VideoTrackDecoder(codec, samples,
+						new AdaptiveFrameDropPolicy(kVideoDelayMin,
+								kVideoDelayMax));
+				decoder.setForceShow(kForceShow);
 				break;
 			}
 		}
-
-		Log.v(TAG, "proc: decoder start");
-		decoderVideo.start();
-		videoInputBuffers = decoderVideo.getInputBuffers();
-		videoOutputBuffers = decoderVideo.getOutputBuffers();
+		if (decoder == null) {
+			Log.e(TAG, "no video track");
+			return false;
+		}
+		mPipeline.setVideoDecoder(decoder);
 		return true;
 	}
 
-	private void releaseVideoDecoder() {
-		Log.d(TAG, "releaseVideoDecoder");
-		decoderVideo.stop();
-		decoderVideo.release();
-		extractorVideo.release();
-	}
-
-	private void doVideoSomeWork() {
-		videoDequeuCounter = 0;
-		do {
-			int videoInIdx = decoderVideo.dequeueInputBuffer(0);
-			if (videoInIdx < 0) {
-				break;
-			}
-			vecVideoInIndex.offer(videoInIdx);
-			++videoDequeuCounter;
-		} while (true);
-
-		Log.v(TAG, "dequeue input: " + videoDequeuCounter);
-		Log.v(TAG, "vecVideoInIndex size: " + vecVideoInIndex.size());
-		videoDequeuCounter = 0;
-
-		do {
-			BufferInfo info = new BufferInfo();
-			int videoOutIdx = decoderVideo.dequeueOutputBuffer(info, 0);
-			if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-				Log.e(TAG, "BUFFER_FLAG_END_OF_STREAM");
-			}
-			if (videoOutIdx < 0) {
-				if (MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED == videoOutIdx) {
-					videoOutputBuffers = decoderVideo.getOutputBuffers();
-					vecVideoOutIndex.clear();
-					vecVideoInfo.clear();
-				} else if (MediaCodec.INFO_OUTPUT_FORMAT_CHANGED == videoOutIdx) {
-					Log.e(TAG, "INFO_OUTPUT_FORMAT_CHANGED");
-				}
-				break;
-			}
-			++videoDequeuCounter;
-			vecVideoOutIndex.offer(videoOutIdx);
-			vecVideoInfo.offer(info);
-		} while (true);
-
-		Log.v(TAG, "dequeue output: " + videoDequeuCounter);
-		Log.v(TAG, "vecVideoOutIndex size: " + vecVideoOutIndex.size());
-
-		do {
-			int trackIdx = extractorVideo.getSampleTrackIndex();
-			Log.v(TAG, "video getSampleTrackIndex: " + trackIdx);
-			if (trackIdx < 0) {
-				isEOS = true;
-				break;
-			}
-			long presentationTimeUs = extractorVideo.getSampleTime();
-			if (videoTrackerIdx == trackIdx) {
-				if (vecVideoInIndex.isEmpty()) {
-					break;
-				}
-				int videoInIdx = vecVideoInIndex.poll();
-				Log.v(TAG, "readSampleData video ++");
-				int size = extractorVideo.readSampleData(
-						videoInputBuffers[videoInIdx], 0);
-				Log.v(TAG, "readSampleData video --");
-				extractorVideo.advance();
-				decoderVideo.queueInputBuffer(videoInIdx, 0, size,
-						presentationTimeUs, 0);
-			}
-		} while (true);
-	}
-
-	private void doVideoSomeWork(long timeUs) {
-		while (!vecVideoOutIndex.isEmpty()) {
-			int videoOutIdx = vecVideoOutIndex.peek();
-			BufferInfo info = vecVideoInfo.peek();
-			if (kForceShow) {
-				videoTimestampUs = info.presentationTimeUs;
-				decoderVideo.releaseOutputBuffer(videoOutIdx, true);
-			} else {
-				long delayUs = (timeUs - info.presentationTimeUs);
-				Log.v(TAG, "releaseOutputBuffer video ready: " + delayUs);
-				if (delayUs > kVideoDelayMin) {
-					videoOutIdx = vecVideoOutIndex.poll();
-					info = vecVideoInfo.poll();
-					if (delayUs > kVideoDelayMax) {
-						Log.v(TAG, "drop video");
-						decoderVideo.releaseOutputBuffer(videoOutIdx, false);
-					} else {
-						Log.v(TAG, "play video: " + info.presentationTimeUs);
-						videoTimestampUs = info.presentationTimeUs;
-						decoderVideo.releaseOutputBuffer(videoOutIdx, true);
-					}
-				} else {
-					Log.v(TAG, "too early video");
-					break;
-				}
-			}
+	/**
+	 * @return a decoder from the pool, or null if none could be created for
+	 *         {@code key}, e.g. for an unsupported format
+	 */
+	private static Decoder acquireDecoder(String key, DecoderPool.Factory factory) {
+		try {
+			return sDecoderPool.acquire(key, factory);
+		} catch (IllegalStateException e) {
+			Log.e(TAG, "cannot create decoder " + key + ": " + e);
+		} catch (IllegalArgumentException e) {
+			Log.e(TAG, "cannot configure decoder " + key + ": " + e);
 		}
+		return null;
 	}
 
-	private void doRender() {
-		Log.d(TAG, "doRender");
-		long nowUs = System.nanoTime() / 1000;
-		if (0 == startedUs) {
-			startedUs = nowUs + 1000000l;
+	/**
+	 * Continues playback from the last keyframe at or before {@code timeUs}.
+	 * May be called from any thread.
+	 */
+	public void seekTo(long timeUs) {
+		DecodePipeline pipeline = mPipeline;
+		if (pipeline != null) {
+			pipeline.seekTo(timeUs);
 		}
-		long currentTimestampUs = nowUs - startedUs;
-		Log.v(TAG, "play both ===========> " + (nowUs - startedUs));
-		doAudioSomeWork(currentTimestampUs);
-		doVideoSomeWork(currentTimestampUs);
 	}
 
-	private static Looper getBackgroundLooper(String name) {
-		HandlerThread thread = new HandlerThread(name);
-		thread.start();
-		return thread.getLooper();
+	/**
+	 * Switches playback to the stream at {@code path}, e.g. another channel.
+	 * The decoders of the current stream are flushed and reused for it if
+	 * it has the same formats. May be called from any thread.
+	 */
+	public void switchTo(String path) {
+		mSwitchPath = path;
+		mStopSignal.signal();
 	}
 
-	private class AudioHandler extends Handler {
-		public AudioHandler() {
-			super(getBackgroundLooper("audio"));
-		}
-
-		@Override
-		public void handleMessage(Message msg) {
-			doAudioSomeWork();
-			try {
-				mBarrier.await();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			} catch (BrokenBarrierException e) {
-				e.printStackTrace();
-			}
-		}
-	};
-
-	private class VideoHandler extends Handler {
-		public VideoHandler() {
-			super(getBackgroundLooper("video"));
-		}
-
-		@Override
-		public void handleMessage(Message msg) {
-			doVideoSomeWork();
-			try {
-				mBarrier.await();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			} catch (BrokenBarrierException e) {
-				e.printStackTrace();
-			}
-		}
-	};
-
-	private CyclicBarrier mBarrier = new CyclicBarrier(2, new Runnable() {
-		@Override
-		public void run() {
-			doRender();
-		}
-	});
-	private AudioHandler mAudioHandler = new AudioHandler();
-	private VideoHandler mVideoHandler = new VideoHandler();
-
 	// TODO:
 	// TODO:
 	// TODO:
@@ -579,97 +390,151 @@ public class MainActivity extends Activity {
 	// main function
 	public void runDecoder() {
 		Log.v(TAG, "runDecoder");		
-		if ( !initAudioDecoder() || !initVideoDecoder() ) {
-			Log.e( TAG, "init decoder failed" );
+		mMetrics.reset();
+		sDecoderPool.setMetrics(mMetrics);
+		if (kHeadlessVerify) {
+			verifyRecording(kMediaPath);
+			return;
+		}
+		mSwitchPath = null;
+		if ( !startPlayback(kMediaPath) ) {
 			return ;
 		}
+		mMetrics.startDump(kMetricsDumpMs);
 
 		mIsRunning = true;
-		isEOS = false;
 
 		while (mIsRunning) {
-			if (!isEOS) {
-				if ( kUsePipeDecoding ) {
-					mAudioHandler.sendEmptyMessage(0);
-					mVideoHandler.sendEmptyMessage(0);
-				}
-				else {
-					doAudioSomeWork();
-					doVideoSomeWork();
-					doRender();
+			// the workers run the pipeline, only wait for onPause() or a
+			// switch
+			mStopSignal.await(kStopPollUs);
+			String path = mSwitchPath;
+			if (path != null && mIsRunning) {
+				mSwitchPath = null;
+				Log.d(TAG, "switch to {}", path);
+				stopPlayback();
+				if ( !startPlayback(path) ) {
+					mMetrics.stopDump();
+					return ;
 				}
 			}
 		}
 
-		releaseAudioDecoder();
-		releaseVideoDecoder();
+		mMetrics.stopDump();
+		PipelineMetrics.dump(mMetrics.snapshot(), null);
+		stopPlayback();
+		Log.d(TAG, "log overflows: {} sampled out: {}", Log.getOverflowCount(),
+				Log.getSampledOutCount());
+		Log.flush(100);
 	}
 
-	private long submittedBytes;
-	private int temporaryBufferSize;
-	private long lastRawPlaybackHeadPosition;
-	private long rawPlaybackHeadWrapCount;
-	private long frameSize;
-	private int bufferSize;
-	private long getPlaybackHeadPosition(AudioTrack audioTracker) {
-		long rawPlaybackHeadPosition = 0xFFFFFFFFL & audioTracker
-				.getPlaybackHeadPosition();
-		if (lastRawPlaybackHeadPosition > rawPlaybackHeadPosition) {
-			// The value must have wrapped around.
-			rawPlaybackHeadWrapCount++;
-		}
-		lastRawPlaybackHeadPosition = rawPlaybackHeadPosition;
-		return rawPlaybackHeadPosition + (rawPlaybackHeadWrapCount << 32);
+	private boolean startPlayback(String path) {
+		if ( !initExtractor(path) ) {
+			Log.e( TAG, "init extractor failed" );
+			stopPlayback();
+			return false;
+		}
+		if ( !initAudioDecoder() || !initVideoDecoder() ) {
+			Log.e( TAG, "init decoder failed" );
+			// hands a decoder that was set up back to the pool
+			stopPlayback();
+			return false;
+		}
+		// a live source may block in the middle of a batch
+		mPipeline.setDemuxBatching(kLivePlayback ? 1 : kDemuxBatchSamples,
+				kDemuxBatchSpanUs);
+		mPipeline.setNormalizeTimestamps(kNormalizeTimestamps);
+		mPipeline.setMetrics(mMetrics);
+		mPipeline.start();
+		return true;
 	}
 
-	private byte[] temporaryBuffer = null;
-	private int temporaryBufferOffset = 0;
-
-	private boolean writeAudioTrack(AudioTrack audioTracker, ByteBuffer buf,
-			int offset, int size) {
+	/**
+	 * Releases the pipeline, which hands its decoders back to the pool, and
+	 * whatever else a started or partly started playback holds.
+	 */
+	private void stopPlayback() {
+		if (mPipeline != null) {
+			mPipeline.release();
+			mPipeline = null;
+		}
+		if (mPipePool != null) {
+			mPipePool.shutdown();
+			mPipePool = null;
+		}
+		releaseExtractor();
+	}
 
-		if (temporaryBufferSize == 0) {
-			// Copy {@code buffer} into {@code temporaryBuffer}.
-			// TODO: Bypass this copy step on versions of Android where
-			// [redacted] is implemented.
-			if (temporaryBuffer == null || temporaryBuffer.length < size) {
-				temporaryBuffer = new byte[size];
-			}
-			buf.position(offset);
-			buf.get(temporaryBuffer, 0, size);
-			temporaryBufferOffset = 0;
-			temporaryBufferSize = size;
-		}
-
-		int bytesPending = (int) (submittedBytes - getPlaybackHeadPosition(audioTracker)
-				* frameSize);
-		Log.v(TAG, "bytesPending: " + bytesPending);
-		int bytesToWrite = bufferSize - bytesPending;
-		Log.v(TAG, "bytesToWrite: " + bytesToWrite);
-
-		if (bytesToWrite > 0) {
-			bytesToWrite = Math.min(temporaryBufferSize, bytesToWrite);
-			audioTracker.write(temporaryBuffer, temporaryBufferOffset,
-					bytesToWrite);
-			temporaryBufferOffset += bytesToWrite;
-			temporaryBufferSize -= bytesToWrite;
-			submittedBytes += bytesToWrite;
-			Log.v(TAG, "temporaryBufferSize: " + temporaryBufferSize);
-			if (0 == temporaryBufferSize) {
-				return true;
+	private void verifyRecording(String path) {
+		ChecksumConsumer checksums = new ChecksumConsumer();
+		HeadlessDecoder decoder = new HeadlessDecoder(path, checksums,
+				sDecodePool);
+		decoder.setMetrics(mMetrics);
+		long startNs = System.nanoTime();
+		if (!decoder.start()) {
+			Log.e(TAG, "verify failed to start");
+			return;
+		}
+		try {
+			if (!decoder.awaitEndOfStream(kHeadlessTimeoutMs)) {
+				Log.e(TAG, "verify timed out");
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
-		return false;
+		decoder.release();
+		Log.d(TAG, "verified in {} ms", (System.nanoTime() - startNs) / 1000000);
+		Log.d(TAG, "video crc {} frames {}", checksums.getChecksum("video"),
+				checksums.getBufferCount("video"));
+		Log.d(TAG, "audio crc {} buffers {}", checksums.getChecksum("audio"),
+				checksums.getBufferCount("audio"));
+		PipelineMetrics.dump(mMetrics.snapshot(), null);
 	}
 
-	private static final long MICROS_PER_SECOND = 1000000l;
+	private static int getMaxInputSize(MediaFormat format, int defaultSize) {
+		if (format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)) {
+			return format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE);
+		}
+		return defaultSize;
+	}
 
-	private long framesToDurationUs(long frameCount) {
-		return (frameCount * MICROS_PER_SECOND) / sampleRate;
+	private DataSource openDataSource(String path) {
+		if (kUsePrefetchingDataSource) {
+			PrefetchingDataSource prefetching = new PrefetchingDataSource(
+					new TsDataSource(path));
+			prefetching.setMetrics(mMetrics);
+			return prefetching;
+		}
+		try {
+			return new MappedDataSource(path);
+		} catch (IOException e) {
+			Log.e(TAG, "map failed, fall back to cached file: " + e);
+		}
+		return new CachedDataSource(new TsDataSource(path));
 	}
 
-	private long durationUsToFrames(long durationUs) {
-		return (durationUs * sampleRate) / MICROS_PER_SECOND;
+	private void closeDataSource(DataSource dataSource) {
+		if (dataSource == null) {
+			return;
+		}
+		if (dataSource instanceof CachedDataSource) {
+			CachedDataSource cached = (CachedDataSource) dataSource;
+			Log.v(TAG, "cache hit: " + cached.getHitCount() + " miss: "
+					+ cached.getMissCount() + " prefetch: "
+					+ cached.getPrefetchCount() + " prefetch hit: "
+					+ cached.getPrefetchHitCount());
+		} else if (dataSource instanceof PrefetchingDataSource) {
+			PrefetchingDataSource prefetching = (PrefetchingDataSource) dataSource;
+			Log.v(TAG, "prefetch reads: " + prefetching.getReadCount()
+					+ " misses: " + prefetching.getMissCount() + " stalls: "
+					+ prefetching.getStallCount() + " stall time: "
+					+ prefetching.getStallTimeUs() + "us");
+		}
+		try {
+			dataSource.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 
 	// TODO:
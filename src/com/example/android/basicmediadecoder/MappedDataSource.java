@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.basicmediadecoder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.media.DataSource;
+
+/**
+ * A {@link DataSource} serving reads from a memory mapping of a local file.
+ * A single mapping is limited to 2 GB, so the file is mapped through a
+ * window that is moved whenever a read falls outside of it.
+ */
+public class MappedDataSource implements DataSource {
+	private static final long kDefaultWindowSize = 64l * 1024 * 1024;
+
+	private RandomAccessFile mFile;
+	private FileChannel mChannel;
+	private final long mSize;
+	private final long mWindowSize;
+
+	private MappedByteBuffer mWindow;
+	private long mWindowStart;
+	private long mWindowEnd;
+
+	public MappedDataSource(String path) throws IOException {
+		this(path, kDefaultWindowSize);
+	}
+
+	/**
+	 * @param path the file to map
+	 * @param windowSize how much of the file to map at once, at most
+	 *            {@link Integer#MAX_VALUE}
+	 */
+	public MappedDataSource(String path, long windowSize) throws IOException {
+		if (windowSize <= 0 || windowSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("windowSize: " + windowSize);
+		}
+		mWindowSize = windowSize;
+		mFile = new RandomAccessFile(path, "r");
+		mChannel = mFile.getChannel();
+		mSize = mChannel.size();
+	}
+
+	@Override
+	public synchronized int readAt(long offset, byte[] buffer, int size) {
+		if (mChannel == null || offset < 0) {
+			return -1;
+		}
+		if (offset >= mSize) {
+			return -1;
+		}
+		size = (int) Math.min(Math.min(size, buffer.length), mSize - offset);
+		int copied = 0;
+		try {
+			while (copied < size) {
+				long position = offset + copied;
+				if (position < mWindowStart || position >= mWindowEnd) {
+					map(position);
+				}
+				int n = (int) Math.min(size - copied, mWindowEnd - position);
+				mWindow.position((int) (position - mWindowStart));
+				mWindow.get(buffer, copied, n);
+				copied += n;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return copied > 0 ? copied : -1;
+		}
+		return copied;
+	}
+
+	@Override
+	public long getSize() {
+		return mSize;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		// the mapping itself is released when the buffer is collected
+		mWindow = null;
+		mWindowStart = 0;
+		mWindowEnd = 0;
+		if (mFile != null) {
+			mFile.close();
+			mFile = null;
+			mChannel = null;
+		}
+	}
+
+	private void map(long position) throws IOException {
+		// keep windows aligned so that sequential reads remap rarely
+		long start = position - position % mWindowSize;
+		long length = Math.min(mWindowSize, mSize - start);
+		mWindow = mChannel.map(FileChannel.MapMode.READ_ONLY, start, length);
+		mWindowStart = start;
+		mWindowEnd = start + length;
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+/**
+ * The media time that output is presented against. The clock is anchored to
+ * the system clock when playback starts. Once audio is playing, the time of
+ * the audio frame at the playback head becomes the master: it is sampled
+ * periodically and the offset to the system clock is smoothed, so that the
+ * coarse steps of the playback head do not show up as jitter while the clock
+ * still follows the audio hardware over long streams.
+ */
+public class MediaClock {
+	/**
+	 * Reports the media time of the audio currently being played.
+	 */
+	public interface AudioTimeSource {
+		/**
+		 * @return the presentation time at the playback head, or -1 if audio
+		 *         is not playing yet
+		 */
+		long getPlayingTimeUs();
+	}
+
+	private static final long kSampleIntervalUs = 10000l;
+	// beyond this the clock jumps to the audio time instead of converging
+	private static final long kResyncThresholdUs = 200000l;
+	// the offset moves by 1/2^kSmoothingShift of the error per sample
+	private static final int kSmoothingShift = 4;
+
+	private AudioTimeSource mAudio;
+	private boolean mStarted;
+	// media time = system time + offset
+	private long mOffsetUs;
+	private long mLastSampleUs;
+	private long mDriftUs;
+	private long mResyncs;
+
+	/**
+	 * @param audio the audio master, or null to run on the system clock only
+	 */
+	public synchronized void setAudioTimeSource(AudioTimeSource audio) {
+		mAudio = audio;
+	}
+
+	/**
+	 * Starts the clock at {@code mediaTimeUs}.
+	 */
+	public synchronized void start(long mediaTimeUs) {
+		mOffsetUs = mediaTimeUs - nowUs();
+		mLastSampleUs = 0;
+		mDriftUs = 0;
+		mStarted = true;
+	}
+
+	public synchronized void reset() {
+		mStarted = false;
+	}
+
+	public synchronized boolean isStarted() {
+		return mStarted;
+	}
+
+	/**
+	 * @return the current media time, only valid once started
+	 */
+	public synchronized long getTimeUs() {
+		long nowUs = nowUs();
+		if (mAudio != null && nowUs - mLastSampleUs >= kSampleIntervalUs) {
+			mLastSampleUs = nowUs;
+			long audioTimeUs = mAudio.getPlayingTimeUs();
+			if (audioTimeUs >= 0) {
+				mDriftUs = audioTimeUs - (nowUs + mOffsetUs);
+				if (Math.abs(mDriftUs) > kResyncThresholdUs) {
+					mOffsetUs += mDriftUs;
+					++mResyncs;
+				} else {
+					mOffsetUs += mDriftUs >> kSmoothingShift;
+				}
+			}
+		}
+		return nowUs + mOffsetUs;
+	}
+
+	/**
+	 * @return the current media time without sampling the audio master, so
+	 *         it may be called from any thread; only valid once started
+	 */
+	public synchronized long peekTimeUs() {
+		return nowUs() + mOffsetUs;
+	}
+
+	/**
+	 * @return the difference between the audio master and the clock at the
+	 *         last sample
+	 */
+	public synchronized long getDriftUs() {
+		return mDriftUs;
+	}
+
+	/**
+	 * @return how often the clock jumped to the audio master
+	 */
+	public synchronized long getResyncCount() {
+		return mResyncs;
+	}
+
+	protected long nowUs() {
+		return System.nanoTime() / 1000;
+	}
+}
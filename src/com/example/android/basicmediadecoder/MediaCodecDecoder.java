@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.view.Surface;
+
+/**
+ * A {@link Decoder} backed by {@link MediaCodec}.
+ */
+public class MediaCodecDecoder implements Decoder {
+	private final MediaCodec mCodec;
+	private final MediaCodec.BufferInfo mInfo = new MediaCodec.BufferInfo();
+
+	/**
+	 * Creates and configures a decoder for {@code format}.
+	 *
+	 * @param surface the surface to render to, or null for audio
+	 * @throws IllegalStateException if no decoder could be created or
+	 *             configured
+	 * @throws IllegalArgumentException if the decoder does not accept
+	 *             {@code format}
+	 */
+	public MediaCodecDecoder(MediaFormat format, Surface surface) {
+		String mime = format.getString(MediaFormat.KEY_MIME);
+		try {
+			mCodec = MediaCodec.createDecoderByType(mime);
+		} catch (IOException e) {
+			// the same type configure() fails with, so that callers handle
+			// both alike
+			throw new IllegalStateException("cannot create a decoder for "
+					+ mime, e);
+		}
+		try {
+			mCodec.configure(format, surface, null, 0);
+		} catch (RuntimeException e) {
+			mCodec.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return what decoders for {@code format} and {@code surface} are
+	 *         pooled by in a {@link DecoderPool}: the MIME type, the video
+	 *         size and surface, or the sample rate, channels and codec
+	 *         specific data of audio. Video parameter sets are left out, a
+	 *         transport stream repeats them in band.
+	 */
+	public static String getPoolKey(MediaFormat format, Surface surface) {
+		String mime = format.getString(MediaFormat.KEY_MIME);
+		StringBuilder key = new StringBuilder(mime);
+		if (mime.startsWith("video/")) {
+			key.append(' ').append(format.getInteger(MediaFormat.KEY_WIDTH))
+					.append('x')
+					.append(format.getInteger(MediaFormat.KEY_HEIGHT))
+					.append(' ').append(getSurfaceKey(surface));
+		} else {
+			key.append(' ')
+					.append(format.getInteger(MediaFormat.KEY_SAMPLE_RATE))
+					.append(" Hz ")
+					.append(format.getInteger(MediaFormat.KEY_CHANNEL_COUNT))
+					.append(" ch");
+			if (format.containsKey("csd-0")) {
+				// the bytes themselves, a hash could match another config
+				key.append(" csd ");
+				appendHex(key, format.getByteBuffer("csd-0"));
+			}
+		}
+		return key.toString();
+	}
+
+	private static void appendHex(StringBuilder builder, ByteBuffer buffer) {
+		final String digits = "0123456789abcdef";
+		for (int i = buffer.position(); i < buffer.limit(); i++) {
+			int b = buffer.get(i) & 0xff;
+			builder.append(digits.charAt(b >> 4)).append(digits.charAt(b & 0xf));
+		}
+	}
+
+	/**
+	 * @return how the keys of video decoders rendering to {@code surface}
+	 *         end, to evict them from a {@link DecoderPool} once the surface
+	 *         goes away
+	 */
+	public static String getSurfaceKey(Surface surface) {
+		return "surface " + System.identityHashCode(surface);
+	}
+
+	@Override
+	public void start() {
+		mCodec.start();
+	}
+
+	@Override
+	public void flush() {
+		mCodec.flush();
+	}
+
+	@Override
+	public void stop() {
+		mCodec.stop();
+	}
+
+	@Override
+	public void release() {
+		mCodec.release();
+	}
+
+	@Override
+	public ByteBuffer[] getInputBuffers() {
+		return mCodec.getInputBuffers();
+	}
+
+	@Override
+	public ByteBuffer[] getOutputBuffers() {
+		return mCodec.getOutputBuffers();
+	}
+
+	@Override
+	public int dequeueInputBuffer(long timeoutUs) {
+		return mCodec.dequeueInputBuffer(timeoutUs);
+	}
+
+	@Override
+	public void queueInputBuffer(int index, int offset, int size,
+			long presentationTimeUs, int flags) {
+		mCodec.queueInputBuffer(index, offset, size, presentationTimeUs, flags);
+	}
+
+	@Override
+	public int dequeueOutputBuffer(OutputInfo info, long timeoutUs) {
+		int index = mCodec.dequeueOutputBuffer(mInfo, timeoutUs);
+		if (index >= 0) {
+			info.offset = mInfo.offset;
+			info.size = mInfo.size;
+			info.presentationTimeUs = mInfo.presentationTimeUs;
+			info.flags = mInfo.flags;
+		}
+		return index;
+	}
+
+	@Override
+	public void releaseOutputBuffer(int index, boolean render) {
+		mCodec.releaseOutputBuffer(index, render);
+	}
+}
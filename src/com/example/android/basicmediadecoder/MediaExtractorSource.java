@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.nio.ByteBuffer;
+
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+/**
+ * A {@link SampleSource} backed by {@link MediaExtractor}.
+ */
+public class MediaExtractorSource implements SampleSource {
+	private final MediaExtractor mExtractor;
+
+	/**
+	 * @param extractor an extractor with its data source already set
+	 */
+	public MediaExtractorSource(MediaExtractor extractor) {
+		mExtractor = extractor;
+	}
+
+	public MediaFormat getTrackFormat(int track) {
+		return mExtractor.getTrackFormat(track);
+	}
+
+	@Override
+	public int getTrackCount() {
+		return mExtractor.getTrackCount();
+	}
+
+	@Override
+	public String getTrackMime(int track) {
+		return mExtractor.getTrackFormat(track).getString(MediaFormat.KEY_MIME);
+	}
+
+	@Override
+	public void selectTrack(int track) {
+		mExtractor.selectTrack(track);
+	}
+
+	@Override
+	public int getSampleTrackIndex() {
+		return mExtractor.getSampleTrackIndex();
+	}
+
+	@Override
+	public long getSampleTime() {
+		return mExtractor.getSampleTime();
+	}
+
+	@Override
+	public int getSampleFlags() {
+		return mExtractor.getSampleFlags();
+	}
+
+	@Override
+	public int readSampleData(ByteBuffer buffer, int offset) {
+		return mExtractor.readSampleData(buffer, offset);
+	}
+
+	@Override
+	public boolean advance() {
+		return mExtractor.advance();
+	}
+
+	@Override
+	public void seekTo(long timeUs) {
+		mExtractor.seekTo(timeUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+	}
+
+	@Override
+	public void release() {
+		mExtractor.release();
+	}
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of reusable objects, such as buffer or sample descriptors, so that
+ * the steady state of the pipeline does not allocate. Every thread has a
+ * free list of its own, so acquiring and releasing on one thread takes no
+ * lock. Objects released beyond the room of the thread's list go to a
+ * shared list, from which other threads refill theirs, which covers objects
+ * that are acquired on one thread and released on another. The free list of
+ * a thread is only locked by {@link #close()} otherwise, so taking it is
+ * uncontended.
+ * <p>
+ * With leak tracking, on by default in debug builds, every acquired object
+ * remembers where it was acquired. An object that is garbage collected
+ * without having been released is reported with that stack, and releasing
+ * an object twice throws.
+ */
+public class ObjectPool<T> {
+	private static final String TAG = "ObjectPool";
+
+	private static volatile boolean sTrackLeaksByDefault = BuildConfig.DEBUG;
+
+	public interface Factory<T> {
+		T create();
+	}
+
+	private static class FreeList {
+		final Object[] objects;
+		int count;
+		// the owner of a thread's list, null for the shared list
+		final Thread thread;
+
+		FreeList(int capacity, Thread thread) {
+			objects = new Object[capacity];
+			this.thread = thread;
+		}
+
+		void clear() {
+			while (count > 0) {
+				objects[--count] = null;
+			}
+		}
+	}
+
+	private static class Tracker extends WeakReference<Object> {
+		final Throwable site;
+
+		Tracker(Object object, ReferenceQueue<Object> queue) {
+			super(object, queue);
+			site = new Throwable("acquired here");
+		}
+	}
+
+	private final String mName;
+	private final Factory<T> mFactory;
+	private final int mThreadCapacity;
+	private final ThreadLocal<FreeList> mLocal = new ThreadLocal<FreeList>() {
+		@Override
+		protected FreeList initialValue() {
+			FreeList local = new FreeList(mThreadCapacity,
+					Thread.currentThread());
+			synchronized (mShared) {
+				// the lists of threads that ended go with them
+				for (int i = mLocals.size() - 1; i >= 0; i--) {
+					if (!mLocals.get(i).thread.isAlive()) {
+						mLocals.remove(i);
+					}
+				}
+				mLocals.add(local);
+			}
+			return local;
+		}
+	};
+	// guarded by itself
+	private final FreeList mShared;
+	// the list of every thread, for close(), guarded by mShared
+	private final ArrayList<FreeList> mLocals = new ArrayList<FreeList>();
+	private volatile boolean mClosed;
+
+	private final boolean mTrackLeaks;
+	// guarded by itself
+	private final ArrayList<Tracker> mOutstanding;
+	private final ReferenceQueue<Object> mCollected;
+	private final AtomicLong mCreated = new AtomicLong();
+	private final AtomicLong mLeaks = new AtomicLong();
+
+	/**
+	 * @param name used when reporting leaks
+	 * @param threadCapacity how many free objects each thread keeps
+	 * @param sharedCapacity how many free objects are kept for all threads
+	 */
+	public ObjectPool(String name, Factory<T> factory, int threadCapacity,
+			int sharedCapacity) {
+		this(name, factory, threadCapacity, sharedCapacity,
+				sTrackLeaksByDefault);
+	}
+
+	public ObjectPool(String name, Factory<T> factory, int threadCapacity,
+			int sharedCapacity, boolean trackLeaks) {
+		if (threadCapacity <= 0 || sharedCapacity < 0) {
+			throw new IllegalArgumentException();
+		}
+		mName = name;
+		mFactory = factory;
+		mThreadCapacity = threadCapacity;
+		mShared = new FreeList(sharedCapacity, null);
+		mTrackLeaks = trackLeaks;
+		mOutstanding = trackLeaks ? new ArrayList<Tracker>() : null;
+		mCollected = trackLeaks ? new ReferenceQueue<Object>() : null;
+	}
+
+	/**
+	 * Whether pools created from now on track leaks, e.g. turned off by
+	 * benchmarks to measure what a release build does.
+	 */
+	public static void setTrackLeaksByDefault(boolean trackLeaks) {
+		sTrackLeaksByDefault = trackLeaks;
+	}
+
+	/**
+	 * @return a free object, or a new one if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public T acquire() {
+		FreeList local = mLocal.get();
+		T object = null;
+		synchronized (local) {
+			if (local.count == 0) {
+				refill(local);
+			}
+			if (local.count > 0) {
+				object = (T) local.objects[--local.count];
+				local.objects[local.count] = null;
+			}
+		}
+		if (object == null) {
+			object = mFactory.create();
+			mCreated.incrementAndGet();
+		}
+		if (mTrackLeaks) {
+			track(object);
+		}
+		return object;
+	}
+
+	/**
+	 * Hands {@code object} back. It must not be used afterwards. Once the
+	 * pool is closed, the object is dropped.
+	 */
+	public void release(T object) {
+		if (mTrackLeaks) {
+			untrack(object);
+		}
+		FreeList local = mLocal.get();
+		synchronized (local) {
+			// checked under the lock close() empties the list with, so
+			// nothing is kept after it
+			if (mClosed) {
+				return;
+			}
+			if (local.count < local.objects.length) {
+				local.objects[local.count++] = object;
+				return;
+			}
+			synchronized (mShared) {
+				if (!mClosed && mShared.count < mShared.objects.length) {
+					mShared.objects[mShared.count++] = object;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops the free objects of every thread and of the shared list, and
+	 * every object released from now on, so that the pool keeps nothing
+	 * alive for the threads that used it. Objects can still be acquired,
+	 * they are created.
+	 */
+	public void close() {
+		mClosed = true;
+		ArrayList<FreeList> locals;
+		synchronized (mShared) {
+			mShared.clear();
+			locals = new ArrayList<FreeList>(mLocals);
+			mLocals.clear();
+		}
+		// not nested in mShared, acquire() and release() take the thread's
+		// list first
+		for (FreeList local : locals) {
+			synchronized (local) {
+				local.clear();
+			}
+		}
+		mLocal.remove();
+	}
+
+	/**
+	 * @return how many objects the pool had to create
+	 */
+	public long getCreatedCount() {
+		return mCreated.get();
+	}
+
+	/**
+	 * @return how many acquired objects were not released yet, only known
+	 *         with leak tracking
+	 */
+	public int getOutstandingCount() {
+		if (!mTrackLeaks) {
+			return -1;
+		}
+		synchronized (mOutstanding) {
+			return mOutstanding.size();
+		}
+	}
+
+	/**
+	 * Reports objects that were collected without being released. This also
+	 * happens on every {@link #acquire()}.
+	 *
+	 * @return how many leaks were found so far
+	 */
+	public long checkLeaks() {
+		if (mTrackLeaks) {
+			Tracker tracker;
+			while ((tracker = (Tracker) mCollected.poll()) != null) {
+				boolean leaked;
+				synchronized (mOutstanding) {
+					leaked = mOutstanding.remove(tracker);
+				}
+				if (leaked) {
+					mLeaks.incrementAndGet();
+					StringWriter stack = new StringWriter();
+					tracker.site.printStackTrace(new PrintWriter(stack));
+					Log.w(TAG, mName + " leaked an object, " + stack);
+				}
+			}
+		}
+		return mLeaks.get();
+	}
+
+	/**
+	 * Moves up to half a thread's worth of objects from the shared list.
+	 */
+	private void refill(FreeList local) {
+		synchronized (mShared) {
+			int n = Math.min(mShared.count, (mThreadCapacity + 1) / 2);
+			for (int i = 0; i < n; i++) {
+				local.objects[local.count++] = mShared.objects[--mShared.count];
+				mShared.objects[mShared.count] = null;
+			}
+		}
+	}
+
+	private void track(T object) {
+		checkLeaks();
+		Tracker tracker = new Tracker(object, mCollected);
+		synchronized (mOutstanding) {
+			mOutstanding.add(tracker);
+		}
+	}
+
+	private void untrack(T object) {
+		synchronized (mOutstanding) {
+			for (int i = mOutstanding.size() - 1; i >= 0; i--) {
+				Tracker tracker = mOutstanding.get(i);
+				if (tracker.get() == object) {
+					mOutstanding.remove(i);
+					tracker.clear();
+					return;
+				}
+			}
+		}
+		throw new IllegalStateException(mName
+				+ ": released an object that is not acquired");
+	}
+}
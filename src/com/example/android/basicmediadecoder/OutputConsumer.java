@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the decoded output of a headless pipeline, e.g. to checksum it,
+ * extract thumbnails or measure loudness. Calls for one track never overlap
+ * and come in decoding order, but calls for different tracks may come from
+ * different threads at the same time.
+ */
+public interface OutputConsumer {
+	/**
+	 * @param track the name of the track, e.g. "video"
+	 * @param buffer holds the output from {@code offset} on, only valid
+	 *            during the call
+	 */
+	void onOutput(String track, ByteBuffer buffer, int offset, int size,
+			long presentationTimeUs);
+
+	/**
+	 * Called once the track has returned all of its output.
+	 */
+	void onEndOfStream(String track);
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and {@link LatencyHistogram}s of the decode pipeline, registered
+ * by name, e.g. "video.decodeUs". The stages look up what they record once
+ * when the metrics are attached, so recording is a plain atomic update.
+ * {@link #snapshot()} copies everything at once and
+ * {@link #startDump(long)} logs a snapshot periodically.
+ */
+public class PipelineMetrics {
+	private static final String TAG = "PipelineMetrics";
+
+	public static class Counter {
+		private final AtomicLong mValue = new AtomicLong();
+
+		public void add(long delta) {
+			mValue.addAndGet(delta);
+		}
+
+		public void increment() {
+			mValue.incrementAndGet();
+		}
+
+		/**
+		 * Sets the value, for counters used as a gauge.
+		 */
+		public void set(long value) {
+			mValue.set(value);
+		}
+
+		public long get() {
+			return mValue.get();
+		}
+	}
+
+	/**
+	 * The state of every counter and histogram at one point in time.
+	 */
+	public static class Snapshot {
+		public final long timeNs;
+		public final Map<String, Long> counters = new TreeMap<String, Long>();
+		public final Map<String, LatencyHistogram> histograms = new TreeMap<String, LatencyHistogram>();
+
+		Snapshot(long timeNs) {
+			this.timeNs = timeNs;
+		}
+
+		/**
+		 * @return the value of a counter, or 0 if it does not exist
+		 */
+		public long getCounter(String name) {
+			Long value = counters.get(name);
+			return value != null ? value : 0;
+		}
+
+		public LatencyHistogram getHistogram(String name) {
+			return histograms.get(name);
+		}
+
+		/**
+		 * @return how fast a counter grew per second since {@code previous}
+		 */
+		public double getRate(String name, Snapshot previous) {
+			long elapsedNs = timeNs - previous.timeNs;
+			if (elapsedNs <= 0) {
+				return 0;
+			}
+			return (getCounter(name) - previous.getCounter(name)) * 1e9
+					/ elapsedNs;
+		}
+	}
+
+	private final Map<String, Counter> mCounters = new TreeMap<String, Counter>();
+	private final Map<String, LatencyHistogram> mHistograms = new TreeMap<String, LatencyHistogram>();
+	private Thread mDumpThread;
+
+	/**
+	 * @return the counter named {@code name}, created on first use
+	 */
+	public synchronized Counter counter(String name) {
+		Counter counter = mCounters.get(name);
+		if (counter == null) {
+			counter = new Counter();
+			mCounters.put(name, counter);
+		}
+		return counter;
+	}
+
+	/**
+	 * @return the histogram named {@code name}, created on first use
+	 */
+	public synchronized LatencyHistogram histogram(String name) {
+		LatencyHistogram histogram = mHistograms.get(name);
+		if (histogram == null) {
+			histogram = new LatencyHistogram();
+			mHistograms.put(name, histogram);
+		}
+		return histogram;
+	}
+
+	public synchronized Snapshot snapshot() {
+		Snapshot snapshot = new Snapshot(System.nanoTime());
+		for (Map.Entry<String, Counter> entry : mCounters.entrySet()) {
+			snapshot.counters.put(entry.getKey(), entry.getValue().get());
+		}
+		for (Map.Entry<String, LatencyHistogram> entry : mHistograms
+				.entrySet()) {
+			snapshot.histograms.put(entry.getKey(), entry.getValue().copy());
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Resets every counter and histogram.
+	 */
+	public synchronized void reset() {
+		for (Counter counter : mCounters.values()) {
+			counter.set(0);
+		}
+		for (LatencyHistogram histogram : mHistograms.values()) {
+			histogram.reset();
+		}
+	}
+
+	/**
+	 * Logs a snapshot every {@code intervalMs}, with the rate of each counter
+	 * since the previous one, until {@link #stopDump()}.
+	 */
+	public synchronized void startDump(final long intervalMs) {
+		stopDump();
+		mDumpThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Snapshot previous = snapshot();
+				while (!Thread.currentThread().isInterrupted()) {
+					try {
+						Thread.sleep(intervalMs);
+					} catch (InterruptedException e) {
+						break;
+					}
+					Snapshot current = snapshot();
+					dump(current, previous);
+					previous = current;
+				}
+			}
+		}, TAG);
+		mDumpThread.setDaemon(true);
+		mDumpThread.start();
+	}
+
+	public synchronized void stopDump() {
+		if (mDumpThread != null) {
+			mDumpThread.interrupt();
+			mDumpThread = null;
+		}
+	}
+
+	/**
+	 * Logs {@code current}, with rates if {@code previous} is not null.
+	 */
+	public static void dump(Snapshot current, Snapshot previous) {
+		for (Map.Entry<String, Long> entry : current.counters.entrySet()) {
+			String name = entry.getKey();
+			if (previous != null) {
+				Log.i(TAG, name + ": " + entry.getValue() + " ("
+						+ (long) current.getRate(name, previous) + "/s)");
+			} else {
+				Log.i(TAG, name + ": " + entry.getValue());
+			}
+		}
+		for (Map.Entry<String, LatencyHistogram> entry : current.histograms
+				.entrySet()) {
+			Log.i(TAG, entry.getKey() + ": " + entry.getValue());
+		}
+	}
+}
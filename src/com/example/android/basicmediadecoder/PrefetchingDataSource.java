@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.io.IOException;
+
+import android.media.DataSource;
+
+/**
+ * A {@link DataSource} decorator for slow storage such as network mounts. A
+ * background reader keeps a bounded ring of chunks filled ahead of the read
+ * cursor, so storage latency is absorbed by the ring and
+ * {@link #readAt(long, byte[], int)} only blocks when the data it needs has
+ * not arrived yet: on a seek outside the ring or when the storage cannot
+ * keep up. Chunks are published while they are being filled, so a reader
+ * waiting on a miss gets going after the first part of the chunk.
+ * <p>
+ * Unlike {@link CachedDataSource} nothing is kept once the cursor has moved
+ * past it, so the memory used is fixed and the ring can be much further
+ * ahead than a cache of the same size.
+ */
+public class PrefetchingDataSource implements DataSource {
+	private static final String TAG = "PrefetchingDataSource";
+
+	private static final int kDefaultChunkSize = 1024 * CachedDataSource.TS_PACKET_SIZE;
+	private static final int kDefaultChunkCount = 16;
+	// how much the reader asks the source for at once
+	private static final int kReadSize = 256 * CachedDataSource.TS_PACKET_SIZE;
+
+	private final DataSource mSource;
+	private final int mChunkSize;
+	private final Chunk[] mChunks;
+	// the reader copies out of this into the chunk being filled
+	private final byte[] mScratch;
+
+	private final Object mLock = new Object();
+	// the ring holds mFilled chunks from mHead on, covering the file from
+	// mWindowStart on; only the last one may still be filling
+	private int mHead;
+	private int mFilled;
+	private long mWindowStart;
+	// bumped whenever the window moves, so that the reader drops the chunk
+	// it was filling
+	private int mGeneration;
+	private boolean mEndOfSource;
+	private long mLastReadEnd;
+	private boolean mClosed;
+	private Thread mReaderThread;
+
+	private long mReads;
+	private long mMisses;
+	private long mStalls;
+	private long mStallUs;
+	private PipelineMetrics.Counter mBufferedBytes;
+	private PipelineMetrics.Counter mStallCount;
+	private LatencyHistogram mStallHistogram;
+
+	private static class Chunk {
+		final byte[] data;
+		int length;
+
+		Chunk(int size) {
+			data = new byte[size];
+		}
+	}
+
+	public PrefetchingDataSource(DataSource source) {
+		this(source, kDefaultChunkSize, kDefaultChunkCount);
+	}
+
+	/**
+	 * @param chunkSize bytes per chunk, rounded down to whole 188-byte
+	 *            packets
+	 * @param chunkCount how many chunks the ring holds, at least 2
+	 */
+	public PrefetchingDataSource(DataSource source, int chunkSize,
+			int chunkCount) {
+		chunkSize -= chunkSize % CachedDataSource.TS_PACKET_SIZE;
+		if (chunkSize <= 0 || chunkCount < 2) {
+			throw new IllegalArgumentException();
+		}
+		mSource = source;
+		mChunkSize = chunkSize;
+		mChunks = new Chunk[chunkCount];
+		for (int i = 0; i < chunkCount; i++) {
+			mChunks[i] = new Chunk(chunkSize);
+		}
+		mScratch = new byte[Math.min(kReadSize, chunkSize)];
+		mReaderThread = new Thread(mReaderRunnable, TAG);
+		mReaderThread.setDaemon(true);
+		mReaderThread.start();
+	}
+
+	/**
+	 * Keeps "prefetch.bufferedBytes" at the bytes buffered ahead of the last
+	 * read and records "prefetch.stalls" and "prefetch.stallUs" for reads
+	 * that had to wait.
+	 */
+	public void setMetrics(PipelineMetrics metrics) {
+		synchronized (mLock) {
+			mBufferedBytes = metrics.counter("prefetch.bufferedBytes");
+			mStallCount = metrics.counter("prefetch.stalls");
+			mStallHistogram = metrics.histogram("prefetch.stallUs");
+		}
+	}
+
+	@Override
+	public int readAt(long offset, byte[] buffer, int size) {
+		if (offset < 0) {
+			return -1;
+		}
+		size = Math.min(size, buffer.length);
+		int copied = 0;
+		long stallStartNs = 0;
+		synchronized (mLock) {
+			++mReads;
+			if (!isInWindow(offset)) {
+				moveWindow(offset);
+			}
+			while (copied < size && !mClosed) {
+				long position = offset + copied;
+				int chunk = (int) ((position - mWindowStart) / mChunkSize);
+				int available = 0;
+				if (chunk < mFilled) {
+					Chunk c = mChunks[(mHead + chunk) % mChunks.length];
+					int chunkOffset = (int) (position - mWindowStart - (long) chunk
+							* mChunkSize);
+					available = Math.min(c.length - chunkOffset, size - copied);
+					if (available > 0) {
+						System.arraycopy(c.data, chunkOffset, buffer, copied,
+								available);
+						copied += available;
+						continue;
+					}
+				}
+				if (mEndOfSource && chunk >= mFilled - 1) {
+					break;
+				}
+				// a real miss: the reader has not got here yet, make sure
+				// it has room to get here
+				releaseBefore(position);
+				if (stallStartNs == 0) {
+					stallStartNs = System.nanoTime();
+				}
+				try {
+					mLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+				if (!isInWindow(position)) {
+					// another reader moved the window meanwhile
+					moveWindow(position);
+				}
+			}
+			if (stallStartNs != 0) {
+				long stallUs = (System.nanoTime() - stallStartNs) / 1000;
+				++mStalls;
+				mStallUs += stallUs;
+				if (mStallHistogram != null) {
+					mStallCount.increment();
+					mStallHistogram.record(stallUs);
+				}
+			}
+			if (copied > 0) {
+				mLastReadEnd = offset + copied;
+				releaseBefore(offset);
+			}
+			if (mBufferedBytes != null) {
+				mBufferedBytes.set(getBufferedBytesLocked());
+			}
+		}
+		if (copied == 0 && size > 0) {
+			return -1;
+		}
+		return copied;
+	}
+
+	@Override
+	public long getSize() {
+		return mSource.getSize();
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (mLock) {
+			mClosed = true;
+			mLock.notifyAll();
+		}
+		if (mReaderThread != null) {
+			mReaderThread.interrupt();
+			try {
+				mReaderThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			mReaderThread = null;
+		}
+		mSource.close();
+	}
+
+	/**
+	 * @return bytes that are buffered ahead of the end of the last read
+	 */
+	public long getBufferedBytes() {
+		synchronized (mLock) {
+			return getBufferedBytesLocked();
+		}
+	}
+
+	public long getReadCount() {
+		synchronized (mLock) {
+			return mReads;
+		}
+	}
+
+	/**
+	 * @return how often a read outside the ring restarted prefetching
+	 */
+	public long getMissCount() {
+		synchronized (mLock) {
+			return mMisses;
+		}
+	}
+
+	/**
+	 * @return how many reads had to wait for the storage
+	 */
+	public long getStallCount() {
+		synchronized (mLock) {
+			return mStalls;
+		}
+	}
+
+	public long getStallTimeUs() {
+		synchronized (mLock) {
+			return mStallUs;
+		}
+	}
+
+	private long getBufferedBytesLocked() {
+		long end = mWindowStart + (long) mFilled * mChunkSize;
+		if (mFilled > 0) {
+			end -= mChunkSize - mChunks[(mHead + mFilled - 1) % mChunks.length].length;
+		}
+		return Math.max(0, end - mLastReadEnd);
+	}
+
+	/**
+	 * @return whether {@code offset} is buffered or about to be, within the
+	 *         chunk after the last claimed one
+	 */
+	private boolean isInWindow(long offset) {
+		return offset >= mWindowStart
+				&& offset < mWindowStart + (long) (mFilled + 1) * mChunkSize;
+	}
+
+	private void moveWindow(long offset) {
+		++mMisses;
+		++mGeneration;
+		mWindowStart = offset - offset % mChunkSize;
+		mHead = 0;
+		mFilled = 0;
+		mEndOfSource = false;
+		mLastReadEnd = offset;
+		mLock.notifyAll();
+	}
+
+	/**
+	 * Hands the chunks the reader has moved past back to the reader, but
+	 * keeps the one before {@code offset} for short backward reads.
+	 */
+	private void releaseBefore(long offset) {
+		boolean released = false;
+		while (mFilled > 1
+				&& mChunks[mHead].length == mChunkSize
+				&& mWindowStart + 2l * mChunkSize <= offset) {
+			mHead = (mHead + 1) % mChunks.length;
+			--mFilled;
+			mWindowStart += mChunkSize;
+			released = true;
+		}
+		if (released) {
+			mLock.notifyAll();
+		}
+	}
+
+	private final Runnable mReaderRunnable = new Runnable() {
+		@Override
+		public void run() {
+			while (true) {
+				Chunk chunk;
+				long chunkStart;
+				int generation;
+				synchronized (mLock) {
+					while (!mClosed
+							&& (mEndOfSource || mFilled == mChunks.length)) {
+						try {
+							mLock.wait();
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+					if (mClosed) {
+						return;
+					}
+					chunk = mChunks[(mHead + mFilled) % mChunks.length];
+					chunkStart = mWindowStart + (long) mFilled * mChunkSize;
+					chunk.length = 0;
+					++mFilled;
+					generation = mGeneration;
+				}
+				fill(chunk, chunkStart, generation);
+			}
+		}
+
+		private void fill(Chunk chunk, long chunkStart, int generation) {
+			int length = 0;
+			while (length < mChunkSize) {
+				int n = mSource.readAt(chunkStart + length, mScratch,
+						Math.min(mScratch.length, mChunkSize - length));
+				synchronized (mLock) {
+					if (mClosed || generation != mGeneration) {
+						return;
+					}
+					if (n <= 0) {
+						mEndOfSource = true;
+						mLock.notifyAll();
+						return;
+					}
+					System.arraycopy(mScratch, 0, chunk.data, length, n);
+					length += n;
+					chunk.length = length;
+					mLock.notifyAll();
+				}
+			}
+		}
+	};
+}
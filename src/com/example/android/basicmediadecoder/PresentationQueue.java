@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+/**
+ * Decoded output waiting to be presented, kept in presentation order rather
+ * than in the order the decoder returned it. With B-frames, or decoders
+ * that return timestamps slightly out of order, the head is always the
+ * earliest frame, so a later frame at the head can neither hold back an
+ * earlier one behind it nor make it late enough to be dropped.
+ * <p>
+ * The order is kept on a timeline that continues across 33 bit MPEG-TS
+ * timestamp wraps and across discontinuities: a jump of more than
+ * {@link #kDefaultMaxJumpUs} between consecutive buffers, e.g. a splice in
+ * a recording, starts a new segment that is presented after everything
+ * queued before it. Equal timestamps keep the order they were offered in.
+ * The peeked timestamps are the ones the decoder returned.
+ * <p>
+ * A binary min-heap of slot numbers over parallel primitive arrays, so
+ * offering and polling never allocate. Not thread safe.
+ */
+public class PresentationQueue {
+	/**
+	 * The period of MPEG-TS timestamps, 2^33 ticks of 90 kHz.
+	 */
+	public static final long kPtsWrapUs = (1l << 33) * 100 / 9;
+	public static final long kDefaultMaxJumpUs = 10000000l;
+
+	private final long mMaxJumpUs;
+
+	// buffer descriptions by slot
+	private int[] mIndex;
+	private int[] mOffset;
+	private int[] mSize;
+	private long[] mTimeUs;
+	private int[] mFlags;
+	// the heap is ordered by key, then by the order of offering
+	private long[] mKey;
+	private long[] mSeq;
+	private int[] mHeap;
+	private int[] mFreeSlots;
+	private int mCount;
+	private long mNextSeq;
+
+	// where the timeline is, as of the last offered buffer
+	private boolean mHasLast;
+	private long mLastUs;
+	private long mWrapUs;
+	private long mKeyOffsetUs;
+	private long mMaxKey;
+	private long mWraps;
+	private long mDiscontinuities;
+
+	public PresentationQueue(int capacity) {
+		this(capacity, kDefaultMaxJumpUs);
+	}
+
+	/**
+	 * @param maxJumpUs the largest gap between consecutive buffers that is
+	 *            not a discontinuity, more than the decoder reorders by
+	 */
+	public PresentationQueue(int capacity, long maxJumpUs) {
+		mMaxJumpUs = maxJumpUs;
+		allocate(capacity);
+	}
+
+	/**
+	 * Grows the queue to hold at least {@code capacity} entries, e.g. after
+	 * the codec changed its buffers. Queued entries are dropped if the
+	 * queue has to grow.
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity > mIndex.length) {
+			allocate(capacity);
+		}
+	}
+
+	/**
+	 * @return false if the queue is full
+	 */
+	public boolean offer(int index, int offset, int size, long timeUs,
+			int flags) {
+		if (mCount == mIndex.length) {
+			return false;
+		}
+		int slot = mFreeSlots[mIndex.length - 1 - mCount];
+		mIndex[slot] = index;
+		mOffset[slot] = offset;
+		mSize[slot] = size;
+		mTimeUs[slot] = timeUs;
+		mFlags[slot] = flags;
+		mKey[slot] = toKey(timeUs);
+		mSeq[slot] = mNextSeq++;
+		siftUp(mCount++, slot);
+		return true;
+	}
+
+	/**
+	 * Removes the earliest entry.
+	 *
+	 * @return the buffer index of the removed entry, or -1 if the queue is
+	 *         empty
+	 */
+	public int poll() {
+		if (mCount == 0) {
+			return -1;
+		}
+		int slot = mHeap[0];
+		--mCount;
+		mFreeSlots[mIndex.length - 1 - mCount] = slot;
+		if (mCount > 0) {
+			siftDown(0, mHeap[mCount]);
+		}
+		return mIndex[slot];
+	}
+
+	/**
+	 * @return the buffer index of the earliest entry, or -1 if the queue is
+	 *         empty
+	 */
+	public int peekIndex() {
+		return mCount == 0 ? -1 : mIndex[mHeap[0]];
+	}
+
+	public int peekOffset() {
+		return mOffset[mHeap[0]];
+	}
+
+	public int peekSize() {
+		return mSize[mHeap[0]];
+	}
+
+	public long peekTimeUs() {
+		return mTimeUs[mHeap[0]];
+	}
+
+	public int peekFlags() {
+		return mFlags[mHeap[0]];
+	}
+
+	public boolean isEmpty() {
+		return mCount == 0;
+	}
+
+	public int size() {
+		return mCount;
+	}
+
+	public int capacity() {
+		return mIndex.length;
+	}
+
+	/**
+	 * Drops every entry and forgets the timeline, e.g. for a seek.
+	 */
+	public void clear() {
+		mCount = 0;
+		for (int i = 0; i < mFreeSlots.length; i++) {
+			mFreeSlots[i] = i;
+		}
+		mHasLast = false;
+		mWrapUs = 0;
+		mKeyOffsetUs = 0;
+	}
+
+	/**
+	 * @return how often the timestamps wrapped since they were created
+	 */
+	public long getWrapCount() {
+		return mWraps;
+	}
+
+	/**
+	 * @return how many discontinuities started a new segment
+	 */
+	public long getDiscontinuityCount() {
+		return mDiscontinuities;
+	}
+
+	/**
+	 * Places {@code timeUs} on the continuous timeline the heap is ordered
+	 * by.
+	 */
+	private long toKey(long timeUs) {
+		long unwrappedUs = timeUs + mWrapUs;
+		if (!mHasLast) {
+			mHasLast = true;
+			mLastUs = unwrappedUs;
+			mMaxKey = unwrappedUs + mKeyOffsetUs;
+			return mMaxKey;
+		}
+		// the closest of the candidates one period apart, which also puts
+		// a buffer from before a wrap that comes late back before it
+		long deltaUs = unwrappedUs - mLastUs;
+		if (deltaUs < -kPtsWrapUs / 2) {
+			unwrappedUs += kPtsWrapUs;
+		} else if (deltaUs > kPtsWrapUs / 2) {
+			unwrappedUs -= kPtsWrapUs;
+		}
+		if (unwrappedUs - timeUs > mWrapUs) {
+			// late buffers from before the wrap do not move it back
+			mWrapUs = unwrappedUs - timeUs;
+			++mWraps;
+		}
+		deltaUs = unwrappedUs - mLastUs;
+		mLastUs = unwrappedUs;
+		if (deltaUs > mMaxJumpUs || deltaUs < -mMaxJumpUs) {
+			// continue right after everything queued so far
+			++mDiscontinuities;
+			mKeyOffsetUs = mMaxKey + 1 - unwrappedUs;
+		}
+		long key = unwrappedUs + mKeyOffsetUs;
+		mMaxKey = Math.max(mMaxKey, key);
+		return key;
+	}
+
+	private boolean isBefore(int slot, int other) {
+		return mKey[slot] < mKey[other]
+				|| (mKey[slot] == mKey[other] && mSeq[slot] < mSeq[other]);
+	}
+
+	private void siftUp(int pos, int slot) {
+		while (pos > 0) {
+			int parent = (pos - 1) >>> 1;
+			if (!isBefore(slot, mHeap[parent])) {
+				break;
+			}
+			mHeap[pos] = mHeap[parent];
+			pos = parent;
+		}
+		mHeap[pos] = slot;
+	}
+
+	private void siftDown(int pos, int slot) {
+		int half = mCount >>> 1;
+		while (pos < half) {
+			int child = 2 * pos + 1;
+			int right = child + 1;
+			if (right < mCount && isBefore(mHeap[right], mHeap[child])) {
+				child = right;
+			}
+			if (!isBefore(mHeap[child], slot)) {
+				break;
+			}
+			mHeap[pos] = mHeap[child];
+			pos = child;
+		}
+		mHeap[pos] = slot;
+	}
+
+	private void allocate(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity: " + capacity);
+		}
+		mIndex = new int[capacity];
+		mOffset = new int[capacity];
+		mSize = new int[capacity];
+		mTimeUs = new long[capacity];
+		mFlags = new int[capacity];
+		mKey = new long[capacity];
+		mSeq = new long[capacity];
+		mHeap = new int[capacity];
+		mFreeSlots = new int[capacity];
+		clear();
+	}
+}
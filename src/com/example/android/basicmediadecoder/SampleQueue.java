@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.basicmediadecoder;
+
+/**
+ * A bounded single-producer single-consumer queue of demuxed samples for one
+ * track. The sample buffers are allocated once and recycled, and the producer
+ * blocks in {@link #obtain(int)} while the queue is full. Both sides can work in
+ * batches: the producer fills several samples before publishing them with
+ * one {@link #queue(int)}, and the consumer looks at every published sample
+ * through {@link #get(int)} before handing them back with one
+ * {@link #release(int)}, so a batch costs one lock and one wakeup.
+ */
+public class SampleQueue {
+	public static class Sample {
+		public byte[] data;
+		public int size;
+		public long timeUs;
+		public int flags;
+
+		Sample(int capacity) {
+			data = new byte[capacity];
+		}
+
+		/**
+		 * Makes sure that {@link #data} can hold {@code capacity} bytes. The
+		 * content is not preserved.
+		 */
+		public void ensureCapacity(int capacity) {
+			if (data.length < capacity) {
+				data = new byte[capacity];
+			}
+		}
+	}
+
+	private final Sample[] mSamples;
+	private int mHead;
+	private int mCount;
+	private boolean mEndOfStream;
+	private boolean mAborted;
+	private volatile Runnable mListener;
+
+	/**
+	 * @param capacity how many samples may be queued
+	 * @param sampleSize initial size of each sample buffer in bytes
+	 */
+	public SampleQueue(int capacity, int sampleSize) {
+		mSamples = new Sample[capacity];
+		for (int i = 0; i < capacity; i++) {
+			mSamples[i] = new Sample(sampleSize);
+		}
+	}
+
+	/**
+	 * @param listener run on the producer thread whenever a sample was
+	 *            queued or the end of stream was set, so a consumer that is
+	 *            scheduled rather than blocked can be woken up
+	 */
+	public void setListener(Runnable listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * Returns the free sample to fill after {@code ahead} samples that were
+	 * obtained but not queued yet, blocking while the queue is full. The
+	 * sample becomes visible to the consumer once queued with
+	 * {@link #queue(int)}.
+	 *
+	 * @param ahead less than {@link #capacity()}
+	 * @return the free sample, or null if the queue was aborted
+	 */
+	public synchronized Sample obtain(int ahead) throws InterruptedException {
+		if (ahead >= mSamples.length) {
+			throw new IllegalArgumentException("ahead: " + ahead);
+		}
+		while (mCount + ahead >= mSamples.length && !mAborted) {
+			wait();
+		}
+		if (mAborted) {
+			return null;
+		}
+		return mSamples[(mHead + mCount + ahead) % mSamples.length];
+	}
+
+	/**
+	 * @return whether {@link #obtain(int)} would return without waiting,
+	 *         which stays true until the producer queues
+	 */
+	public synchronized boolean hasFree(int ahead) {
+		return mCount + ahead < mSamples.length || mAborted;
+	}
+
+	/**
+	 * Makes the next {@code count} obtained samples visible to the consumer.
+	 */
+	public void queue(int count) {
+		synchronized (this) {
+			if (mAborted) {
+				return;
+			}
+			if (mCount + count > mSamples.length) {
+				throw new IllegalStateException("samples were not obtained");
+			}
+			mCount += count;
+			notifyAll();
+		}
+		notifyListener();
+	}
+
+	/**
+	 * Drops the {@code count} oldest samples and hands their buffers back to
+	 * the producer.
+	 */
+	public synchronized void release(int count) {
+		if (count > mCount) {
+			throw new IllegalStateException("queue holds " + mCount);
+		}
+		mHead = (mHead + count) % mSamples.length;
+		mCount -= count;
+		notifyAll();
+	}
+
+	/**
+	 * @return the published sample {@code i} places after the oldest one.
+	 *         Only for the consumer and for {@code i} below a
+	 *         {@link #size()} it read before, the sample is not locked.
+	 */
+	public Sample get(int i) {
+		return mSamples[(mHead + i) % mSamples.length];
+	}
+
+	public synchronized int size() {
+		return mCount;
+	}
+
+	public int capacity() {
+		return mSamples.length;
+	}
+
+	public void setEndOfStream() {
+		synchronized (this) {
+			mEndOfStream = true;
+			notifyAll();
+		}
+		notifyListener();
+	}
+
+	/**
+	 * @return true once the producer has signalled the end of stream and
+	 *         every queued sample has been consumed
+	 */
+	public synchronized boolean isEndOfStream() {
+		return mEndOfStream && mCount == 0;
+	}
+
+	/**
+	 * Wakes up and stops a producer blocked in {@link #obtain(int)}.
+	 */
+	public synchronized void abort() {
+		mAborted = true;
+		notifyAll();
+	}
+
+	/**
+	 * Drops every queued sample and clears the end of stream and aborted
+	 * state.
+	 */
+	public synchronized void clear() {
+		mHead = 0;
+		mCount = 0;
+		mEndOfStream = false;
+		mAborted = false;
+		notifyAll();
+	}
+
+	private void notifyListener() {
+		Runnable listener = mListener;
+		if (listener != null) {
+			listener.run();
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The subset of {@link android.media.MediaExtractor} used by the
+ * {@link Demuxer}.
+ */
+public interface SampleSource {
+	public static final int SAMPLE_FLAG_SYNC = 1;
+
+	public int getTrackCount();
+
+	/**
+	 * @return the mime type of the track, e.g. "video/avc"
+	 */
+	public String getTrackMime(int track);
+
+	public void selectTrack(int track);
+
+	/**
+	 * @return the track of the current sample, or -1 at the end of stream
+	 */
+	public int getSampleTrackIndex();
+
+	public long getSampleTime();
+
+	public int getSampleFlags();
+
+	/**
+	 * Reads the current sample into {@code buffer} starting at
+	 * {@code offset}.
+	 *
+	 * @return the sample size, or -1 at the end of stream
+	 */
+	public int readSampleData(ByteBuffer buffer, int offset);
+
+	public boolean advance();
+
+	/**
+	 * Moves every selected track to the last sync sample at or before
+	 * {@code timeUs}.
+	 */
+	public void seekTo(long timeUs);
+
+	public void release();
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A software stand-in for an {@link AudioSink}. In real time mode the
+ * playback head advances with the wall clock like a device would, otherwise
+ * every written frame counts as played immediately so the pipeline can run
+ * as fast as it can.
+ */
+public class SimulatedAudioSink implements AudioSink {
+	private final int mSampleRate;
+	private final int mFrameSize;
+	private final int mBufferSize;
+	private final boolean mRealtime;
+	private boolean mDirectWrite;
+
+	private long mPlayStartNs;
+	private boolean mPlaying;
+	private long mSubmittedFrames;
+	private long mWrittenBytes;
+
+	/**
+	 * @param frameSize bytes per PCM frame, 2 * channel count
+	 * @param bufferSize sink buffer size in bytes
+	 * @param realtime whether the playback head follows the wall clock
+	 */
+	public SimulatedAudioSink(int sampleRate, int frameSize, int bufferSize,
+			boolean realtime) {
+		mSampleRate = sampleRate;
+		mFrameSize = frameSize;
+		mBufferSize = bufferSize;
+		mRealtime = realtime;
+	}
+
+	@Override
+	public synchronized void play() {
+		mPlaying = true;
+		mPlayStartNs = System.nanoTime();
+	}
+
+	@Override
+	public synchronized void stop() {
+		mPlaying = false;
+	}
+
+	@Override
+	public synchronized void flush() {
+		mWrittenBytes = 0;
+		mSubmittedFrames = 0;
+		mPlayStartNs = System.nanoTime();
+	}
+
+	@Override
+	public void release() {
+		stop();
+	}
+
+	@Override
+	public int getBufferSize() {
+		return mBufferSize;
+	}
+
+	@Override
+	public synchronized int write(byte[] data, int offset, int size) {
+		mWrittenBytes += size;
+		mSubmittedFrames = mWrittenBytes / mFrameSize;
+		return size;
+	}
+
+	/**
+	 * Enables {@link #write(ByteBuffer, int)}, which is off by default like
+	 * on devices before Lollipop.
+	 */
+	public void setDirectWrite(boolean directWrite) {
+		mDirectWrite = directWrite;
+	}
+
+	@Override
+	public boolean supportsDirectWrite() {
+		return mDirectWrite;
+	}
+
+	@Override
+	public synchronized int write(ByteBuffer data, int size) {
+		if (!mDirectWrite) {
+			throw new UnsupportedOperationException();
+		}
+		data.position(data.position() + size);
+		mWrittenBytes += size;
+		mSubmittedFrames = mWrittenBytes / mFrameSize;
+		return size;
+	}
+
+	@Override
+	public synchronized int getPlaybackHeadPosition() {
+		long frames = mSubmittedFrames;
+		if (mRealtime) {
+			long elapsedFrames = mPlaying ? (System.nanoTime() - mPlayStartNs)
+					* mSampleRate / 1000000000l : 0;
+			frames = Math.min(frames, elapsedFrames);
+		}
+		return (int) frames;
+	}
+
+	public synchronized long getWrittenBytes() {
+		return mWrittenBytes;
+	}
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A deterministic software stand-in for a {@link Decoder}. Every queued input
+ * buffer becomes one output buffer after a fixed latency, in queueing order,
+ * as long as an output slot is free. The first bytes of the input are copied
+ * to the output so consumers can verify what they received. Runs on a plain
+ * JVM, for driving the pipeline off-device.
+ */
+public class SimulatedDecoder implements Decoder {
+	private final ByteBuffer[] mInputBuffers;
+	private final ByteBuffer[] mOutputBuffers;
+	private final int mOutputSize;
+	private final long mLatencyNs;
+	private long mDecodeCostNs;
+	private long mStartLatencyUs;
+
+	private final CodecSlotQueue mFreeInput;
+	private final CodecSlotQueue mFreeOutput;
+	// queued input, waiting for its latency to expire
+	private final CodecSlotQueue mPending;
+	private final long[] mReadyAtNs;
+	// decoded output, waiting to be dequeued
+	private final CodecSlotQueue mDecoded;
+
+	private boolean mStarted;
+	private long mQueued;
+	private long mRendered;
+	private long mDropped;
+
+	/**
+	 * @param inputSlots number of input buffers
+	 * @param outputSlots number of output buffers
+	 * @param inputSize capacity of each input buffer in bytes
+	 * @param outputSize size of each decoded output in bytes, e.g. the PCM
+	 *            size of one audio frame
+	 * @param latencyUs time from queueing an input until its output is
+	 *            available
+	 */
+	public SimulatedDecoder(int inputSlots, int outputSlots, int inputSize,
+			int outputSize, long latencyUs) {
+		mInputBuffers = new ByteBuffer[inputSlots];
+		for (int i = 0; i < inputSlots; i++) {
+			mInputBuffers[i] = ByteBuffer.allocate(inputSize);
+		}
+		mOutputBuffers = new ByteBuffer[outputSlots];
+		for (int i = 0; i < outputSlots; i++) {
+			mOutputBuffers[i] = ByteBuffer.allocate(outputSize);
+		}
+		mOutputSize = outputSize;
+		mLatencyNs = latencyUs * 1000;
+		mFreeInput = new CodecSlotQueue(inputSlots);
+		mFreeOutput = new CodecSlotQueue(outputSlots);
+		mPending = new CodecSlotQueue(inputSlots);
+		mReadyAtNs = new long[inputSlots];
+		mDecoded = new CodecSlotQueue(outputSlots);
+		reset();
+	}
+
+	/**
+	 * Makes decoding each buffer keep the calling thread busy for
+	 * {@code costUs}, like a software decoder would.
+	 */
+	public synchronized void setDecodeCost(long costUs) {
+		mDecodeCostNs = costUs * 1000;
+	}
+
+	/**
+	 * Makes {@link #start()} take {@code latencyUs}, like a hardware codec
+	 * allocating its buffers.
+	 */
+	public synchronized void setStartLatency(long latencyUs) {
+		mStartLatencyUs = latencyUs;
+	}
+
+	@Override
+	public synchronized void start() {
+		long deadlineNs = System.nanoTime() + mStartLatencyUs * 1000;
+		while (waitUntil(deadlineNs)) {
+			// starting
+		}
+		mStarted = true;
+	}
+
+	@Override
+	public synchronized void flush() {
+		reset();
+	}
+
+	@Override
+	public synchronized void stop() {
+		mStarted = false;
+		reset();
+	}
+
+	@Override
+	public void release() {
+		stop();
+	}
+
+	@Override
+	public ByteBuffer[] getInputBuffers() {
+		return mInputBuffers;
+	}
+
+	@Override
+	public ByteBuffer[] getOutputBuffers() {
+		return mOutputBuffers;
+	}
+
+	@Override
+	public int dequeueInputBuffer(long timeoutUs) {
+		long deadlineNs = System.nanoTime() + timeoutUs * 1000;
+		while (true) {
+			synchronized (this) {
+				checkStarted();
+				decode();
+				if (!mFreeInput.isEmpty()) {
+					return mFreeInput.poll();
+				}
+			}
+			if (!waitUntil(deadlineNs)) {
+				return INFO_TRY_AGAIN_LATER;
+			}
+		}
+	}
+
+	@Override
+	public synchronized void queueInputBuffer(int index, int offset, int size,
+			long presentationTimeUs, int flags) {
+		checkStarted();
+		mReadyAtNs[index] = System.nanoTime() + mLatencyNs;
+		mPending.offer(index, offset, size, presentationTimeUs, flags);
+		++mQueued;
+	}
+
+	@Override
+	public int dequeueOutputBuffer(OutputInfo info, long timeoutUs) {
+		long deadlineNs = System.nanoTime() + timeoutUs * 1000;
+		while (true) {
+			synchronized (this) {
+				checkStarted();
+				decode();
+				if (!mDecoded.isEmpty()) {
+					info.offset = 0;
+					info.size = mDecoded.peekSize();
+					info.presentationTimeUs = mDecoded.peekTimeUs();
+					info.flags = mDecoded.peekFlags();
+					return mDecoded.poll();
+				}
+			}
+			if (!waitUntil(deadlineNs)) {
+				return INFO_TRY_AGAIN_LATER;
+			}
+		}
+	}
+
+	@Override
+	public synchronized void releaseOutputBuffer(int index, boolean render) {
+		if (render) {
+			++mRendered;
+		} else {
+			++mDropped;
+		}
+		mFreeOutput.offer(index);
+	}
+
+	public synchronized long getQueuedCount() {
+		return mQueued;
+	}
+
+	public synchronized long getRenderedCount() {
+		return mRendered;
+	}
+
+	public synchronized long getDroppedCount() {
+		return mDropped;
+	}
+
+	private void checkStarted() {
+		if (!mStarted) {
+			throw new IllegalStateException("decoder is not started");
+		}
+	}
+
+	private void reset() {
+		mFreeInput.clear();
+		for (int i = 0; i < mInputBuffers.length; i++) {
+			mFreeInput.offer(i);
+		}
+		mFreeOutput.clear();
+		for (int i = 0; i < mOutputBuffers.length; i++) {
+			mFreeOutput.offer(i);
+		}
+		mPending.clear();
+		mDecoded.clear();
+	}
+
+	// moves every input whose latency has expired to a free output slot
+	private void decode() {
+		long nowNs = System.nanoTime();
+		while (!mPending.isEmpty() && !mFreeOutput.isEmpty()) {
+			int in = mPending.peekIndex();
+			if (mReadyAtNs[in] - nowNs > 0) {
+				break;
+			}
+			int out = mFreeOutput.poll();
+			if (mDecodeCostNs > 0) {
+				long doneNs = System.nanoTime() + mDecodeCostNs;
+				while (System.nanoTime() - doneNs < 0) {
+					// busy, like the codec would be
+				}
+			}
+			byte[] src = mInputBuffers[in].array();
+			byte[] dst = mOutputBuffers[out].array();
+			System.arraycopy(src, mPending.peekOffset(), dst, 0,
+					Math.min(mPending.peekSize(), mOutputSize));
+			int size = (mPending.peekFlags() & FLAG_END_OF_STREAM) != 0
+					&& mPending.peekSize() == 0 ? 0 : mOutputSize;
+			mDecoded.offer(out, 0, size, mPending.peekTimeUs(),
+					mPending.peekFlags());
+			mPending.poll();
+			mInputBuffers[in].clear();
+			mFreeInput.offer(in);
+		}
+	}
+
+	private static boolean waitUntil(long deadlineNs) {
+		long remainingNs = deadlineNs - System.nanoTime();
+		if (remainingNs <= 0) {
+			return false;
+		}
+		LockSupport.parkNanos(Math.min(remainingNs, 100000));
+		return true;
+	}
+}
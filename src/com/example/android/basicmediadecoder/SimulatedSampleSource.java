@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * A deterministic software stand-in for a {@link SampleSource}. Each track
+ * produces fixed-size samples at a fixed frame duration, and samples of the
+ * selected tracks are interleaved by time like in a muxed file. Every byte
+ * of a sample holds the low byte of its sample number.
+ */
+public class SimulatedSampleSource implements SampleSource {
+	private static class Track {
+		final String mime;
+		final long frameDurationUs;
+		final int sampleSize;
+		final int syncInterval;
+		boolean selected;
+		long sampleIndex;
+
+		Track(String mime, long frameDurationUs, int sampleSize,
+				int syncInterval) {
+			this.mime = mime;
+			this.frameDurationUs = frameDurationUs;
+			this.sampleSize = sampleSize;
+			this.syncInterval = syncInterval;
+		}
+
+		long getSampleTime() {
+			return sampleIndex * frameDurationUs;
+		}
+	}
+
+	private final ArrayList<Track> mTracks = new ArrayList<Track>();
+	private final long mDurationUs;
+	private int mCurrent = -1;
+
+	/**
+	 * @param durationUs length of every track
+	 */
+	public SimulatedSampleSource(long durationUs) {
+		mDurationUs = durationUs;
+	}
+
+	/**
+	 * @param syncInterval every how many samples a sync sample occurs, 1 for
+	 *            audio
+	 * @return the index of the new track
+	 */
+	public int addTrack(String mime, long frameDurationUs, int sampleSize,
+			int syncInterval) {
+		mTracks.add(new Track(mime, frameDurationUs, sampleSize, syncInterval));
+		return mTracks.size() - 1;
+	}
+
+	@Override
+	public int getTrackCount() {
+		return mTracks.size();
+	}
+
+	@Override
+	public String getTrackMime(int track) {
+		return mTracks.get(track).mime;
+	}
+
+	@Override
+	public void selectTrack(int track) {
+		mTracks.get(track).selected = true;
+		mCurrent = -1;
+	}
+
+	@Override
+	public int getSampleTrackIndex() {
+		if (mCurrent < 0) {
+			long earliest = Long.MAX_VALUE;
+			for (int i = 0; i < mTracks.size(); i++) {
+				Track track = mTracks.get(i);
+				long timeUs = track.getSampleTime();
+				if (track.selected && timeUs < mDurationUs && timeUs < earliest) {
+					earliest = timeUs;
+					mCurrent = i;
+				}
+			}
+		}
+		return mCurrent;
+	}
+
+	@Override
+	public long getSampleTime() {
+		int current = getSampleTrackIndex();
+		return current < 0 ? -1 : mTracks.get(current).getSampleTime();
+	}
+
+	@Override
+	public int getSampleFlags() {
+		int current = getSampleTrackIndex();
+		if (current < 0) {
+			return 0;
+		}
+		Track track = mTracks.get(current);
+		return track.sampleIndex % track.syncInterval == 0 ? SAMPLE_FLAG_SYNC
+				: 0;
+	}
+
+	@Override
+	public int readSampleData(ByteBuffer buffer, int offset) {
+		int current = getSampleTrackIndex();
+		if (current < 0) {
+			return -1;
+		}
+		Track track = mTracks.get(current);
+		byte value = (byte) track.sampleIndex;
+		buffer.position(offset);
+		for (int i = 0; i < track.sampleSize; i++) {
+			buffer.put(value);
+		}
+		return track.sampleSize;
+	}
+
+	@Override
+	public boolean advance() {
+		int current = getSampleTrackIndex();
+		if (current < 0) {
+			return false;
+		}
+		++mTracks.get(current).sampleIndex;
+		mCurrent = -1;
+		return getSampleTrackIndex() >= 0;
+	}
+
+	@Override
+	public void seekTo(long timeUs) {
+		for (Track track : mTracks) {
+			long index = Math.max(0, timeUs) / track.frameDurationUs;
+			track.sampleIndex = index - index % track.syncInterval;
+		}
+		mCurrent = -1;
+	}
+
+	@Override
+	public void release() {
+	}
+}
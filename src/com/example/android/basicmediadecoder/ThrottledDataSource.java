@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.io.IOException;
+
+import android.media.DataSource;
+
+/**
+ * A stand-in for slow storage such as a network mount: every read of the
+ * wrapped {@link DataSource} pays a fixed latency plus the transfer time at
+ * a limited bandwidth, and every so often the storage hangs for a while.
+ */
+public class ThrottledDataSource implements DataSource {
+	private static final long MICROS_PER_SECOND = 1000000l;
+
+	private final DataSource mSource;
+	private final long mLatencyUs;
+	private final long mBytesPerSecond;
+	private long mStallIntervalBytes;
+	private long mStallUs;
+	private long mBytesSinceStall;
+
+	/**
+	 * @param latencyUs paid by every read
+	 * @param bytesPerSecond the bandwidth, 0 for unlimited
+	 */
+	public ThrottledDataSource(DataSource source, long latencyUs,
+			long bytesPerSecond) {
+		mSource = source;
+		mLatencyUs = latencyUs;
+		mBytesPerSecond = bytesPerSecond;
+	}
+
+	/**
+	 * Makes the storage hang for {@code stallUs} after every
+	 * {@code intervalBytes} read.
+	 */
+	public synchronized void setStalls(long intervalBytes, long stallUs) {
+		mStallIntervalBytes = intervalBytes;
+		mStallUs = stallUs;
+		mBytesSinceStall = 0;
+	}
+
+	@Override
+	public synchronized int readAt(long offset, byte[] buffer, int size) {
+		int n = mSource.readAt(offset, buffer, size);
+		long delayUs = mLatencyUs;
+		if (n > 0) {
+			if (mBytesPerSecond > 0) {
+				delayUs += n * MICROS_PER_SECOND / mBytesPerSecond;
+			}
+			mBytesSinceStall += n;
+			if (mStallIntervalBytes > 0
+					&& mBytesSinceStall >= mStallIntervalBytes) {
+				mBytesSinceStall -= mStallIntervalBytes;
+				delayUs += mStallUs;
+			}
+		}
+		if (delayUs > 0) {
+			try {
+				Thread.sleep(delayUs / 1000, (int) (delayUs % 1000) * 1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return -1;
+			}
+		}
+		return n;
+	}
+
+	@Override
+	public long getSize() {
+		return mSource.getSize();
+	}
+
+	@Override
+	public void close() throws IOException {
+		mSource.close();
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+/**
+ * Maps the sample timestamps of a stream onto one continuous timeline
+ * before they reach the decoders, the frame drop policies and the clock.
+ * Broadcast captures have PCR discontinuities, where every timestamp jumps
+ * to an unrelated value, and 33 bit PTS that wrap about every 26.5 hours.
+ * Compared against a clock started before such a jump, all later output
+ * would be dropped as late or held back as early.
+ * <p>
+ * Wraps are undone per track. A jump of more than the configured maximum
+ * between consecutive samples of a track is a discontinuity: the first
+ * track to see it rebases the stream so that the sample follows the
+ * previous one by the last frame duration. The other tracks see the same
+ * jump in their own samples a little later and take over that offset as
+ * long as it keeps them close to where they were, so audio and video stay
+ * in sync across the jump. A track whose timestamps jump on their own is
+ * rebased on its own.
+ * <p>
+ * Not thread safe, used by the demuxer thread only.
+ */
+public class TimestampNormalizer {
+	private static final String TAG = "TimestampNormalizer";
+	public static final long kDefaultMaxJumpUs = 2000000l;
+
+	private static class Track {
+		boolean started;
+		// the last timestamp with wraps undone, and where it was mapped to
+		long lastUnwrappedUs;
+		long lastNormalizedUs;
+		// the latest time mapped to, samples may come out of order
+		long maxNormalizedUs;
+		long wrapUs;
+		long offsetUs;
+		long frameUs;
+		// the rebase this track's offset came from
+		int rebase;
+	}
+
+	private final long mMaxJumpUs;
+	private final Track[] mTracks;
+	// the most recent rebase, for the other tracks to take over
+	private long mOffsetUs;
+	private int mRebases;
+
+	private long mWraps;
+	private long mDiscontinuities;
+	private PipelineMetrics.Counter mWrapCounter;
+	private PipelineMetrics.Counter mDiscontinuityCounter;
+
+	public TimestampNormalizer(int trackCount) {
+		this(trackCount, kDefaultMaxJumpUs);
+	}
+
+	/**
+	 * @param maxJumpUs the largest gap between consecutive samples of a
+	 *            track that is not a discontinuity, more than the
+	 *            reordering of B-frames and any gap in the stream
+	 */
+	public TimestampNormalizer(int trackCount, long maxJumpUs) {
+		mMaxJumpUs = maxJumpUs;
+		mTracks = new Track[trackCount];
+		for (int i = 0; i < trackCount; i++) {
+			mTracks[i] = new Track();
+		}
+	}
+
+	/**
+	 * Counts "timestamps.wraps" and "timestamps.discontinuities".
+	 */
+	public void setMetrics(PipelineMetrics metrics) {
+		mWrapCounter = metrics.counter("timestamps.wraps");
+		mDiscontinuityCounter = metrics.counter("timestamps.discontinuities");
+	}
+
+	/**
+	 * Starts over, e.g. after a seek. The timeline restarts at the
+	 * timestamps of the source.
+	 */
+	public void reset() {
+		for (Track track : mTracks) {
+			track.started = false;
+			track.wrapUs = 0;
+			track.offsetUs = 0;
+			track.frameUs = 0;
+			track.rebase = 0;
+		}
+		mOffsetUs = 0;
+		mRebases = 0;
+	}
+
+	/**
+	 * @return {@code timeUs} of the next sample of {@code track} on the
+	 *         continuous timeline
+	 */
+	public long normalize(int track, long timeUs) {
+		Track t = mTracks[track];
+		if (!t.started) {
+			t.started = true;
+			// a track starting after a rebase starts in its segment
+			t.offsetUs = mOffsetUs;
+			t.rebase = mRebases;
+			update(t, timeUs);
+			t.maxNormalizedUs = t.lastNormalizedUs;
+			return t.lastNormalizedUs;
+		}
+		long unwrappedUs = timeUs + t.wrapUs;
+		long deltaUs = unwrappedUs - t.lastUnwrappedUs;
+		if (deltaUs < -PresentationQueue.kPtsWrapUs / 2) {
+			t.wrapUs += PresentationQueue.kPtsWrapUs;
+			unwrappedUs += PresentationQueue.kPtsWrapUs;
+			++mWraps;
+			if (mWrapCounter != null) {
+				mWrapCounter.increment();
+			}
+			Log.d(TAG, "track {} wrapped at {}", track, timeUs);
+		} else if (deltaUs > PresentationQueue.kPtsWrapUs / 2) {
+			// a sample from before the last wrap, e.g. reordered
+			unwrappedUs -= PresentationQueue.kPtsWrapUs;
+		}
+		deltaUs = unwrappedUs - t.lastUnwrappedUs;
+		if (deltaUs > mMaxJumpUs || deltaUs < -mMaxJumpUs) {
+			rebase(track, t, unwrappedUs);
+		} else if (deltaUs > 0) {
+			t.frameUs = deltaUs;
+		}
+		update(t, unwrappedUs);
+		return t.lastNormalizedUs;
+	}
+
+	/**
+	 * @return how often the timestamps of a track wrapped
+	 */
+	public long getWrapCount() {
+		return mWraps;
+	}
+
+	/**
+	 * @return how many discontinuities rebased the stream or a track
+	 */
+	public long getDiscontinuityCount() {
+		return mDiscontinuities;
+	}
+
+	private void rebase(int track, Track t, long unwrappedUs) {
+		if (t.rebase != mRebases) {
+			// another track got here first, join its segment if that keeps
+			// this track close to where it was
+			long candidateUs = unwrappedUs + mOffsetUs;
+			long deltaUs = candidateUs - t.lastNormalizedUs;
+			if (deltaUs <= mMaxJumpUs && deltaUs >= -mMaxJumpUs) {
+				t.offsetUs = mOffsetUs;
+				t.rebase = mRebases;
+				Log.d(TAG, "track {} joined rebase at {}", track, candidateUs);
+				return;
+			}
+		}
+		// continue one frame after the latest sample
+		t.offsetUs = t.maxNormalizedUs + t.frameUs - unwrappedUs;
+		mOffsetUs = t.offsetUs;
+		t.rebase = ++mRebases;
+		++mDiscontinuities;
+		if (mDiscontinuityCounter != null) {
+			mDiscontinuityCounter.increment();
+		}
+		Log.d(TAG, "track {} discontinuity, offset {}", track, t.offsetUs);
+	}
+
+	private void update(Track t, long unwrappedUs) {
+		t.lastUnwrappedUs = unwrappedUs;
+		t.lastNormalizedUs = unwrappedUs + t.offsetUs;
+		t.maxNormalizedUs = Math.max(t.maxNormalizedUs, t.lastNormalizedUs);
+	}
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Drives one {@link Decoder}: feeds it samples from a {@link SampleQueue},
+ * collects its decoded output and releases that output in presentation
+ * order when it is due.
+ * Subclasses decide what rendering a buffer means for their track.
+ */
+public abstract class TrackDecoder {
+	private static final String TAG = "TrackDecoder";
+	// input kept to match against output for the decode latency
+	private static final int kInputHistory = 32;
+
+	protected final String mName;
+	protected final Decoder mDecoder;
+	protected final SampleQueue mSamples;
+	private final FrameDropPolicy mPolicy;
+	private MediaClock mClock;
+	private boolean mForceShow;
+
+	private ByteBuffer[] mInputBuffers;
+	private ByteBuffer[] mOutputBuffers;
+	// sized from the codec buffer count once the decoder is started
+	private CodecSlotQueue mInIndex;
+	// decoded output in presentation order
+	private PresentationQueue mOutIndex;
+	private final Decoder.OutputInfo mInfo = new Decoder.OutputInfo();
+	private int mDequeueCounter;
+
+	// the end of stream was queued to the decoder
+	private boolean mInputEnded;
+	// the decoder returned its end of stream
+	private boolean mEndOfStream;
+	private long mTimestampUs;
+	private long mNextDeadlineUs = Long.MAX_VALUE;
+
+	private long mRendered;
+	private long mDropped;
+	private long mSkipped;
+
+	// all null until metrics are attached
+	private LatencyHistogram mQueueInputUs;
+	private LatencyHistogram mDecodeUs;
+	private LatencyHistogram mRenderUs;
+	private LatencyHistogram mSampleQueueDepth;
+	private LatencyHistogram mInIndexDepth;
+	private LatencyHistogram mOutIndexDepth;
+	private PipelineMetrics.Counter mRenderedCounter;
+	private PipelineMetrics.Counter mDroppedCounter;
+	private PipelineMetrics.Counter mSkippedCounter;
+	// queue time of recent input by presentation time
+	private final long[] mInputTimeUs = new long[kInputHistory];
+	private final long[] mInputNs = new long[kInputHistory];
+	private int mInputPos;
+
+	/**
+	 * @param name track name used in logs, e.g. "video"
+	 * @param policy decides which output is held back, rendered or dropped
+	 */
+	protected TrackDecoder(String name, Decoder decoder, SampleQueue samples,
+			FrameDropPolicy policy) {
+		mName = name;
+		mDecoder = decoder;
+		mSamples = samples;
+		mPolicy = policy;
+	}
+
+	/**
+	 * Lets the policy drop samples before they are decoded once the clock is
+	 * running and they could only be late.
+	 */
+	public void setClock(MediaClock clock) {
+		mClock = clock;
+	}
+
+	/**
+	 * Records the stages of this track into {@code metrics} under the track
+	 * name, e.g. "video.decodeUs". Must be called before {@link #start()}.
+	 */
+	public void setMetrics(PipelineMetrics metrics) {
+		mQueueInputUs = metrics.histogram(mName + ".queueInputUs");
+		mDecodeUs = metrics.histogram(mName + ".decodeUs");
+		mRenderUs = metrics.histogram(mName + ".renderUs");
+		mSampleQueueDepth = metrics.histogram(mName + ".sampleQueueDepth");
+		mInIndexDepth = metrics.histogram(mName + ".inIndexDepth");
+		mOutIndexDepth = metrics.histogram(mName + ".outIndexDepth");
+		mRenderedCounter = metrics.counter(mName + ".rendered");
+		mDroppedCounter = metrics.counter(mName + ".dropped");
+		mSkippedCounter = metrics.counter(mName + ".skipped");
+		Arrays.fill(mInputTimeUs, Long.MIN_VALUE);
+	}
+
+	/**
+	 * Renders every buffer as soon as it is decoded, ignoring the clock.
+	 */
+	public void setForceShow(boolean forceShow) {
+		mForceShow = forceShow;
+	}
+
+	public void start() {
+		Log.v(TAG, "{} decoder start", mName);
+		mDecoder.start();
+		mInputBuffers = mDecoder.getInputBuffers();
+		mOutputBuffers = mDecoder.getOutputBuffers();
+		mInIndex = new CodecSlotQueue(mInputBuffers.length);
+		mOutIndex = new PresentationQueue(mOutputBuffers.length);
+		mInputEnded = false;
+		mEndOfStream = false;
+	}
+
+	/**
+	 * Drops everything queued in and decoded by the decoder, e.g. for a
+	 * seek. Free slots are dequeued again by the next
+	 * {@link #doSomeWork()}.
+	 */
+	public void flush() {
+		Log.v(TAG, "{} decoder flush", mName);
+		mDecoder.flush();
+		mInIndex.clear();
+		mOutIndex.clear();
+		mPolicy.reset();
+		Arrays.fill(mInputTimeUs, Long.MIN_VALUE);
+		mInputEnded = false;
+		mEndOfStream = false;
+		mNextDeadlineUs = Long.MAX_VALUE;
+	}
+
+	public void release() {
+		mDecoder.stop();
+		mDecoder.release();
+	}
+
+	/**
+	 * Moves free input slots, decoded output and demuxed samples between the
+	 * decoder and the queues.
+	 *
+	 * @return true if anything was dequeued or queued
+	 */
+	public boolean doSomeWork() {
+		boolean progress = false;
+		mDequeueCounter = 0;
+		do {
+			int inIdx = mDecoder.dequeueInputBuffer(0);
+			if (inIdx < 0) {
+				break;
+			}
+			mInIndex.offer(inIdx);
+			++mDequeueCounter;
+		} while (true);
+
+		progress |= mDequeueCounter > 0;
+		Log.v(TAG, "{} dequeue input: {}", mName, mDequeueCounter);
+		Log.v(TAG, "{} in index size: {}", mName, mInIndex.size());
+
+		mDequeueCounter = 0;
+		do {
+			Decoder.OutputInfo info = mInfo;
+			int outIdx = mDecoder.dequeueOutputBuffer(info, 0);
+			if (outIdx < 0) {
+				if (Decoder.INFO_OUTPUT_BUFFERS_CHANGED == outIdx) {
+					mOutputBuffers = mDecoder.getOutputBuffers();
+					mOutIndex.clear();
+					mOutIndex.ensureCapacity(mOutputBuffers.length);
+				} else if (Decoder.INFO_OUTPUT_FORMAT_CHANGED == outIdx) {
+					Log.e(TAG, "{} INFO_OUTPUT_FORMAT_CHANGED", mName);
+				}
+				break;
+			}
+			// info is reused, so only look at it for a dequeued buffer
+			++mDequeueCounter;
+			if ((info.flags & Decoder.FLAG_END_OF_STREAM) != 0) {
+				Log.d(TAG, "{} BUFFER_FLAG_END_OF_STREAM", mName);
+				mEndOfStream = true;
+				if (info.size == 0) {
+					mDecoder.releaseOutputBuffer(outIdx, false);
+					continue;
+				}
+			}
+			mOutIndex.offer(outIdx, info.offset, info.size,
+					info.presentationTimeUs, info.flags);
+			if (mDecodeUs != null) {
+				recordDecodeLatency(info.presentationTimeUs);
+			}
+		} while (true);
+
+		progress |= mDequeueCounter > 0;
+		Log.v(TAG, "{} dequeue output: {}", mName, mDequeueCounter);
+		Log.v(TAG, "{} out index size: {}", mName, mOutIndex.size());
+		if (mSampleQueueDepth != null) {
+			mSampleQueueDepth.record(mSamples.size());
+			mInIndexDepth.record(mInIndex.size());
+			mOutIndexDepth.record(mOutIndex.size());
+		}
+
+		if (mInputEnded) {
+			return progress;
+		}
+		// fill every free slot from what is queued, and hand the samples
+		// back in one go
+		int available = mSamples.size();
+		int consumed = 0;
+		while (consumed < available && !mInIndex.isEmpty()) {
+			SampleQueue.Sample sample = mSamples.get(consumed++);
+			if (!mForceShow && mClock != null && mClock.isStarted()
+					&& mPolicy.shouldSkipInput(sample.timeUs,
+							mClock.peekTimeUs(), sample.flags)) {
+				Log.v(TAG, "skip {} sample: {}", mName, sample.timeUs);
+				++mSkipped;
+				if (mSkippedCounter != null) {
+					mSkippedCounter.increment();
+				}
+				continue;
+			}
+			int inIdx = mInIndex.poll();
+			ByteBuffer inputBuffer = mInputBuffers[inIdx];
+			inputBuffer.clear();
+			inputBuffer.put(sample.data, 0, sample.size);
+			long startNs = System.nanoTime();
+			mDecoder.queueInputBuffer(inIdx, 0, sample.size, sample.timeUs, 0);
+			if (mQueueInputUs != null) {
+				mQueueInputUs.record((System.nanoTime() - startNs) / 1000);
+				mInputTimeUs[mInputPos] = sample.timeUs;
+				mInputNs[mInputPos] = startNs;
+				mInputPos = (mInputPos + 1) % kInputHistory;
+			}
+		}
+		if (consumed > 0) {
+			Log.v(TAG, "{} queued samples: {}", mName, consumed);
+			mSamples.release(consumed);
+			progress = true;
+		}
+		if (consumed == available && !mInIndex.isEmpty()
+				&& mSamples.isEndOfStream()) {
+			// lets the decoder return what it still holds
+			mDecoder.queueInputBuffer(mInIndex.poll(), 0, 0, 0,
+					Decoder.FLAG_END_OF_STREAM);
+			mInputEnded = true;
+			progress = true;
+		}
+		return progress;
+	}
+
+	/**
+	 * Releases every output buffer that is due at {@code timeUs}.
+	 *
+	 * @return true if any buffer was released
+	 */
+	public boolean doRender(long timeUs) {
+		boolean progress = false;
+		mNextDeadlineUs = Long.MAX_VALUE;
+		while (!mOutIndex.isEmpty()) {
+			int outIdx = mOutIndex.peekIndex();
+			long presentationTimeUs = mOutIndex.peekTimeUs();
+			if (!mForceShow) {
+				Log.v(TAG, "releaseOutputBuffer {} ready: {}", mName, timeUs
+						- presentationTimeUs);
+				int decision = mPolicy.onOutputFrame(presentationTimeUs, timeUs);
+				if (decision == FrameDropPolicy.WAIT) {
+					Log.v(TAG, "too early {}", mName);
+					mNextDeadlineUs = mPolicy.getDueTimeUs(presentationTimeUs);
+					break;
+				}
+				if (decision == FrameDropPolicy.DROP) {
+					Log.v(TAG, "drop {}", mName);
+					mOutIndex.poll();
+					mDecoder.releaseOutputBuffer(outIdx, false);
+					++mDropped;
+					if (mDroppedCounter != null) {
+						mDroppedCounter.increment();
+					}
+					progress = true;
+					continue;
+				}
+			}
+			Log.v(TAG, "play {}: {}", mName, presentationTimeUs);
+			mTimestampUs = presentationTimeUs;
+			long startNs = System.nanoTime();
+			if (!renderOutputBuffer(outIdx, mOutputBuffers[outIdx],
+					mOutIndex.peekOffset(), mOutIndex.peekSize(),
+					presentationTimeUs)) {
+				break;
+			}
+			long renderUs = (System.nanoTime() - startNs) / 1000;
+			mPolicy.onFrameRendered(renderUs);
+			mOutIndex.poll();
+			++mRendered;
+			if (mRenderUs != null) {
+				mRenderUs.record(renderUs);
+				mRenderedCounter.increment();
+			}
+			progress = true;
+		}
+		return progress;
+	}
+
+	/**
+	 * Records the time from queueing the input with the same presentation
+	 * time until its output was dequeued.
+	 */
+	private void recordDecodeLatency(long presentationTimeUs) {
+		for (int i = 0; i < kInputHistory; i++) {
+			if (mInputTimeUs[i] == presentationTimeUs) {
+				mInputTimeUs[i] = Long.MIN_VALUE;
+				mDecodeUs.record((System.nanoTime() - mInputNs[i]) / 1000);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Renders a due output buffer.
+	 *
+	 * @return true if the buffer was fully consumed and released back to the
+	 *         decoder, false to retry it on the next pass
+	 */
+	protected abstract boolean renderOutputBuffer(int index,
+			ByteBuffer buffer, int offset, int size, long presentationTimeUs);
+
+	/**
+	 * @return presentation time of the next buffer to render, or
+	 *         {@link Long#MAX_VALUE} if no decoded output is waiting
+	 */
+	public long getPendingTimeUs() {
+		return mOutIndex.isEmpty() ? Long.MAX_VALUE : mOutIndex.peekTimeUs();
+	}
+
+	/**
+	 * @return true once the sample queue has ended and the decoder has
+	 *         returned all of its output
+	 */
+	public boolean isEndOfStream() {
+		return mEndOfStream;
+	}
+
+	/**
+	 * @return presentation time of the last rendered buffer
+	 */
+	public long getTimestampUs() {
+		return mTimestampUs;
+	}
+
+	/**
+	 * @return the clock time at which the next held back buffer becomes due,
+	 *         as of the last {@link #doRender(long)}, or
+	 *         {@link Long#MAX_VALUE} if none is held back
+	 */
+	public long getNextDeadlineUs() {
+		return mNextDeadlineUs;
+	}
+
+	public long getRenderedCount() {
+		return mRendered;
+	}
+
+	/**
+	 * @return how many decoded buffers were released without rendering
+	 */
+	public long getDroppedCount() {
+		return mDropped;
+	}
+
+	/**
+	 * @return how many samples were dropped before decoding
+	 */
+	public long getSkippedCount() {
+		return mSkipped;
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.basicmediadecoder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import android.media.DataSource;
+
+/**
+ * A {@link DataSource} reading a local transport stream file through
+ * {@link RandomAccessFile}. The file is taken not to change while it is
+ * open, recordings still being written are read with
+ * {@link LiveTsDataSource}. Not thread safe.
+ */
+public class TsDataSource implements DataSource {
+	private RandomAccessFile mFile;
+	// queried once, getSize() is called on every read of a cache
+	private long mSize = -1;
+
+	public TsDataSource(String path) {
+		mFile = null;
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(path, "r");
+			mSize = file.length();
+			mFile = file;
+		} catch (IOException e) {
+			e.printStackTrace();
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException e2) {
+				}
+			}
+		}
+	}
+
+	@Override
+	public int readAt(long offset, byte[] buffer, int size) {
+		if (mFile != null) {
+			try {
+				mFile.seek(offset);
+				return mFile.read(buffer, 0, Math.min(size, buffer.length));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public long getSize() {
+		return mFile != null ? mSize : -1;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (mFile != null) {
+			mFile.close();
+			mFile = null;
+		}
+	}
+}
@@ -0,0 +1,435 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.basicmediadecoder;
+
+import android.media.DataSource;
+
+/**
+ * A MPEG-2 transport stream demuxer running on a {@link DataSource}. It
+ * follows the PAT and PMT to find the elementary streams and reassembles
+ * their PES packets. Reads go through one reused buffer and every stream
+ * keeps its own growable PES buffer, so steady-state demuxing does not
+ * allocate. Not thread safe.
+ */
+public class TsDemuxer {
+	public static final int TS_PACKET_SIZE = 188;
+	public static final long NO_TIMESTAMP = -1;
+
+	public static final int STREAM_TYPE_MPEG1_VIDEO = 0x01;
+	public static final int STREAM_TYPE_MPEG2_VIDEO = 0x02;
+	public static final int STREAM_TYPE_MPEG1_AUDIO = 0x03;
+	public static final int STREAM_TYPE_MPEG2_AUDIO = 0x04;
+	public static final int STREAM_TYPE_AAC_ADTS = 0x0f;
+	public static final int STREAM_TYPE_H264 = 0x1b;
+	public static final int STREAM_TYPE_HEVC = 0x24;
+	public static final int STREAM_TYPE_AC3 = 0x81;
+
+	private static final int kSyncByte = 0x47;
+	private static final int kPatPid = 0x0000;
+	private static final int kMaxPid = 0x1fff;
+	private static final int kPacketsPerRead = 64;
+	private static final int kMaxSectionSize = 1024;
+
+	/**
+	 * A reassembled PES packet. The object and its data are reused, so they
+	 * are only valid for the duration of {@link Listener#onPesPacket}.
+	 */
+	public static class PesPacket {
+		public int pid;
+		public int streamType;
+		/** PES payload, without the PES header */
+		public byte[] data;
+		public int offset;
+		public int size;
+		/** presentation time in 90 kHz units, or {@link #NO_TIMESTAMP} */
+		public long pts;
+		/** decoding time in 90 kHz units, or {@link #NO_TIMESTAMP} */
+		public long dts;
+		/** byte offset of the first transport packet of this PES packet */
+		public long position;
+		/** set when the first packet carried the random access indicator */
+		public boolean randomAccess;
+	}
+
+	public interface Listener {
+		/**
+		 * Called once for every elementary stream declared in a PMT.
+		 */
+		void onStreamFound(int pid, int streamType);
+
+		void onPesPacket(PesPacket packet);
+	}
+
+	private static class Stream {
+		final int streamType;
+		byte[] data = new byte[64 * 1024];
+		int size;
+		boolean started;
+		long position;
+		boolean randomAccess;
+		int continuityCounter = -1;
+
+		Stream(int streamType) {
+			this.streamType = streamType;
+		}
+
+		void append(byte[] src, int offset, int length) {
+			if (size + length > data.length) {
+				byte[] grown = new byte[Math.max(data.length * 2, size + length)];
+				System.arraycopy(data, 0, grown, 0, size);
+				data = grown;
+			}
+			System.arraycopy(src, offset, data, size, length);
+			size += length;
+		}
+	}
+
+	private static class Section {
+		final byte[] data = new byte[kMaxSectionSize + 3];
+		int size;
+		boolean started;
+		int continuityCounter = -1;
+	}
+
+	private final DataSource mSource;
+	private final Listener mListener;
+	private final byte[] mBuffer = new byte[kPacketsPerRead * TS_PACKET_SIZE];
+	// DataSource always reads to the start of the buffer, so reads that
+	// top up a partial buffer land here first
+	private final byte[] mTail = new byte[kPacketsPerRead * TS_PACKET_SIZE];
+	private int mBufferSize;
+	private int mBufferPos;
+	private long mBufferOffset;
+
+	// PSI and PES state, indexed by PID
+	private final Section[] mSections = new Section[kMaxPid + 1];
+	private final Stream[] mStreams = new Stream[kMaxPid + 1];
+	private final PesPacket mPesPacket = new PesPacket();
+
+	private long mPackets;
+	private long mSyncLosses;
+	private long mContinuityErrors;
+
+	public TsDemuxer(DataSource source, Listener listener) {
+		mSource = source;
+		mListener = listener;
+		mSections[kPatPid] = new Section();
+	}
+
+	/**
+	 * Demuxes up to {@code maxPackets} transport packets.
+	 *
+	 * @return the number of packets processed, or -1 at the end of the source
+	 */
+	public int demux(int maxPackets) {
+		int count = 0;
+		while (count < maxPackets) {
+			if (mBufferSize - mBufferPos < TS_PACKET_SIZE && !fill()) {
+				if (count == 0) {
+					flush();
+					return -1;
+				}
+				break;
+			}
+			if ((mBuffer[mBufferPos] & 0xff) != kSyncByte) {
+				++mSyncLosses;
+				resync();
+				continue;
+			}
+			parsePacket(mBuffer, mBufferPos, mBufferOffset + mBufferPos);
+			mBufferPos += TS_PACKET_SIZE;
+			++count;
+		}
+		return count;
+	}
+
+	/**
+	 * Continues demuxing from {@code position}, which is rounded down to a
+	 * packet boundary. Partially assembled PES packets are dropped, the
+	 * program tables are kept.
+	 */
+	public void seekTo(long position) {
+		mBufferOffset = position - position % TS_PACKET_SIZE;
+		mBufferPos = 0;
+		mBufferSize = 0;
+		for (int pid = 0; pid <= kMaxPid; pid++) {
+			Stream stream = mStreams[pid];
+			if (stream != null) {
+				stream.size = 0;
+				stream.started = false;
+				stream.continuityCounter = -1;
+			}
+		}
+	}
+
+	/**
+	 * @return the source offset of the next packet to be demuxed
+	 */
+	public long getPosition() {
+		return mBufferOffset + mBufferPos;
+	}
+
+	/**
+	 * Delivers every PES packet still being assembled, e.g. at the end of
+	 * the source.
+	 */
+	public void flush() {
+		for (int pid = 0; pid <= kMaxPid; pid++) {
+			Stream stream = mStreams[pid];
+			if (stream != null && stream.started) {
+				emitPes(pid, stream);
+			}
+		}
+	}
+
+	public long getPacketCount() {
+		return mPackets;
+	}
+
+	public long getSyncLossCount() {
+		return mSyncLosses;
+	}
+
+	public long getContinuityErrorCount() {
+		return mContinuityErrors;
+	}
+
+	private boolean fill() {
+		int remaining = mBufferSize - mBufferPos;
+		if (remaining > 0) {
+			System.arraycopy(mBuffer, mBufferPos, mBuffer, 0, remaining);
+		}
+		mBufferOffset += mBufferPos;
+		mBufferPos = 0;
+		mBufferSize = remaining;
+		while (mBufferSize < TS_PACKET_SIZE) {
+			int n = readAt(mBufferOffset + mBufferSize, mBufferSize);
+			if (n <= 0) {
+				return false;
+			}
+			mBufferSize += n;
+		}
+		return true;
+	}
+
+	private int readAt(long offset, int bufferPos) {
+		if (bufferPos == 0) {
+			return mSource.readAt(offset, mBuffer, mBuffer.length);
+		}
+		int n = mSource.readAt(offset, mTail, mBuffer.length - bufferPos);
+		if (n > 0) {
+			System.arraycopy(mTail, 0, mBuffer, bufferPos, n);
+		}
+		return n;
+	}
+
+	private void resync() {
+		int pos = mBufferPos + 1;
+		while (pos < mBufferSize) {
+			if ((mBuffer[pos] & 0xff) == kSyncByte
+					&& (pos + TS_PACKET_SIZE >= mBufferSize
+					|| (mBuffer[pos + TS_PACKET_SIZE] & 0xff) == kSyncByte)) {
+				break;
+			}
+			++pos;
+		}
+		mBufferPos = pos;
+	}
+
+	private void parsePacket(byte[] p, int pos, long position) {
+		++mPackets;
+		boolean transportError = (p[pos + 1] & 0x80) != 0;
+		if (transportError) {
+			return;
+		}
+		boolean unitStart = (p[pos + 1] & 0x40) != 0;
+		int pid = ((p[pos + 1] & 0x1f) << 8) | (p[pos + 2] & 0xff);
+		int adaptationControl = (p[pos + 3] >> 4) & 0x03;
+		int continuityCounter = p[pos + 3] & 0x0f;
+
+		int payload = pos + 4;
+		boolean randomAccess = false;
+		if ((adaptationControl & 0x02) != 0) {
+			int adaptationLength = p[pos + 4] & 0xff;
+			if (adaptationLength > 0) {
+				randomAccess = (p[pos + 5] & 0x40) != 0;
+			}
+			payload += 1 + adaptationLength;
+		}
+		int end = pos + TS_PACKET_SIZE;
+		if ((adaptationControl & 0x01) == 0 || payload >= end) {
+			return;
+		}
+
+		Section section = mSections[pid];
+		if (section != null) {
+			parseSection(section, pid, p, payload, end, unitStart,
+					continuityCounter);
+			return;
+		}
+		Stream stream = mStreams[pid];
+		if (stream == null) {
+			return;
+		}
+		if (stream.continuityCounter >= 0
+				&& continuityCounter != ((stream.continuityCounter + 1) & 0x0f)) {
+			if (continuityCounter == stream.continuityCounter) {
+				// duplicate packet
+				return;
+			}
+			++mContinuityErrors;
+			stream.started = false;
+			stream.size = 0;
+		}
+		stream.continuityCounter = continuityCounter;
+		if (unitStart) {
+			if (stream.started) {
+				emitPes(pid, stream);
+			}
+			stream.started = true;
+			stream.size = 0;
+			stream.position = position;
+			stream.randomAccess = randomAccess;
+		}
+		if (stream.started) {
+			stream.append(p, payload, end - payload);
+		}
+	}
+
+	private void parseSection(Section section, int pid, byte[] p, int pos,
+			int end, boolean unitStart, int continuityCounter) {
+		if (section.continuityCounter >= 0
+				&& continuityCounter != ((section.continuityCounter + 1) & 0x0f)) {
+			section.started = false;
+		}
+		section.continuityCounter = continuityCounter;
+		if (unitStart) {
+			pos += 1 + (p[pos] & 0xff);
+			section.started = true;
+			section.size = 0;
+		}
+		if (!section.started || pos >= end) {
+			return;
+		}
+		int n = Math.min(end - pos, section.data.length - section.size);
+		System.arraycopy(p, pos, section.data, section.size, n);
+		section.size += n;
+		if (section.size < 3) {
+			return;
+		}
+		int sectionLength = 3 + (((section.data[1] & 0x0f) << 8)
+				| (section.data[2] & 0xff));
+		if (sectionLength > section.data.length) {
+			section.started = false;
+			return;
+		}
+		if (section.size < sectionLength) {
+			return;
+		}
+		section.started = false;
+		if (pid == kPatPid) {
+			parsePat(section.data, sectionLength);
+		} else {
+			parsePmt(section.data, sectionLength);
+		}
+	}
+
+	private void parsePat(byte[] d, int length) {
+		if ((d[0] & 0xff) != 0x00) {
+			return;
+		}
+		// skip the 8 byte header, stop before the CRC
+		for (int i = 8; i + 4 <= length - 4; i += 4) {
+			int program = ((d[i] & 0xff) << 8) | (d[i + 1] & 0xff);
+			int pid = ((d[i + 2] & 0x1f) << 8) | (d[i + 3] & 0xff);
+			if (program != 0 && mSections[pid] == null && mStreams[pid] == null) {
+				mSections[pid] = new Section();
+			}
+		}
+	}
+
+	private void parsePmt(byte[] d, int length) {
+		if ((d[0] & 0xff) != 0x02 || length < 12) {
+			return;
+		}
+		int programInfoLength = ((d[10] & 0x0f) << 8) | (d[11] & 0xff);
+		int i = 12 + programInfoLength;
+		while (i + 5 <= length - 4) {
+			int streamType = d[i] & 0xff;
+			int pid = ((d[i + 1] & 0x1f) << 8) | (d[i + 2] & 0xff);
+			int infoLength = ((d[i + 3] & 0x0f) << 8) | (d[i + 4] & 0xff);
+			if (mStreams[pid] == null && mSections[pid] == null) {
+				mStreams[pid] = new Stream(streamType);
+				mListener.onStreamFound(pid, streamType);
+			}
+			i += 5 + infoLength;
+		}
+	}
+
+	private void emitPes(int pid, Stream stream) {
+		stream.started = false;
+		byte[] d = stream.data;
+		int size = stream.size;
+		if (size < 9 || d[0] != 0 || d[1] != 0 || d[2] != 1) {
+			return;
+		}
+		int headerLength = 9 + (d[8] & 0xff);
+		if (headerLength > size) {
+			return;
+		}
+		int ptsDtsFlags = (d[7] >> 6) & 0x03;
+		PesPacket packet = mPesPacket;
+		packet.pts = NO_TIMESTAMP;
+		packet.dts = NO_TIMESTAMP;
+		if ((ptsDtsFlags & 0x02) != 0 && headerLength >= 14) {
+			packet.pts = parseTimestamp(d, 9);
+			packet.dts = packet.pts;
+			if (ptsDtsFlags == 0x03 && headerLength >= 19) {
+				packet.dts = parseTimestamp(d, 14);
+			}
+		}
+		int pesLength = ((d[4] & 0xff) << 8) | (d[5] & 0xff);
+		int end = size;
+		if (pesLength != 0) {
+			end = Math.min(size, 6 + pesLength);
+		}
+		packet.pid = pid;
+		packet.streamType = stream.streamType;
+		packet.data = d;
+		packet.offset = headerLength;
+		packet.size = end - headerLength;
+		packet.position = stream.position;
+		packet.randomAccess = stream.randomAccess;
+		mListener.onPesPacket(packet);
+	}
+
+	static long parseTimestamp(byte[] d, int i) {
+		return (((long) (d[i] >> 1) & 0x07) << 30)
+				| ((d[i + 1] & 0xffl) << 22)
+				| (((d[i + 2] & 0xffl) >> 1) << 15)
+				| ((d[i + 3] & 0xffl) << 7)
+				| ((d[i + 4] & 0xffl) >> 1);
+	}
+
+	/**
+	 * Converts a 90 kHz timestamp to microseconds.
+	 */
+	public static long timestampToUs(long timestamp) {
+		return timestamp == NO_TIMESTAMP ? NO_TIMESTAMP
+				: (timestamp * 100) / 9;
+	}
+}
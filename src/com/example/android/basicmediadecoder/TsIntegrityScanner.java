@@ -0,0 +1,873 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import android.annotation.TargetApi;
+import android.media.DataSource;
+import android.os.Build;
+
+/**
+ * Checks a transport stream file for damage without decoding it, e.g. to
+ * qualify recordings on a server before they are played. The file is split
+ * into packet aligned ranges that are scanned in parallel on a
+ * {@link ForkJoinPool}, each through a {@link DataSource} of its own, so a
+ * file is scanned about as fast as the storage delivers it.
+ * <p>
+ * Per PID it checks sync bytes, continuity counters, that every PES packet
+ * starts with a start code and has the length its header declares, and the
+ * interval and jitter of the PCR against the byte position. Every range
+ * only knows its own packets, so it also keeps what it saw at its edges,
+ * and joining two ranges checks the packets across the seam as if they had
+ * been scanned in one go. Only where bytes were lost, so that the packets
+ * of a range no longer start on its boundary, does the range find the
+ * packets on its own, which may report the damage slightly differently
+ * than one scan would. As a side product the scan builds the
+ * {@link KeyframeIndex} of the file, like {@link KeyframeIndexer}.
+ * <p>
+ * {@link ForkJoinPool} needs API level 21 on devices, so callers in the app
+ * must check {@link Build.VERSION#SDK_INT} first.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class TsIntegrityScanner {
+	private static final String TAG = "TsIntegrityScanner";
+
+	private static final int kPacketSize = TsDemuxer.TS_PACKET_SIZE;
+	private static final int kSyncByte = 0x47;
+	private static final int kMaxPid = 0x1fff;
+	private static final int kNullPid = 0x1fff;
+	private static final long kDefaultRangeBytes = 32 * 1024 * kPacketSize;
+	private static final int kReadSize = 2048 * kPacketSize;
+	// sync bytes that must follow one for it to start a packet while out
+	// of sync, so that payload does not pass for a packet
+	private static final int kSyncConfirmPackets = 3;
+	// the program tables are repeated well within this
+	private static final long kTableSearchBytes = 4 * 1024 * 1024;
+	private static final int kTablePacketsPerStep = 4096;
+	// a PCR gap beyond this is a discontinuity rather than an interval
+	private static final long kMaxPcrGapUs = 1000000l;
+	private static final long kPcrWrap = (1l << 33) * 300;
+	private static final long kTimestampMask = (1l << 33) - 1;
+	private static final int kMaxErrorOffsets = 64;
+
+	/**
+	 * Opens the file being scanned. Every range is read through a source of
+	 * its own, so sources do not need to be thread safe.
+	 */
+	public interface SourceFactory {
+		DataSource open() throws IOException;
+	}
+
+	/**
+	 * What was found for one PID.
+	 */
+	public static class PidReport {
+		public final int pid;
+		/** from the PMT, or -1 for tables and undeclared PIDs */
+		public final int streamType;
+		public long packets;
+		public long continuityErrors;
+		public long pesErrors;
+		public long pcrCount;
+		/** PCR jumps, signalled or not, which are left out of the below */
+		public long pcrDiscontinuities;
+		public long maxPcrIntervalUs;
+		/** how far a PCR was off the line through its neighbours */
+		public long maxPcrJitterUs;
+
+		PidReport(int pid, int streamType) {
+			this.pid = pid;
+			this.streamType = streamType;
+		}
+	}
+
+	/**
+	 * The result of a scan.
+	 */
+	public static class Report {
+		public long bytes;
+		public long packets;
+		public long syncLosses;
+		public long transportErrors;
+		/** sync losses, transport, continuity and PES errors */
+		public long errors;
+		/** where the first errors are, in file order */
+		public long[] errorOffsets;
+		public final List<PidReport> pids = new ArrayList<PidReport>();
+		public final KeyframeIndex keyframes = new KeyframeIndex();
+		public long elapsedMs;
+
+		public boolean isClean() {
+			return errors == 0;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder s = new StringBuilder();
+			s.append(String.format(
+					"%d bytes, %d packets in %d ms, %d errors, %d sync losses,"
+							+ " %d transport errors, %d keyframes\n", bytes,
+					packets, elapsedMs, errors, syncLosses, transportErrors,
+					keyframes.size()));
+			for (PidReport pid : pids) {
+				s.append(String.format(
+						"pid 0x%04x type 0x%02x: %d packets, %d cc errors,"
+								+ " %d pes errors", pid.pid,
+						pid.streamType & 0xff, pid.packets,
+						pid.continuityErrors, pid.pesErrors));
+				if (pid.pcrCount > 0) {
+					s.append(String.format(
+							", %d pcrs, %d discontinuities, max interval %d us,"
+									+ " max jitter %d us", pid.pcrCount,
+							pid.pcrDiscontinuities, pid.maxPcrIntervalUs,
+							pid.maxPcrJitterUs));
+				}
+				s.append('\n');
+			}
+			if (errorOffsets.length > 0) {
+				s.append("first errors at");
+				for (long offset : errorOffsets) {
+					s.append(' ').append(offset);
+				}
+				s.append('\n');
+			}
+			return s.toString();
+		}
+	}
+
+	private final SourceFactory mFactory;
+	private final long mRangeBytes;
+
+	// from the program tables, before the ranges are scanned
+	private final int[] mStreamTypes = new int[kMaxPid + 1];
+	private int mVideoPid = -1;
+
+	/**
+	 * @return a factory opening {@code path} with {@link TsDataSource}
+	 */
+	public static SourceFactory forFile(final String path) {
+		return new SourceFactory() {
+			@Override
+			public DataSource open() {
+				return new TsDataSource(path);
+			}
+		};
+	}
+
+	public TsIntegrityScanner(SourceFactory factory) {
+		this(factory, kDefaultRangeBytes);
+	}
+
+	/**
+	 * @param rangeBytes how much of the file one task scans, rounded down
+	 *            to whole packets
+	 */
+	public TsIntegrityScanner(SourceFactory factory, long rangeBytes) {
+		rangeBytes -= rangeBytes % kPacketSize;
+		if (rangeBytes <= 0) {
+			throw new IllegalArgumentException();
+		}
+		mFactory = factory;
+		mRangeBytes = rangeBytes;
+	}
+
+	/**
+	 * Scans the whole file on {@code pool} and blocks until it is done.
+	 */
+	public Report scan(ForkJoinPool pool) throws IOException {
+		long startNs = System.nanoTime();
+		long size = findStreams();
+		Range range;
+		try {
+			range = pool.invoke(new RangeTask(0, size));
+		} catch (ScanException e) {
+			throw e.getCause();
+		}
+		if (range.firstPacket > 0) {
+			// garbage before the first packet
+			++range.syncLosses;
+			++range.errors;
+		}
+		Report report = toReport(range, size);
+		report.elapsedMs = (System.nanoTime() - startNs) / 1000000;
+		Log.d(TAG, "scanned {} bytes in {} ms", size, report.elapsedMs);
+		return report;
+	}
+
+	/**
+	 * Reads the program tables at the start of the file to learn which
+	 * PIDs carry PES packets and which one is the video.
+	 *
+	 * @return the size of the file
+	 */
+	private long findStreams() throws IOException {
+		Arrays.fill(mStreamTypes, -1);
+		mVideoPid = -1;
+		DataSource source = mFactory.open();
+		try {
+			final boolean[] found = new boolean[1];
+			TsDemuxer demuxer = new TsDemuxer(source, new TsDemuxer.Listener() {
+				@Override
+				public void onStreamFound(int pid, int streamType) {
+					found[0] = true;
+					mStreamTypes[pid] = streamType;
+					if (mVideoPid < 0 && KeyframeIndexer.isVideo(streamType)) {
+						mVideoPid = pid;
+					}
+				}
+
+				@Override
+				public void onPesPacket(TsDemuxer.PesPacket packet) {
+				}
+			});
+			// a PMT declares all of its streams at once
+			while (!found[0] && demuxer.getPosition() < kTableSearchBytes) {
+				if (demuxer.demux(kTablePacketsPerStep) < 0) {
+					break;
+				}
+			}
+			if (!found[0]) {
+				Log.w(TAG, "no program tables, PES packets are not checked");
+			}
+			return source.getSize();
+		} finally {
+			source.close();
+		}
+	}
+
+	private Report toReport(Range range, long size) {
+		Report report = new Report();
+		report.bytes = size;
+		report.packets = range.packets;
+		report.syncLosses = range.syncLosses;
+		report.transportErrors = range.transportErrors;
+		report.errors = range.errors;
+		report.errorOffsets = Arrays.copyOf(range.errorOffsets,
+				range.errorOffsetCount);
+		int[] pids = Arrays.copyOf(range.seen, range.seenCount);
+		Arrays.sort(pids);
+		for (int pid : pids) {
+			PidState state = range.pids[pid];
+			PidReport pidReport = new PidReport(pid, mStreamTypes[pid]);
+			pidReport.packets = state.packets;
+			pidReport.continuityErrors = state.continuityErrors;
+			pidReport.pesErrors = state.pesErrors;
+			pidReport.pcrCount = state.pcrCount;
+			pidReport.pcrDiscontinuities = state.pcrDiscontinuities;
+			pidReport.maxPcrIntervalUs = state.maxPcrIntervalUs;
+			pidReport.maxPcrJitterUs = state.maxPcrJitterUs;
+			report.pids.add(pidReport);
+		}
+		// times relative to the first timestamp of the file, like the
+		// extractor and the indexer
+		for (int i = 0; i < range.keyframeCount; i++) {
+			long timeUs = TsDemuxer
+					.timestampToUs((range.keyframePts[i] - range.firstPts)
+							& kTimestampMask);
+			report.keyframes.add(timeUs, range.keyframeOffsets[i]);
+		}
+		report.keyframes.setComplete();
+		return report;
+	}
+
+	/**
+	 * Carries an {@link IOException} out of a task.
+	 */
+	private static class ScanException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		ScanException(IOException cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized IOException getCause() {
+			return (IOException) super.getCause();
+		}
+	}
+
+	private class RangeTask extends RecursiveTask<Range> {
+		private static final long serialVersionUID = 1L;
+
+		private final long mStart;
+		private final long mEnd;
+
+		RangeTask(long start, long end) {
+			mStart = start;
+			mEnd = end;
+		}
+
+		@Override
+		protected Range compute() {
+			if (mEnd - mStart <= mRangeBytes) {
+				try {
+					return scanRange(mStart, mEnd);
+				} catch (IOException e) {
+					throw new ScanException(e);
+				}
+			}
+			long middle = mStart + (mEnd - mStart) / 2;
+			middle -= middle % kPacketSize;
+			RangeTask left = new RangeTask(mStart, middle);
+			left.fork();
+			Range right = new RangeTask(middle, mEnd).compute();
+			return left.join().append(right);
+		}
+	}
+
+	/**
+	 * Scans the packets starting in {@code [start, end)}. The last one may
+	 * end after {@code end}.
+	 */
+	private Range scanRange(long start, long end) throws IOException {
+		Range range = new Range();
+		DataSource source = mFactory.open();
+		try {
+			// packets from pos on that must be in the buffer, if the source
+			// has them
+			final int lookahead = (1 + kSyncConfirmPackets) * kPacketSize;
+			byte[] read = new byte[kReadSize];
+			byte[] buffer = new byte[kReadSize + lookahead];
+			long bufferOffset = start;
+			int size = 0;
+			int pos = 0;
+			boolean endOfSource = false;
+			// a packet is only trusted on its own once the stream is in sync.
+			// The range starts on the packet grid of the file, which the range
+			// before it normally ends on, so a scan of the whole file would
+			// be in sync here as well.
+			boolean synced = true;
+			while (true) {
+				if (size - pos < lookahead && !endOfSource) {
+					System.arraycopy(buffer, pos, buffer, 0, size - pos);
+					bufferOffset += pos;
+					size -= pos;
+					pos = 0;
+					// whole packets starting before the end, and the ones
+					// confirming the sync of the last one
+					long limit = end + lookahead - bufferOffset - size;
+					int n = limit <= 0 ? -1 : source.readAt(bufferOffset
+							+ size, read, (int) Math.min(read.length, limit));
+					if (n > 0) {
+						System.arraycopy(read, 0, buffer, size, n);
+						size += n;
+					} else {
+						endOfSource = true;
+					}
+				}
+				long offset = bufferOffset + pos;
+				if (offset >= end || size - pos < kPacketSize) {
+					break;
+				}
+				if (!isSync(buffer, pos, size, synced)) {
+					// a loss at the start is the range before's to count
+					if (synced && range.firstPacket >= 0) {
+						++range.syncLosses;
+						range.error(offset);
+						synced = false;
+					}
+					++pos;
+					continue;
+				}
+				synced = true;
+				if (range.firstPacket < 0) {
+					range.firstPacket = offset;
+				}
+				scanPacket(range, buffer, pos, offset);
+				pos += kPacketSize;
+				range.nextPacket = offset + kPacketSize;
+			}
+			range.endSynced = synced;
+		} finally {
+			source.close();
+		}
+		return range;
+	}
+
+	private static boolean isSync(byte[] buffer, int pos, int size,
+			boolean synced) {
+		if ((buffer[pos] & 0xff) != kSyncByte) {
+			return false;
+		}
+		if (synced) {
+			return true;
+		}
+		for (int i = 1; i <= kSyncConfirmPackets; i++) {
+			int next = pos + i * kPacketSize;
+			if (next >= size) {
+				// the end of the file
+				break;
+			}
+			if ((buffer[next] & 0xff) != kSyncByte) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void scanPacket(Range range, byte[] p, int pos, long offset) {
+		++range.packets;
+		if ((p[pos + 1] & 0x80) != 0) {
+			// the receiver flagged it, nothing in it can be trusted
+			++range.transportErrors;
+			range.error(offset);
+			return;
+		}
+		int pid = ((p[pos + 1] & 0x1f) << 8) | (p[pos + 2] & 0xff);
+		if (pid == kNullPid) {
+			return;
+		}
+		PidState state = range.pid(pid);
+		++state.packets;
+		boolean unitStart = (p[pos + 1] & 0x40) != 0;
+		int adaptationControl = (p[pos + 3] >> 4) & 0x03;
+		int continuityCounter = p[pos + 3] & 0x0f;
+		int end = pos + kPacketSize;
+		int payload = pos + 4;
+		boolean discontinuity = false;
+		boolean randomAccess = false;
+		if ((adaptationControl & 0x02) != 0) {
+			int adaptationLength = p[pos + 4] & 0xff;
+			if (adaptationLength > 0) {
+				int flags = p[pos + 5] & 0xff;
+				discontinuity = (flags & 0x80) != 0;
+				randomAccess = (flags & 0x40) != 0;
+				if ((flags & 0x10) != 0 && adaptationLength >= 7) {
+					state.addPcr(parsePcr(p, pos + 6), offset, discontinuity);
+				}
+			}
+			payload += 1 + adaptationLength;
+		}
+		// the counter only counts packets with payload
+		if ((adaptationControl & 0x01) == 0 || payload >= end) {
+			return;
+		}
+		if (state.lastCc < 0) {
+			state.firstCc = continuityCounter;
+			state.firstCcOffset = offset;
+			state.firstCcDiscontinuity = discontinuity;
+		} else if (!discontinuity
+				&& continuityCounter != ((state.lastCc + 1) & 0x0f)) {
+			if (continuityCounter == state.lastCc) {
+				// a duplicate packet, allowed once
+				return;
+			}
+			++state.continuityErrors;
+			range.error(offset);
+			// the PES packets around the gap cannot be measured
+			state.openExpected = -1;
+			if (!state.sawStart) {
+				state.headBroken = true;
+			}
+		}
+		state.lastCc = continuityCounter;
+
+		int streamType = mStreamTypes[pid];
+		if (streamType < 0) {
+			// tables and PIDs no PMT declared
+			return;
+		}
+		int payloadSize = end - payload;
+		if (!unitStart) {
+			if (state.sawStart) {
+				state.openBytes += payloadSize;
+			} else {
+				state.headBytes += payloadSize;
+			}
+			return;
+		}
+		if (state.sawStart) {
+			state.checkPesLength(range, offset);
+		} else {
+			state.sawStart = true;
+			state.firstStartOffset = offset;
+		}
+		state.openExpected = -1;
+		state.openBytes = payloadSize;
+		if (payloadSize < 9 || p[payload] != 0 || p[payload + 1] != 0
+				|| p[payload + 2] != 1) {
+			++state.pesErrors;
+			range.error(offset);
+			return;
+		}
+		int pesLength = ((p[payload + 4] & 0xff) << 8) | (p[payload + 5] & 0xff);
+		if (pesLength != 0) {
+			state.openExpected = 6 + pesLength;
+		}
+		int headerLength = 9 + (p[payload + 8] & 0xff);
+		long pts = TsDemuxer.NO_TIMESTAMP;
+		if ((p[payload + 7] & 0x80) != 0 && headerLength >= 14
+				&& payload + 14 <= end) {
+			pts = TsDemuxer.parseTimestamp(p, payload + 9);
+		}
+		if (pts == TsDemuxer.NO_TIMESTAMP) {
+			return;
+		}
+		if (range.firstPts == TsDemuxer.NO_TIMESTAMP) {
+			range.firstPts = pts;
+		}
+		if (pid == mVideoPid
+				&& (randomAccess || (payload + headerLength < end && KeyframeIndexer
+						.isKeyframe(streamType, p, payload + headerLength, end
+								- payload - headerLength)))) {
+			range.addKeyframe(offset, pts);
+		}
+	}
+
+	/**
+	 * @return the PCR in 27 MHz units
+	 */
+	private static long parsePcr(byte[] p, int i) {
+		long base = ((p[i] & 0xffl) << 25) | ((p[i + 1] & 0xffl) << 17)
+				| ((p[i + 2] & 0xffl) << 9) | ((p[i + 3] & 0xffl) << 1)
+				| ((p[i + 4] & 0xffl) >> 7);
+		int extension = ((p[i + 4] & 0x01) << 8) | (p[i + 5] & 0xff);
+		return base * 300 + extension;
+	}
+
+	/**
+	 * @return {@code to - from} in 27 MHz units across a wrap of the PCR
+	 */
+	private static long pcrDelta(long from, long to) {
+		long delta = to - from;
+		if (delta < -kPcrWrap / 2) {
+			delta += kPcrWrap;
+		} else if (delta > kPcrWrap / 2) {
+			delta -= kPcrWrap;
+		}
+		return delta;
+	}
+
+	/**
+	 * What one range saw of a PID, including its edges.
+	 */
+	private static final class PidState {
+		long packets;
+		long continuityErrors;
+		long pesErrors;
+
+		// the counters of the first and the last packet with payload
+		int firstCc = -1;
+		long firstCcOffset;
+		boolean firstCcDiscontinuity;
+		int lastCc = -1;
+
+		// PES bytes before the first unit start, and the PES packet still
+		// open at the end of the range with the length it should have, or
+		// -1 if that is not known
+		boolean sawStart;
+		long firstStartOffset;
+		long headBytes;
+		boolean headBroken;
+		long openExpected = -1;
+		long openBytes;
+
+		// the first two and the last two PCRs, and whether they are
+		// continuous with each other
+		long pcrCount;
+		long firstPcr, firstPcrOffset;
+		boolean firstPcrDiscontinuity;
+		long secondPcr, secondPcrOffset;
+		boolean firstPairOk;
+		long prevPcr, prevPcrOffset;
+		long lastPcr, lastPcrOffset;
+		boolean lastPairOk;
+		long pcrDiscontinuities;
+		long maxPcrIntervalUs;
+		long maxPcrJitterUs;
+
+		void checkPesLength(Range range, long offset) {
+			if (openExpected >= 0 && openBytes != openExpected) {
+				++pesErrors;
+				range.error(offset);
+			}
+		}
+
+		void addPcr(long pcr, long offset, boolean discontinuity) {
+			if (pcrCount == 0) {
+				firstPcr = pcr;
+				firstPcrOffset = offset;
+				firstPcrDiscontinuity = discontinuity;
+			} else {
+				boolean ok = checkPcrPair(lastPcr, pcr, discontinuity);
+				if (pcrCount >= 2 && lastPairOk && ok) {
+					checkPcrJitter(prevPcr, prevPcrOffset, lastPcr,
+							lastPcrOffset, pcr, offset);
+				}
+				if (pcrCount == 1) {
+					secondPcr = pcr;
+					secondPcrOffset = offset;
+					firstPairOk = ok;
+				}
+				lastPairOk = ok;
+			}
+			prevPcr = lastPcr;
+			prevPcrOffset = lastPcrOffset;
+			lastPcr = pcr;
+			lastPcrOffset = offset;
+			++pcrCount;
+		}
+
+		/**
+		 * @return true if the PCRs are continuous
+		 */
+		boolean checkPcrPair(long from, long to, boolean discontinuity) {
+			long intervalUs = pcrDelta(from, to) / 27;
+			if (discontinuity || intervalUs < 0 || intervalUs > kMaxPcrGapUs) {
+				++pcrDiscontinuities;
+				return false;
+			}
+			maxPcrIntervalUs = Math.max(maxPcrIntervalUs, intervalUs);
+			return true;
+		}
+
+		/**
+		 * Compares the middle PCR with where the line through its neighbours
+		 * puts it at its byte position.
+		 */
+		void checkPcrJitter(long a, long aOffset, long b, long bOffset,
+				long c, long cOffset) {
+			if (cOffset == aOffset) {
+				return;
+			}
+			double expected = (double) pcrDelta(a, c) * (bOffset - aOffset)
+					/ (cOffset - aOffset);
+			long jitterUs = (long) Math.abs(pcrDelta(a, b) - expected) / 27;
+			maxPcrJitterUs = Math.max(maxPcrJitterUs, jitterUs);
+		}
+
+		/**
+		 * Adds what the range right after this one saw of the PID.
+		 */
+		void append(Range range, PidState next) {
+			packets += next.packets;
+			continuityErrors += next.continuityErrors;
+			pesErrors += next.pesErrors;
+
+			boolean broken = false;
+			if (lastCc >= 0 && next.firstCc >= 0 && !next.firstCcDiscontinuity
+					&& next.firstCc != ((lastCc + 1) & 0x0f)
+					&& next.firstCc != lastCc) {
+				++continuityErrors;
+				range.error(next.firstCcOffset);
+				broken = true;
+			}
+			if (firstCc < 0) {
+				firstCc = next.firstCc;
+				firstCcOffset = next.firstCcOffset;
+				firstCcDiscontinuity = next.firstCcDiscontinuity;
+			}
+			if (next.lastCc >= 0) {
+				lastCc = next.lastCc;
+			}
+
+			broken |= next.headBroken;
+			if (!sawStart) {
+				headBytes += next.headBytes;
+				headBroken |= next.headBroken || broken;
+				sawStart = next.sawStart;
+				firstStartOffset = next.firstStartOffset;
+				openExpected = next.openExpected;
+				openBytes = next.openBytes;
+			} else if (!next.sawStart) {
+				openBytes += next.headBytes;
+				if (broken) {
+					openExpected = -1;
+				}
+			} else {
+				if (!broken) {
+					openBytes += next.headBytes;
+					checkPesLength(range, next.firstStartOffset);
+				}
+				openExpected = next.openExpected;
+				openBytes = next.openBytes;
+			}
+
+			appendPcrs(next);
+		}
+
+		private void appendPcrs(PidState next) {
+			if (next.pcrCount == 0) {
+				return;
+			}
+			if (pcrCount == 0) {
+				pcrCount = next.pcrCount;
+				firstPcr = next.firstPcr;
+				firstPcrOffset = next.firstPcrOffset;
+				firstPcrDiscontinuity = next.firstPcrDiscontinuity;
+				secondPcr = next.secondPcr;
+				secondPcrOffset = next.secondPcrOffset;
+				firstPairOk = next.firstPairOk;
+				prevPcr = next.prevPcr;
+				prevPcrOffset = next.prevPcrOffset;
+				lastPcr = next.lastPcr;
+				lastPcrOffset = next.lastPcrOffset;
+				lastPairOk = next.lastPairOk;
+				pcrDiscontinuities = next.pcrDiscontinuities;
+				maxPcrIntervalUs = next.maxPcrIntervalUs;
+				maxPcrJitterUs = next.maxPcrJitterUs;
+				return;
+			}
+			// the pair and the triples across the seam
+			boolean ok = checkPcrPair(lastPcr, next.firstPcr,
+					next.firstPcrDiscontinuity);
+			if (pcrCount >= 2 && lastPairOk && ok) {
+				checkPcrJitter(prevPcr, prevPcrOffset, lastPcr, lastPcrOffset,
+						next.firstPcr, next.firstPcrOffset);
+			}
+			if (next.pcrCount >= 2 && ok && next.firstPairOk) {
+				checkPcrJitter(lastPcr, lastPcrOffset, next.firstPcr,
+						next.firstPcrOffset, next.secondPcr,
+						next.secondPcrOffset);
+			}
+			pcrDiscontinuities += next.pcrDiscontinuities;
+			maxPcrIntervalUs = Math.max(maxPcrIntervalUs,
+					next.maxPcrIntervalUs);
+			maxPcrJitterUs = Math.max(maxPcrJitterUs, next.maxPcrJitterUs);
+			if (pcrCount == 1) {
+				secondPcr = next.firstPcr;
+				secondPcrOffset = next.firstPcrOffset;
+				firstPairOk = ok;
+			}
+			if (next.pcrCount >= 2) {
+				prevPcr = next.prevPcr;
+				prevPcrOffset = next.prevPcrOffset;
+				lastPairOk = next.lastPairOk;
+			} else {
+				prevPcr = lastPcr;
+				prevPcrOffset = lastPcrOffset;
+				lastPairOk = ok;
+			}
+			lastPcr = next.lastPcr;
+			lastPcrOffset = next.lastPcrOffset;
+			pcrCount += next.pcrCount;
+		}
+	}
+
+	/**
+	 * What was found in a range of the file, joined with its neighbours as
+	 * the tasks complete.
+	 */
+	private static final class Range {
+		// where the first packet starts and the one after the last would,
+		// and whether the stream was still in sync at the end
+		long firstPacket = -1;
+		long nextPacket = -1;
+		boolean endSynced;
+		long packets;
+		long syncLosses;
+		long transportErrors;
+		long errors;
+		final long[] errorOffsets = new long[kMaxErrorOffsets];
+		int errorOffsetCount;
+
+		final PidState[] pids = new PidState[kMaxPid + 1];
+		// the PIDs in the order they were first seen
+		int[] seen = new int[16];
+		int seenCount;
+
+		long firstPts = TsDemuxer.NO_TIMESTAMP;
+		long[] keyframeOffsets = new long[64];
+		long[] keyframePts = new long[64];
+		int keyframeCount;
+
+		PidState pid(int pid) {
+			PidState state = pids[pid];
+			if (state == null) {
+				state = new PidState();
+				add(pid, state);
+			}
+			return state;
+		}
+
+		private void add(int pid, PidState state) {
+			pids[pid] = state;
+			if (seenCount == seen.length) {
+				seen = Arrays.copyOf(seen, seenCount * 2);
+			}
+			seen[seenCount++] = pid;
+		}
+
+		void error(long offset) {
+			++errors;
+			if (errorOffsetCount < errorOffsets.length) {
+				errorOffsets[errorOffsetCount++] = offset;
+			}
+		}
+
+		void addKeyframe(long offset, long pts) {
+			if (keyframeCount == keyframeOffsets.length) {
+				keyframeOffsets = Arrays.copyOf(keyframeOffsets,
+						keyframeCount * 2);
+				keyframePts = Arrays.copyOf(keyframePts, keyframeCount * 2);
+			}
+			keyframeOffsets[keyframeCount] = offset;
+			keyframePts[keyframeCount] = pts;
+			++keyframeCount;
+		}
+
+		/**
+		 * Joins the range that follows this one.
+		 *
+		 * @return this
+		 */
+		Range append(Range next) {
+			packets += next.packets;
+			syncLosses += next.syncLosses;
+			transportErrors += next.transportErrors;
+			if (endSynced && next.firstPacket >= 0
+					&& next.firstPacket != nextPacket) {
+				// the packet grid moved between the ranges
+				++syncLosses;
+				error(nextPacket);
+			}
+			for (int i = 0; i < next.seenCount; i++) {
+				int pid = next.seen[i];
+				PidState state = pids[pid];
+				if (state == null) {
+					add(pid, next.pids[pid]);
+				} else {
+					state.append(this, next.pids[pid]);
+				}
+			}
+			errors += next.errors;
+			for (int i = 0; i < next.errorOffsetCount
+					&& errorOffsetCount < errorOffsets.length; i++) {
+				errorOffsets[errorOffsetCount++] = next.errorOffsets[i];
+			}
+			for (int i = 0; i < next.keyframeCount; i++) {
+				addKeyframe(next.keyframeOffsets[i], next.keyframePts[i]);
+			}
+			if (firstPts == TsDemuxer.NO_TIMESTAMP) {
+				firstPts = next.firstPts;
+			}
+			if (firstPacket < 0) {
+				firstPacket = next.firstPacket;
+			}
+			if (next.firstPacket >= 0) {
+				nextPacket = next.nextPacket;
+				endSynced = next.endSynced;
+			}
+			return this;
+		}
+	}
+}
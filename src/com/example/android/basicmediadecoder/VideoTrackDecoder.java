@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.basicmediadecoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link TrackDecoder} whose decoder renders to its own surface.
+ */
+public class VideoTrackDecoder extends TrackDecoder {
+	public VideoTrackDecoder(Decoder decoder, SampleQueue samples,
+			FrameDropPolicy policy) {
+		super("video", decoder, samples, policy);
+	}
+
+	@Override
+	protected boolean renderOutputBuffer(int index, ByteBuffer buffer,
+			int offset, int size, long presentationTimeUs) {
+		mDecoder.releaseOutputBuffer(index, true);
+		return true;
+	}
+}